@@ -0,0 +1,99 @@
+/*
+ [The "BSD license"]
+ Copyright (c) 2009 Terence Parr
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+ 1. Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+ 2. Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+ 3. The name of the author may not be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.stringtemplate.v4.benchmark;
+
+import org.stringtemplate.v4.STGroupFile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/** Compare loading all of a large group file with loading it
+ *  {@link STGroupFile#setLazyLoading lazily} and using 20 templates. Usage:
+ *  {@code GroupFileLoadBenchmark [templates [rounds]]}.
+ */
+public class GroupFileLoadBenchmark {
+    public static void main(String[] args) throws Exception {
+        int ntemplates = args.length>0 ? Integer.parseInt(args[0]) : 5000;
+        int rounds = args.length>1 ? Integer.parseInt(args[1]) : 20;
+        String text = groupFile(ntemplates);
+        File file = File.createTempFile("bench", ".stg");
+        file.deleteOnExit();
+        Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            w.write(text);
+        }
+        finally {
+            w.close();
+        }
+        System.out.println(ntemplates+" templates, "+text.length()+" chars");
+        for (int r = 1; r <= rounds; r++) {
+            long eager = time(file, false);
+            long lazy = time(file, true);
+            System.out.printf("round %2d: all %6.1f ms, lazy + 20 templates %6.1f ms%n",
+                              r, eager/1e6, lazy/1e6);
+        }
+    }
+
+    /** Return how many ns it takes to load {@code file} all at once or
+     *  {@code lazy}ly.
+     */
+    static long time(File file, boolean lazy) throws Exception {
+        System.gc();
+        long start = System.nanoTime();
+        STGroupFile group = new STGroupFile(file.getPath());
+        group.setLazyLoading(lazy);
+        group.load();
+        for (int i = 0; i < 20; i++) group.getInstanceOf("t"+(i*4));
+        return System.nanoTime() - start;
+    }
+
+    static String groupFile(int n) {
+        StringBuilder buf = new StringBuilder();
+        buf.append("// generated\n");
+        for (int i = 0; i < n; i++) {
+            switch ( i%4 ) {
+                case 0 :
+                    buf.append("t").append(i).append("(a, b=\"x\", c={<a>!}) ::= <<\n")
+                       .append("  <a>: <b; separator=\", \"> <c>\n")
+                       .append("  <if(a)>yes<else>no<endif>\n>>\n\n");
+                    break;
+                case 1 :
+                    buf.append("t").append(i).append("(xs) ::= \"<xs:{x | [<x>]}>\"\n");
+                    break;
+                case 2 :
+                    buf.append("t").append(i).append("() ::= <%\n  <t").append(i-1).append("([1,2])>\n%>\n");
+                    break;
+                default :
+                    buf.append("m").append(i).append(" ::= [\"a\":\"1\", \"b\":{<key>}, default:key]\n");
+            }
+        }
+        return buf.toString();
+    }
+}
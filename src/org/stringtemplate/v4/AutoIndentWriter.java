@@ -27,6 +27,8 @@
  */
 package org.stringtemplate.v4;
 
+import org.stringtemplate.v4.misc.Escaper;
+
 import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
@@ -52,7 +54,7 @@ import java.util.Stack;
  * {@code line.separator} system property, and can be overridden by passing in a
  * {@code String} to the appropriate constructor.</p>
  */
-public class AutoIndentWriter implements STWriter {
+public class AutoIndentWriter implements NestableSTWriter, EscapingSTWriter {
     /** Stack of indents. Use {@link List} as it's much faster than {@link Stack}. Grows
      *  from 0..n-1.
      */
@@ -93,6 +95,16 @@ public class AutoIndentWriter implements STWriter {
         this(out, System.getProperty("line.separator"));
     }
 
+    /** Subclasses get {@code null} unless they override this, so that the
+     *  interpreter still builds them through their own {@code (Writer)}
+     *  constructor.
+     */
+    @Override
+    public STWriter newNestedWriter(Writer out) {
+        if ( getClass()!=AutoIndentWriter.class ) return null;
+        return new AutoIndentWriter(out);
+    }
+
     @Override
     public void setLineWidth(int lineWidth) {
         this.lineWidth = lineWidth;
@@ -130,10 +142,34 @@ public class AutoIndentWriter implements STWriter {
     /** Write out a string literal or attribute expression or expression element. */
     @Override
     public int write(String str) throws IOException {
+        return write(str, 0, str.length());
+    }
+
+    /** Subclasses that override {@link #write(String)} get the escaped text
+     *  through it, one run at a time.
+     */
+    @Override
+    public int writeEscaped(String str, Escaper escaper) throws IOException {
+        if ( getClass()!=AutoIndentWriter.class ) return escaper.writeRuns(this, str);
         int n = 0;
-        int nll = newline.length();
         int sl = str.length();
-        for (int i=0; i<sl; i++) {
+        int start = 0;
+        int i = escaper.nextEscape(str, 0);
+        while ( i<sl ) {
+            n += write(str, start, i);
+            String rep = escaper.replacement(str, i);
+            n += write(rep, 0, rep.length());
+            start = i + escaper.replacedLength(str, i);
+            i = escaper.nextEscape(str, start);
+        }
+        return n + write(str, start, sl);
+    }
+
+    /** Write chars {@code start..end-1} of {@code str}. */
+    private int write(String str, int start, int end) throws IOException {
+        int n = 0;
+        int nll = newline.length();
+        for (int i=start; i<end; i++) {
             char c = str.charAt(i);
             // found \n or \r\n newline?
             if ( c=='\r' ) continue;
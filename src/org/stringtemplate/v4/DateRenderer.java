@@ -32,15 +32,33 @@ import java.text.SimpleDateFormat;
 import java.util.*;
 
 /**
- * A renderer for {@link Date} and {@link Calendar} objects. It understands a
- * variety of format names as shown in {@link #formatToInt} field. By default it
- * assumes {@code "short"} format. A prefix of {@code "date:"} or
- * {@code "time:"} shows only those components of the time object.
+ * A renderer for {@link Date} and {@link Calendar} objects and, when running
+ * on Java 8 or later, {@code java.time} objects such as {@code Instant},
+ * {@code LocalDate}, {@code LocalDateTime}, {@code ZonedDateTime} and
+ * {@code OffsetDateTime}. It understands a variety of format names as shown
+ * in {@link #formatToInt} field. By default it assumes {@code "short"} format.
+ * A prefix of {@code "date:"} or {@code "time:"} shows only those components
+ * of the time object. Any other format string is a pattern for
+ * {@link SimpleDateFormat} or {@code DateTimeFormatter}.
+ * <p>
+ * Each renderer builds a formatter once per format string and locale and
+ * then reuses it. {@link DateFormat}s aren't thread safe so each thread
+ * keeps its own; immutable {@code DateTimeFormatter}s are shared.
+ * Values without a time zone such as {@code Instant} and
+ * {@code LocalDateTime} are shown in the default time zone, like
+ * {@link Date}.</p>
  */
 // using <Object> because this can handle Date and Calendar objects, which don't have a common supertype.
 public class DateRenderer implements AttributeRenderer<Object> {
     public static final Map<String, Integer> formatToInt;
 
+    /** The most formatters kept for {@link Date}s and for {@code java.time}
+     *  values; a cache is cleared when it fills up.
+     */
+    public static final int MAX_CACHED_FORMATS = 64;
+
+    static final boolean JAVA_TIME_AVAILABLE;
+
     static {
         final Map<String, Integer> map = new HashMap<String, Integer>();
 
@@ -60,23 +78,108 @@ public class DateRenderer implements AttributeRenderer<Object> {
         map.put("time:full", DateFormat.FULL);
 
         formatToInt = Collections.unmodifiableMap(map);
+
+        boolean javaTime;
+        try {
+            Class.forName("java.time.temporal.TemporalAccessor");
+            javaTime = true;
+        }
+        catch (ClassNotFoundException cnfe) {
+            javaTime = false;
+        }
+        JAVA_TIME_AVAILABLE = javaTime;
     }
 
+    /** {@link DateFormat}s by locale then format string, one cache per
+     *  thread so rendering takes no locks.
+     */
+    private final ThreadLocal<FormatCache<DateFormat>> dateFormats =
+        new ThreadLocal<FormatCache<DateFormat>>() {
+            @Override
+            protected FormatCache<DateFormat> initialValue() {
+                return new FormatCache<DateFormat>(new HashMap<Locale, Map<String, DateFormat>>());
+            }
+        };
+
+    /** Renders {@code java.time} values; {@code null} until one shows up. */
+    private volatile AttributeRenderer<Object> javaTime;
+
     @Override
     public String toString(Object value, String formatString, Locale locale) {
-        Date d;
         if ( formatString==null ) formatString = "short";
+        if ( JAVA_TIME_AVAILABLE && !(value instanceof Date) && !(value instanceof Calendar) ) {
+            return getJavaTimeRenderer().toString(value, formatString, locale);
+        }
+        Date d;
         if ( value instanceof Calendar ) d = ((Calendar)value).getTime();
         else d = (Date)value;
-        Integer styleI = formatToInt.get(formatString);
-        DateFormat f;
-        if ( styleI==null ) f = new SimpleDateFormat(formatString, locale);
-        else {
-            int style = styleI.intValue();
-            if ( formatString.startsWith("date:") ) f = DateFormat.getDateInstance(style, locale);
-            else if ( formatString.startsWith("time:") ) f = DateFormat.getTimeInstance(style, locale);
-            else f = DateFormat.getDateTimeInstance(style, style, locale);
+        FormatCache<DateFormat> formats = dateFormats.get();
+        DateFormat f = formats.get(locale, formatString);
+        if ( f==null ) {
+            f = newDateFormat(formatString, locale);
+            formats.put(locale, formatString, f);
         }
+        // the default zone may have changed since f was cached
+        f.setTimeZone(TimeZone.getDefault());
         return f.format(d);
     }
+
+    protected DateFormat newDateFormat(String formatString, Locale locale) {
+        Integer styleI = formatToInt.get(formatString);
+        if ( styleI==null ) return new SimpleDateFormat(formatString, locale);
+        int style = styleI.intValue();
+        if ( formatString.startsWith("date:") ) return DateFormat.getDateInstance(style, locale);
+        if ( formatString.startsWith("time:") ) return DateFormat.getTimeInstance(style, locale);
+        return DateFormat.getDateTimeInstance(style, style, locale);
+    }
+
+    /** Load the {@code java.time} support by name so this class neither
+     *  needs {@code java.time} to compile nor to run.
+     */
+    @SuppressWarnings("unchecked")
+    private AttributeRenderer<Object> getJavaTimeRenderer() {
+        AttributeRenderer<Object> r = javaTime;
+        if ( r==null ) {
+            try {
+                r = (AttributeRenderer<Object>)Class.forName("org.stringtemplate.v4.JavaTimeRenderer")
+                    .getDeclaredConstructor().newInstance();
+            }
+            catch (Exception e) {
+                throw new UnsupportedOperationException("can't render java.time values", e);
+            }
+            javaTime = r;
+        }
+        return r;
+    }
+
+    /** A two-level map, locale then format string, so lookups don't
+     *  allocate a combined key.
+     */
+    static class FormatCache<F> {
+        final Map<Locale, Map<String, F>> formats;
+        int size;
+
+        FormatCache(Map<Locale, Map<String, F>> formats) { this.formats = formats; }
+
+        F get(Locale locale, String formatString) {
+            Map<String, F> byFormat = formats.get(locale);
+            return byFormat!=null ? byFormat.get(formatString) : null;
+        }
+
+        void put(Locale locale, String formatString, F f) {
+            if ( size>=MAX_CACHED_FORMATS ) {
+                formats.clear();
+                size = 0;
+            }
+            Map<String, F> byFormat = formats.get(locale);
+            if ( byFormat==null ) {
+                byFormat = newMap();
+                formats.put(locale, byFormat);
+            }
+            byFormat.put(formatString, f);
+            size++;
+        }
+
+        Map<String, F> newMap() { return new HashMap<String, F>(); }
+    }
 }
@@ -34,6 +34,7 @@ import org.stringtemplate.v4.gui.STViz;
 import org.stringtemplate.v4.misc.*;
 
 import java.io.*;
+import java.lang.ref.SoftReference;
 import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.util.*;
@@ -57,7 +58,8 @@ import java.util.*;
  */
 public class Interpreter {
     public enum Option { ANCHOR, FORMAT, NULL, SEPARATOR, WRAP }
-    public static final int DEFAULT_OPERAND_STACK_SIZE = 100;
+    /** Initial size of {@link #operands}; it grows as deeper templates run. */
+    public static final int DEFAULT_OPERAND_STACK_SIZE = 16;
 
     public static final Set<String> predefinedAnonSubtemplateAttributes;
 
@@ -68,13 +70,94 @@ public class Interpreter {
         predefinedAnonSubtemplateAttributes = Collections.unmodifiableSet(set);
     }
 
-    /** Operand stack, grows upwards. */
+    /** Operand stack, grows upwards. Each template makes room for its
+     *  {@link CompiledST#getMaxStackDepth} as it starts.
+     */
     Object[] operands = new Object[DEFAULT_OPERAND_STACK_SIZE];
     /** Stack pointer register. */
     int sp = -1;
     /** The number of characters written on this template line so far. */
     int nwline = 0;
 
+    /** Reusable {@link Bytecode#INSTR_OPTIONS} arrays, one per nesting level
+     *  of expressions with options; the first {@link #optionsDepth} are in use.
+     */
+    Object[][] optionsFrames = new Object[4][];
+    /** Option values rendered to strings, parallel to {@link #optionsFrames}. */
+    String[][] renderedOptionsFrames = new String[4][];
+    int optionsDepth = 0;
+
+    /** Reusable {@link Bytecode#INSTR_ARGS} maps, one per nesting level of
+     *  named-argument invocations; the first {@link #argsDepth} are in use.
+     */
+    ArgumentsMap[] argsFrames = new ArgumentsMap[4];
+    int argsDepth = 0;
+
+    /** Reusable buffers for early evaluation in {@link #toString}, one per
+     *  nesting level; the first {@link #nestedDepth} are in use.
+     */
+    StringBuilderWriter[] nestedBuffers = new StringBuilderWriter[4];
+    int nestedDepth = 0;
+
+    /** {@code (Writer)} constructors of {@link STWriter} classes that aren't
+     *  {@link NestableSTWriter}s, so we look each one up only once. Classes
+     *  are held weakly and constructors softly (a constructor refers to its
+     *  class), so the cache never keeps a class loader alive.
+     */
+    static final Map<Class<?>, SoftReference<Constructor<? extends STWriter>>> writerCtors =
+        Collections.synchronizedMap(new WeakHashMap<Class<?>, SoftReference<Constructor<? extends STWriter>>>());
+
+    /** Escapes the values of the write in progress in an auto-escaping
+     *  group; set by {@link Bytecode#INSTR_WRITE_ESC} and
+     *  {@link Bytecode#INSTR_ESCAPE}. Nested templates start without one.
+     */
+    protected Escaper valueEscaper;
+
+    /** How many templates are being rendered for {@link #writeEscapedTemplate};
+     *  while positive, templates don't escape their own values.
+     */
+    int escapedTemplateDepth = 0;
+
+    /** Limits for this render; {@code null} if unlimited. */
+    protected RenderOptions renderOptions;
+
+    /** How many templates are executing; 1 inside the root template. */
+    int execDepth = 0;
+    /** Instructions left until the next {@link #checkRenderLimits}, which
+     *  happens just before instruction number {@link #instructionsExecuted}
+     *  {@code + }{@link #checkInterval} runs.
+     */
+    long checkCountdown;
+    long checkInterval;
+    /** Instructions executed up to the last {@link #checkRenderLimits}. */
+    long instructionsExecuted;
+    /** The writer and its starting index for the root template. */
+    STWriter rootOut;
+    int rootStart;
+
+    /** Where this render is being traced, if {@link STGroup#getTracer}
+     *  sampled it; otherwise {@code null}.
+     */
+    protected RenderTracer tracer;
+    protected RenderTrace renderTrace;
+
+    /** Run the code of templates as compiled rather than as
+     *  {@link CompiledST#getLinkedCode linked}; set while rendering the
+     *  text of a static template.
+     */
+    protected boolean unlinked;
+
+    /** What {@link #findAttribute} returns for a name no scope defines. */
+    protected static final Object NO_SUCH_ATTRIBUTE = new Object();
+
+    /** Unwinds the interpreter once a render limit has been reported. */
+    static final class RenderAbortedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public synchronized Throwable fillInStackTrace() { return this; }
+    }
+
     /** Render template with respect to this group.
      *
      *  @see ST#groupThatCreatedThisInstance
@@ -146,19 +229,131 @@ public class Interpreter {
     public int exec(STWriter out, InstanceScope scope) {
         final ST self = scope.st;
         if ( trace ) System.out.println("exec("+self.getName()+")");
+        int saveOptionsDepth = optionsDepth;
+        int saveArgsDepth = argsDepth;
+        int saveNestedDepth = nestedDepth;
+        int saveSp = sp;
+        int start = out.index();
+        Escaper saveEscaper = valueEscaper;
+        valueEscaper = null;
+        if ( renderOptions!=null && execDepth==0 ) startRender(out);
+        if ( execDepth==0 ) startTrace(scope);
+        long traceStart = renderTrace!=null ? System.nanoTime() : 0;
+        execDepth++;
         try {
+            if ( renderOptions!=null ) checkNestingDepth(scope);
             setDefaultArguments(out, scope);
             return _exec(out, scope);
         }
+        catch (RenderAbortedException rae) {
+            sp = saveSp;
+            optionsDepth = saveOptionsDepth;
+            argsDepth = saveArgsDepth;
+            nestedDepth = saveNestedDepth;
+            if ( execDepth>1 ) throw rae; // keep unwinding to the root template
+            return out.index() - start;
+        }
         catch (Exception e) {
-            StringWriter sw = new StringWriter();
-            PrintWriter pw = new PrintWriter(sw);
-            e.printStackTrace(pw);
-            pw.flush();
-            errMgr.runTimeError(this, scope, ErrorType.INTERNAL_ERROR,
-                                "internal error: "+sw.toString());
+            // release any frames and operands the failed template still held
+            sp = saveSp;
+            optionsDepth = saveOptionsDepth;
+            argsDepth = saveArgsDepth;
+            nestedDepth = saveNestedDepth;
+            errMgr.runTimeError(this, scope, e);
             return 0;
         }
+        finally {
+            if ( renderTrace!=null ) endTrace(out, scope, start, traceStart);
+            execDepth--;
+            valueEscaper = saveEscaper;
+        }
+    }
+
+    /** Decide whether the render of root template {@code scope} is sampled. */
+    protected void startTrace(InstanceScope scope) {
+        tracer = group.tracer;
+        renderTrace = tracer!=null ? tracer.startRender(scope.st.getName()) : null;
+    }
+
+    /** Record the template finishing in {@code scope}, and publish the trace
+     *  once the root finishes.
+     */
+    protected void endTrace(STWriter out, InstanceScope scope, int start, long startNanos) {
+        renderTrace.template(scope, execDepth, start, out.index() - 1,
+                             startNanos, System.nanoTime());
+        if ( execDepth==1 ) {
+            tracer.record(renderTrace);
+            renderTrace = null;
+        }
+    }
+
+    public RenderOptions getRenderOptions() { return renderOptions; }
+
+    /** Enforce {@code options} on renders by this interpreter; {@code null}
+     *  removes all limits.
+     */
+    public void setRenderOptions(RenderOptions options) { this.renderOptions = options; }
+
+    /** Reset the limit bookkeeping as the root template starts. */
+    protected void startRender(STWriter out) {
+        rootOut = out;
+        rootStart = out.index();
+        instructionsExecuted = 0;
+        resetCheckCountdown();
+    }
+
+    /** Schedule the next check; never later than the instruction that would
+     *  exceed {@link RenderOptions#getMaxInstructions}.
+     */
+    void resetCheckCountdown() {
+        long interval = renderOptions.getCheckInterval();
+        long max = renderOptions.getMaxInstructions();
+        if ( max>0 ) interval = Math.max(1, Math.min(interval, max - instructionsExecuted + 1));
+        checkInterval = interval;
+        checkCountdown = interval;
+    }
+
+    protected void checkNestingDepth(InstanceScope scope) {
+        RenderOptions options = renderOptions;
+        if ( options.isCancelled() ) abortRender(scope, "cancelled");
+        int max = options.getMaxNestingDepth();
+        if ( max>0 && execDepth>max ) {
+            abortRender(scope, "template nesting depth exceeds "+max);
+        }
+    }
+
+    /** Called every {@link RenderOptions#getCheckInterval} instructions by
+     *  {@link #_exec}.
+     */
+    protected void checkRenderLimits(InstanceScope scope) {
+        RenderOptions options = renderOptions;
+        instructionsExecuted += checkInterval;
+        if ( options.isCancelled() ) abortRender(scope, "cancelled");
+        long maxInstructions = options.getMaxInstructions();
+        if ( maxInstructions>0 && instructionsExecuted>maxInstructions ) {
+            abortRender(scope, "more than "+maxInstructions+" instructions executed");
+        }
+        long maxChars = options.getMaxOutputChars();
+        if ( maxChars>0 && rootOut.index() - rootStart>maxChars ) {
+            abortRender(scope, "more than "+maxChars+" chars written");
+        }
+        long deadline = options.getDeadline();
+        if ( deadline>0 && System.currentTimeMillis()>deadline ) {
+            abortRender(scope, "deadline passed");
+        }
+        resetCheckCountdown();
+    }
+
+    /** Count one element of a loop inside a single instruction, such as
+     *  writing or mapping across a list, as an instruction.
+     */
+    protected void checkIteration(InstanceScope scope) {
+        if ( renderOptions!=null && --checkCountdown<=0 ) checkRenderLimits(scope);
+    }
+
+    protected void abortRender(InstanceScope scope, String reason) {
+        errMgr.runTimeError(this, scope, ErrorType.RENDER_ABORTED, reason);
+        throw new RenderAbortedException();
     }
 
     protected int _exec(STWriter out, InstanceScope scope) {
@@ -167,52 +362,54 @@ public class Interpreter {
         int prevOpcode = 0;
         int n = 0; // how many char we write out
         int nargs;
-        int nameIndex;
-        int addr;
         String name;
         Object o, left, right;
         ST st;
         Object[] options;
-        byte[] code = self.impl.instrs;        // which code block are we executing
-        int ip = 0;
-        while ( ip < self.impl.codeSize ) {
-            if ( trace || debug ) trace(scope, ip);
-            short opcode = code[ip];
+        ensureOperandRoom(self.impl.getMaxStackDepth());
+        final boolean tracing = trace || debug;
+        // which code block are we executing; keep calls visible when watching
+        DecodedCode decoded =
+            tracing || unlinked || renderTrace!=null || self.groupThatCreatedThisInstance!=self.impl.nativeGroup ?
+                self.impl.getDecodedCode() : self.impl.getLinkedCode();
+        if ( decoded.staticText!=null && !canWriteStaticText(out) ) decoded = self.impl.getDecodedCode();
+        int[] code = decoded.code;
+        Object[] refs = decoded.refs;
+        int numInstrs = refs.length;
+        int next = 0; // index of the next instruction
+        while ( next < numInstrs ) {
+            int pc = next*DecodedCode.SLOT;
+            int ip = code[pc+DecodedCode.ADDR];
+            if ( tracing ) trace(scope, ip);
+            if ( renderOptions!=null && --checkCountdown<=0 ) checkRenderLimits(scope);
+            short opcode = (short)code[pc];
             //count[opcode]++;
             scope.ip = ip;
-            ip++; //jump to next instruction or first byte of operand
+            int opnd = code[pc+DecodedCode.OPND1];
+            Object ref = refs[next];
+            next++;
             switch (opcode) {
                 case Bytecode.INSTR_LOAD_STR :
-                    // just testing...
-                    load_str(self,ip);
-                    ip += Bytecode.OPND_SIZE_IN_BYTES;
+                    operands[++sp] = ref;
                     break;
                 case Bytecode.INSTR_LOAD_ATTR :
-                    nameIndex = getShort(code, ip);
-                    ip += Bytecode.OPND_SIZE_IN_BYTES;
-                    name = self.impl.strings[nameIndex];
-                    try {
-                        o = getAttribute(scope, name);
-                        if ( o==ST.EMPTY_ATTR ) o = null;
-                    }
-                    catch (STNoSuchAttributeException nsae) {
+                    name = (String)ref;
+                    o = findAttribute(scope, name);
+                    if ( o==NO_SUCH_ATTRIBUTE ) {
                         errMgr.runTimeError(this, scope, ErrorType.NO_SUCH_ATTRIBUTE, name);
                         o = null;
                     }
+                    else if ( o==ST.EMPTY_ATTR ) o = null;
                     operands[++sp] = o;
                     break;
                 case Bytecode.INSTR_LOAD_LOCAL:
-                    int valueIndex = getShort(code, ip);
-                    ip += Bytecode.OPND_SIZE_IN_BYTES;
-                    o = self.locals[valueIndex];
+                    o = self.locals[opnd];
                     if ( o==ST.EMPTY_ATTR ) o = null;
                     operands[++sp] = o;
                     break;
                 case Bytecode.INSTR_LOAD_PROP :
-                    nameIndex = getShort(code, ip);
-                    ip += Bytecode.OPND_SIZE_IN_BYTES;
                     o = operands[sp--];
-                    name = self.impl.strings[nameIndex];
+                    name = (String)ref;
                     operands[++sp] = getObjectProperty(out, scope, o, name);
                     break;
                 case Bytecode.INSTR_LOAD_PROP_IND :
@@ -221,11 +418,8 @@ public class Interpreter {
                     operands[sp] = getObjectProperty(out, scope, o, propName);
                     break;
                 case Bytecode.INSTR_NEW :
-                    nameIndex = getShort(code, ip);
-                    ip += Bytecode.OPND_SIZE_IN_BYTES;
-                    name = self.impl.strings[nameIndex];
-                    nargs = getShort(code, ip);
-                    ip += Bytecode.OPND_SIZE_IN_BYTES;
+                    name = (String)ref;
+                    nargs = code[pc+DecodedCode.OPND2];
                     // look up in original hierarchy not enclosing template (variable group)
                     // see TestSubtemplates.testEvalSTFromAnotherGroup()
                     st = self.groupThatCreatedThisInstance.getEmbeddedInstanceOf(this, scope, name);
@@ -235,8 +429,7 @@ public class Interpreter {
                     operands[++sp] = st;
                     break;
                 case Bytecode.INSTR_NEW_IND:
-                    nargs = getShort(code, ip);
-                    ip += Bytecode.OPND_SIZE_IN_BYTES;
+                    nargs = opnd;
                     name = (String)operands[sp-nargs];
                     st = self.groupThatCreatedThisInstance.getEmbeddedInstanceOf(this, scope, name);
                     storeArgs(scope, nargs, st);
@@ -245,43 +438,34 @@ public class Interpreter {
                     operands[++sp] = st;
                     break;
                 case Bytecode.INSTR_NEW_BOX_ARGS :
-                    nameIndex = getShort(code, ip);
-                    ip += Bytecode.OPND_SIZE_IN_BYTES;
-                    name = self.impl.strings[nameIndex];
+                    name = (String)ref;
                     Map<String, Object> attrs = (ArgumentsMap)operands[sp--];
                     // look up in original hierarchy not enclosing template (variable group)
                     // see TestSubtemplates.testEvalSTFromAnotherGroup()
                     st = self.groupThatCreatedThisInstance.getEmbeddedInstanceOf(this, scope, name);
                     // get n args and store into st's attr list
                     storeArgs(scope, attrs, st);
+                    argsDepth--;
                     operands[++sp] = st;
                     break;
                 case Bytecode.INSTR_SUPER_NEW :
-                    nameIndex = getShort(code, ip);
-                    ip += Bytecode.OPND_SIZE_IN_BYTES;
-                    name = self.impl.strings[nameIndex];
-                    nargs = getShort(code, ip);
-                    ip += Bytecode.OPND_SIZE_IN_BYTES;
+                    name = (String)ref;
+                    nargs = code[pc+DecodedCode.OPND2];
                     super_new(scope, name, nargs);
                     break;
                 case Bytecode.INSTR_SUPER_NEW_BOX_ARGS :
-                    nameIndex = getShort(code, ip);
-                    ip += Bytecode.OPND_SIZE_IN_BYTES;
-                    name = self.impl.strings[nameIndex];
+                    name = (String)ref;
                     attrs = (ArgumentsMap)operands[sp--];
                     super_new(scope, name, attrs);
+                    argsDepth--;
                     break;
                 case Bytecode.INSTR_STORE_OPTION:
-                    int optionIndex = getShort(code, ip);
-                    ip += Bytecode.OPND_SIZE_IN_BYTES;
                     o = operands[sp--];    // value to store
                     options = (Object[])operands[sp]; // get options
-                    options[optionIndex] = o; // store value into options on stack
+                    options[opnd] = o; // store value into options on stack
                     break;
                 case Bytecode.INSTR_STORE_ARG:
-                    nameIndex = getShort(code, ip);
-                    name = self.impl.strings[nameIndex];
-                    ip += Bytecode.OPND_SIZE_IN_BYTES;
+                    name = (String)ref;
                     o = operands[sp--];
                     attrs = (ArgumentsMap)operands[sp];
                     attrs.put(name, o); // leave attrs on stack
@@ -292,10 +476,30 @@ public class Interpreter {
                     n += n1;
                     nwline += n1;
                     break;
+                case Bytecode.INSTR_WRITE_ESC :
+                    valueEscaper = escapedTemplateDepth==0 ? (Escaper)ref : null;
+                    o = operands[sp--];
+                    n1 = writeObjectNoOptions(out, scope, o);
+                    valueEscaper = null;
+                    n += n1;
+                    nwline += n1;
+                    break;
+                case Bytecode.INSTR_ESCAPE :
+                    valueEscaper = escapedTemplateDepth==0 ? (Escaper)ref : null;
+                    break;
                 case Bytecode.INSTR_WRITE_OPT :
                     options = (Object[])operands[sp--]; // get options
                     o = operands[sp--];                 // get option to write
                     int n2 = writeObjectWithOptions(out, scope, o, options);
+                    valueEscaper = null;
+                    optionsDepth--;
+                    n += n2;
+                    nwline += n2;
+                    break;
+                case Bytecode.INSTR_WRITE_CONST_OPT :
+                    o = operands[sp--];
+                    n2 = writeObjectWithRenderedOptions(out, scope, o, (String[])ref);
+                    valueEscaper = null;
                     n += n2;
                     nwline += n2;
                     break;
@@ -305,8 +509,7 @@ public class Interpreter {
                     map(scope,o,st);
                     break;
                 case Bytecode.INSTR_ROT_MAP :
-                    int nmaps = getShort(code, ip);
-                    ip += Bytecode.OPND_SIZE_IN_BYTES;
+                    int nmaps = opnd;
                     List<ST> templates = new ArrayList<ST>();
                     for (int i=nmaps-1; i>=0; i--) templates.add((ST)operands[sp-i]);
                     sp -= nmaps;
@@ -315,32 +518,27 @@ public class Interpreter {
                     break;
                 case Bytecode.INSTR_ZIP_MAP:
                     st = (ST)operands[sp--];
-                    nmaps = getShort(code, ip);
-                    ip += Bytecode.OPND_SIZE_IN_BYTES;
+                    nmaps = opnd;
                     List<Object> exprs = new ObjectList();
                     for (int i=nmaps-1; i>=0; i--) exprs.add(operands[sp-i]);
                     sp -= nmaps;
                     operands[++sp] = zip_map(scope, exprs, st);
                     break;
                 case Bytecode.INSTR_BR :
-                    ip = getShort(code, ip);
+                    next = opnd;
                     break;
                 case Bytecode.INSTR_BRF :
-                    addr = getShort(code, ip);
-                    ip += Bytecode.OPND_SIZE_IN_BYTES;
                     o = operands[sp--]; // <if(expr)>...<endif>
-                    if ( !testAttributeTrue(o) ) ip = addr; // jump
+                    if ( !testAttributeTrue(o) ) next = opnd; // jump
                     break;
                 case Bytecode.INSTR_OPTIONS :
-                    operands[++sp] = new Object[Compiler.NUM_OPTIONS];
+                    operands[++sp] = newOptionsFrame();
                     break;
                 case Bytecode.INSTR_ARGS:
-                    operands[++sp] = new ArgumentsMap();
+                    operands[++sp] = newArgumentsFrame();
                     break;
                 case Bytecode.INSTR_PASSTHRU :
-                    nameIndex = getShort(code, ip);
-                    ip += Bytecode.OPND_SIZE_IN_BYTES;
-                    name = self.impl.strings[nameIndex];
+                    name = (String)ref;
                     attrs = (ArgumentsMap)operands[sp];
                     passthru(scope, name, attrs);
                     break;
@@ -411,9 +609,7 @@ public class Interpreter {
                     operands[++sp] = testAttributeTrue(left) && testAttributeTrue(right);
                     break;
                 case Bytecode.INSTR_INDENT :
-                    int strIndex = getShort(code, ip);
-                    ip += Bytecode.OPND_SIZE_IN_BYTES;
-                    indent(out, scope, strIndex);
+                    indent(out, scope, opnd);
                     break;
                 case Bytecode.INSTR_DEDENT :
                     out.popIndentation();
@@ -448,25 +644,34 @@ public class Interpreter {
                     operands[++sp] = false;
                     break;
                 case Bytecode.INSTR_WRITE_STR :
-                    strIndex = getShort(code, ip);
-                    ip += Bytecode.OPND_SIZE_IN_BYTES;
-                    o = self.impl.strings[strIndex];
+                    o = ref;
                     n1 = writeObjectNoOptions(out, scope, o);
                     n += n1;
                     nwline += n1;
                     break;
+                case DecodedCode.INSTR_INLINED_ARG :
+                    n1 = writeInlinedArg(out, scope, (DecodedCode.InlinedArg)ref);
+                    n += n1;
+                    nwline += n1;
+                    break;
+                case DecodedCode.INSTR_INLINED_END :
+                    sp -= opnd;
+                    break;
+                case DecodedCode.INSTR_WRITE_STATIC :
+                    n1 = writeStaticText(out, scope, (DecodedCode.StaticText)ref);
+                    n += n1;
+                    if ( opnd==DecodedCode.STATIC_CALL ) nwline += n1;
+                    break;
                 // TODO: generate this optimization
 //              case Bytecode.INSTR_WRITE_LOCAL:
-//                  valueIndex = getShort(code, ip);
-//                  ip += Bytecode.OPND_SIZE_IN_BYTES;
-//                  o = self.locals[valueIndex];
+//                  o = self.locals[opnd];
 //                  if ( o==ST.EMPTY_ATTR ) o = null;
 //                  n1 = writeObjectNoOptions(out, self, o);
 //                  n += n1;
 //                  nwline += n1;
 //                  break;
                 default :
-                    errMgr.internalError(self, "invalid bytecode @ "+(ip-1)+": "+opcode, null);
+                    errMgr.internalError(self, "invalid bytecode @ "+ip+": "+opcode, null);
                     self.impl.dump();
             }
             prevOpcode = opcode;
@@ -479,10 +684,53 @@ public class Interpreter {
         return n;
     }
 
-    void load_str(ST self, int ip) {
-        int strIndex = getShort(self.impl.instrs, ip);
-        ip += Bytecode.OPND_SIZE_IN_BYTES;
-        operands[++sp] = self.impl.strings[strIndex];
+    /** Grow {@link #operands} so {@code n} more fit above {@link #sp}. */
+    void ensureOperandRoom(int n) {
+        int needed = sp + 1 + n;
+        if ( needed>operands.length ) {
+            operands = Arrays.copyOf(operands, Math.max(needed, operands.length*2));
+        }
+    }
+
+    /** Return a cleared options array for the next nesting level; released
+     *  by {@link Bytecode#INSTR_WRITE_OPT}.
+     */
+    Object[] newOptionsFrame() {
+        if ( optionsDepth==optionsFrames.length ) {
+            optionsFrames = Arrays.copyOf(optionsFrames, optionsFrames.length*2);
+            renderedOptionsFrames = Arrays.copyOf(renderedOptionsFrames, renderedOptionsFrames.length*2);
+        }
+        Object[] options = optionsFrames[optionsDepth];
+        if ( options==null ) {
+            options = new Object[Compiler.NUM_OPTIONS];
+            optionsFrames[optionsDepth] = options;
+            renderedOptionsFrames[optionsDepth] = new String[Compiler.NUM_OPTIONS];
+        }
+        else {
+            Arrays.fill(options, null);
+        }
+        optionsDepth++;
+        return options;
+    }
+
+    /** Return an empty arguments map for the next nesting level; released by
+     *  {@link Bytecode#INSTR_NEW_BOX_ARGS} or
+     *  {@link Bytecode#INSTR_SUPER_NEW_BOX_ARGS}.
+     */
+    ArgumentsMap newArgumentsFrame() {
+        if ( argsDepth==argsFrames.length ) {
+            argsFrames = Arrays.copyOf(argsFrames, argsFrames.length*2);
+        }
+        ArgumentsMap attrs = argsFrames[argsDepth];
+        if ( attrs==null ) {
+            attrs = new ArgumentsMap();
+            argsFrames[argsDepth] = attrs;
+        }
+        else {
+            attrs.clear();
+        }
+        argsDepth++;
+        return attrs;
     }
 
     // TODO: refactor to remove dup'd code
@@ -532,19 +780,8 @@ public class Interpreter {
             // if not already set by user, set to value from outer scope
             if ( !attrs.containsKey(arg.name) ) {
                 //System.out.println("arg "+arg.name+" missing");
-                try {
-                    Object o = getAttribute(scope, arg.name);
-                    // If the attribute exists but there is no value and
-                    // the formal argument has no default value, make it null.
-                    if ( o==ST.EMPTY_ATTR && arg.defaultValueToken==null ) {
-                        attrs.put(arg.name, null);
-                    }
-                    // Else, the attribute has an existing value, set arg.
-                    else if ( o!=ST.EMPTY_ATTR ) {
-                        attrs.put(arg.name, o);
-                    }
-                }
-                catch (STNoSuchAttributeException nsae) {
+                Object o = findAttribute(scope, arg.name);
+                if ( o==NO_SUCH_ATTRIBUTE ) {
                     // if no such attribute exists for arg.name, set parameter
                     // if no default value
                     if ( arg.defaultValueToken==null ) {
@@ -552,6 +789,15 @@ public class Interpreter {
                         attrs.put(arg.name, null);
                     }
                 }
+                // If the attribute exists but there is no value and
+                // the formal argument has no default value, make it null.
+                else if ( o==ST.EMPTY_ATTR && arg.defaultValueToken==null ) {
+                    attrs.put(arg.name, null);
+                }
+                // Else, the attribute has an existing value, set arg.
+                else if ( o!=ST.EMPTY_ATTR ) {
+                    attrs.put(arg.name, o);
+                }
             }
         }
     }
@@ -566,6 +812,7 @@ public class Interpreter {
                             // we clone the CompiledST to prevent modifying the original
                             // formalArguments map during interpretation.
                             st.impl = st.impl.clone();
+                            st.implShared = false;
                             st.add(argument.getKey(), argument.getValue());
                         } catch (CloneNotSupportedException ex) {
                             noSuchAttributeReported = true;
@@ -684,6 +931,7 @@ public class Interpreter {
      */
     protected int writeObjectNoOptions(STWriter out, InstanceScope scope, Object o) {
         int start = out.index(); // track char we're about to write
+        long traceStart = renderTrace!=null ? System.nanoTime() : 0;
         int n = writeObject(out, scope, o, null);
         if ( debug ) {
             EvalExprEvent e = new EvalExprEvent(scope,
@@ -692,29 +940,133 @@ public class Interpreter {
                                                 getExprStopChar(scope));
             trackDebugEvent(scope, e);
         }
+        if ( renderTrace!=null ) {
+            renderTrace.expr(scope, execDepth, start, out.index() - 1,
+                             getExprStartChar(scope), getExprStopChar(scope),
+                             traceStart, System.nanoTime());
+        }
+        return n;
+    }
+
+    /** Write an argument of a template {@link DecodedCode#link} inlined; the
+     *  template's arguments are on top of the stack. Strings, numbers,
+     *  booleans and chars come out the same from any template. Anything
+     *  else, a template in particular, may look up attributes or report
+     *  errors through the callee, so it gets a real scope for it.
+     */
+    protected int writeInlinedArg(STWriter out, InstanceScope scope, DecodedCode.InlinedArg a) {
+        int firstArg = sp - a.nargs + 1;
+        Object o = operands[firstArg + a.arg];
+        if ( o==null || o instanceof String || o instanceof Number ||
+             o instanceof Boolean || o instanceof Character )
+        {
+            return writeObjectNoOptions(out, scope, o);
+        }
+        ST callee = scope.st.groupThatCreatedThisInstance.createStringTemplateInternally(a.callee);
+        System.arraycopy(operands, firstArg, callee.locals, 0, a.nargs);
+        InstanceScope calleeScope = new InstanceScope(scope, callee);
+        calleeScope.ip = a.ip;
+        return writeObjectNoOptions(out, calleeScope, o);
+    }
+
+    /** Whether {@link DecodedCode.StaticText} comes out of {@code out} the
+     *  way the template would: only a plain {@link AutoIndentWriter} is
+     *  known to indent literal text like it indents what templates write.
+     */
+    protected static boolean canWriteStaticText(STWriter out) {
+        return out.getClass()==AutoIndentWriter.class;
+    }
+
+    /** Write the text of a static template and leave {@link #nwline} as
+     *  running it would have, returning the number of characters it would
+     *  have counted. Writers that can't take the text get the template
+     *  itself.
+     */
+    protected int writeStaticText(STWriter out, InstanceScope scope, DecodedCode.StaticText s) {
+        if ( !canWriteStaticText(out) ) {
+            ST st = scope.st.groupThatCreatedThisInstance.getEmbeddedInstanceOf(this, scope, s.template.name);
+            return writeObjectNoOptions(out, scope, st);
+        }
+        AutoIndentWriter w = (AutoIndentWriter)out;
+        int variant = DecodedCode.StaticText.variant(nwline>0, w.atStartOfLine);
+        DecodedCode.Rendering r = s.renderings[variant];
+        if ( r==null ) {
+            r = renderStaticText(s.template, nwline>0, w.atStartOfLine);
+            s.renderings[variant] = r;
+        }
+        int n = 0;
+        try {
+            // a newline in the middle of a write leaves the writer's
+            // charPosition off by what came before it, so write one at a time
+            String[] lines = r.lines;
+            for (int i = 0; i < lines.length; i++) {
+                if ( i>0 ) n += w.write("\n");
+                if ( lines[i].length()>0 ) n += w.write(lines[i]);
+            }
+            n -= r.newlines * w.newline.length();
+        }
+        catch (IOException ioe) {
+            errMgr.IOError(scope.st, ErrorType.WRITE_IO_ERROR, ioe);
+        }
+        nwline = r.wroteOnLine ? 1 : 0;
         return n;
     }
 
+    /** Run static template {@code impl} once, starting on a line that
+     *  already has text if {@code wroteOnLine} and mid-line unless
+     *  {@code atStartOfLine}.
+     */
+    protected DecodedCode.Rendering renderStaticText(CompiledST impl, boolean wroteOnLine, boolean atStartOfLine) {
+        Interpreter interp = new Interpreter(impl.nativeGroup, locale, errMgr, false);
+        interp.unlinked = true;
+        interp.nwline = wroteOnLine ? 1 : 0;
+        interp.execDepth = 1; // nested in this render; not traced on its own
+        StringWriter sw = new StringWriter();
+        AutoIndentWriter w = new AutoIndentWriter(sw, "\n");
+        w.atStartOfLine = atStartOfLine;
+        ST st = impl.nativeGroup.createStringTemplateInternally(impl);
+        int n = interp._exec(w, new InstanceScope(null, st));
+        String text = sw.toString();
+        return new DecodedCode.Rendering(text, text.length() - n, interp.nwline>0);
+    }
+
     /** Write out an expression result that uses expression options.
      *  E.g., {@code <names; separator=", ">}
      */
     protected int writeObjectWithOptions(STWriter out, InstanceScope scope, Object o,
                                          Object[] options)
     {
-        int start = out.index(); // track char we're about to write
         // precompute all option values (render all the way to strings)
         String[] optionStrings = null;
         if ( options!=null ) {
-            optionStrings = new String[options.length];
+            // reuse the strings frame paired with options if it's ours
+            if ( optionsDepth>0 && optionsFrames[optionsDepth-1]==options ) {
+                optionStrings = renderedOptionsFrames[optionsDepth-1];
+            }
+            else {
+                optionStrings = new String[options.length];
+            }
             for (int i=0; i<Compiler.NUM_OPTIONS; i++) {
                 optionStrings[i] = toString(out, scope, options[i]);
             }
         }
+        return writeObjectWithRenderedOptions(out, scope, o, optionStrings);
+    }
+
+    /** Write out an expression result whose option values are already
+     *  rendered to strings, such as the constant options of
+     *  {@link Bytecode#INSTR_WRITE_CONST_OPT}.
+     */
+    protected int writeObjectWithRenderedOptions(STWriter out, InstanceScope scope, Object o,
+                                                 String[] options)
+    {
+        int start = out.index(); // track char we're about to write
+        long traceStart = renderTrace!=null ? System.nanoTime() : 0;
         if ( options!=null && options[Option.ANCHOR.ordinal()]!=null ) {
             out.pushAnchorPoint();
         }
 
-        int n = writeObject(out, scope, o, optionStrings);
+        int n = writeObject(out, scope, o, options);
 
         if ( options!=null && options[Option.ANCHOR.ordinal()]!=null ) {
             out.popAnchorPoint();
@@ -726,6 +1078,11 @@ public class Interpreter {
                                                 getExprStopChar(scope));
             trackDebugEvent(scope, e);
         }
+        if ( renderTrace!=null ) {
+            renderTrace.expr(scope, execDepth, start, out.index() - 1,
+                             getExprStartChar(scope), getExprStopChar(scope),
+                             traceStart, System.nanoTime());
+        }
         return n;
     }
 
@@ -737,10 +1094,23 @@ public class Interpreter {
         if ( o == null ) {
             if ( options!=null && options[Option.NULL.ordinal()]!=null ) {
                 o = options[Option.NULL.ordinal()];
+                if ( valueEscaper!=null ) { // like other option literals, write as is
+                    Escaper saveEscaper = valueEscaper;
+                    valueEscaper = null;
+                    try {
+                        return writeObject(out, scope, o, options);
+                    }
+                    finally {
+                        valueEscaper = saveEscaper;
+                    }
+                }
             }
             else return 0;
         }
         if ( o instanceof ST ) {
+            if ( valueEscaper!=null && valueEscaper!=Escaper.XML ) {
+                return writeEscapedTemplate(out, scope, (ST)o, options);
+            }
             scope = new InstanceScope(scope, (ST)o);
             if ( options!=null && options[Option.WRAP.ordinal()]!=null ) {
                 // if we have a wrap string, then inform writer it
@@ -767,8 +1137,43 @@ public class Interpreter {
         return n;
     }
 
+    /** Write template {@code st} where the expression writing it isn't in
+     *  HTML text: an attribute value, a URL or a script. Templates are
+     *  compiled for HTML text, so render {@code st} without its own escaping
+     *  and escape all of it, literal text included, as a value for the
+     *  context of the expression.
+     */
+    protected int writeEscapedTemplate(STWriter out, InstanceScope scope, ST st, String[] options) {
+        Escaper escaper = valueEscaper;
+        String v;
+        escapedTemplateDepth++;
+        try {
+            v = toString(out, scope, st);
+        }
+        finally {
+            escapedTemplateDepth--;
+        }
+        int n = 0;
+        try {
+            if ( options!=null && options[Option.WRAP.ordinal()]!=null ) {
+                n += out.writeWrap(options[Option.WRAP.ordinal()]);
+            }
+            n += escaper.write(out, v);
+        }
+        catch (IOException ioe) {
+            errMgr.IOError(scope.st, ErrorType.WRITE_IO_ERROR, ioe, st);
+        }
+        return n;
+    }
+
     protected int writeIterator(STWriter out, InstanceScope scope, Object o, String[] options) throws IOException {
         if ( o==null ) return 0;
+        if ( o instanceof PrimitiveArrayIterator ) {
+            PrimitiveArrayIterator values = (PrimitiveArrayIterator)o;
+            if ( scope.st.impl.nativeGroup.getAttributeRenderer(values.getElementType())==null ) {
+                return writePrimitives(out, scope, values, options);
+            }
+        }
         int n = 0;
         Iterator<?> it = (Iterator<?>)o;
         String separator = null;
@@ -776,6 +1181,7 @@ public class Interpreter {
         boolean seenAValue = false;
         while ( it.hasNext() ) {
             Object iterValue = it.next();
+            checkIteration(scope);
             // Emit separator if we're beyond first value
             boolean needSeparator = seenAValue &&
                 separator!=null &&            // we have a separator and
@@ -789,12 +1195,54 @@ public class Interpreter {
         return n;
     }
 
+    /** Write the elements of a primitive array that has no renderer for its
+     *  element type the way {@link #writePOJO} would, without boxing them.
+     */
+    protected int writePrimitives(STWriter out, InstanceScope scope, PrimitiveArrayIterator values, String[] options)
+        throws IOException
+    {
+        String separator = null;
+        String wrap = null;
+        if ( options!=null ) {
+            separator = options[Option.SEPARATOR.ordinal()];
+            wrap = options[Option.WRAP.ordinal()];
+        }
+        int n = 0;
+        boolean first = true;
+        while ( values.hasNext() ) {
+            String v = values.nextString();
+            checkIteration(scope);
+            if ( separator!=null && !first ) n += out.writeSeparator(separator);
+            first = false;
+            if ( valueEscaper!=null ) {
+                if ( wrap!=null ) n += out.writeWrap(wrap);
+                n += valueEscaper.write(out, v);
+            }
+            else if ( wrap!=null ) n += out.write(v, wrap);
+            else n += out.write(v);
+        }
+        return n;
+    }
+
     protected int writePOJO(STWriter out, InstanceScope scope, Object o, String[] options) throws IOException {
         String formatString = null;
         if ( options!=null ) formatString = options[Option.FORMAT.ordinal()];
+        if ( formatString!=null && o instanceof String && valueEscaper==null ) {
+            Escaper escaper = getStreamingEscaper(scope, formatString);
+            if ( escaper!=null ) {
+                String wrap = options[Option.WRAP.ordinal()];
+                int n = wrap!=null ? out.writeWrap(wrap) : 0;
+                return n + escaper.write(out, (String)o);
+            }
+        }
         String v = renderObject(scope, formatString, o, o.getClass());
         int n;
-        if ( options!=null && options[Option.WRAP.ordinal()]!=null ) {
+        if ( valueEscaper!=null ) {
+            String wrap = options!=null ? options[Option.WRAP.ordinal()] : null;
+            n = wrap!=null ? out.writeWrap(wrap) : 0;
+            n += valueEscaper.write(out, v);
+        }
+        else if ( options!=null && options[Option.WRAP.ordinal()]!=null ) {
             n = out.write(v, options[Option.WRAP.ordinal()]);
         }
         else {
@@ -803,6 +1251,19 @@ public class Interpreter {
         return n;
     }
 
+    /** If {@code formatString} is one of the escaping formats of a plain
+     *  {@link StringRenderer} registered for strings, return an
+     *  {@link Escaper} that writes the same thing without building the
+     *  escaped string.
+     */
+    protected Escaper getStreamingEscaper(InstanceScope scope, String formatString) {
+        Escaper escaper = Escaper.forFormat(formatString);
+        if ( escaper==null ) return null;
+        AttributeRenderer<?> r = scope.st.impl.nativeGroup.getAttributeRenderer(String.class);
+        if ( r==null || r.getClass()!=StringRenderer.class ) return null;
+        return escaper;
+    }
+
     private <T> String renderObject(InstanceScope scope, String formatString, Object o, Class<T> attributeType) {
         // ask the native group defining the surrounding template for the renderer
         AttributeRenderer<? super T> r = scope.st.impl.nativeGroup.getAttributeRenderer(attributeType);
@@ -814,13 +1275,13 @@ public class Interpreter {
     }
 
     protected int getExprStartChar(InstanceScope scope) {
-        Interval templateLocation = scope.st.impl.sourceMap[scope.ip];
+        Interval templateLocation = scope.st.impl.getSourceInterval(scope.ip);
         if ( templateLocation!=null ) return templateLocation.a;
         return -1;
     }
 
     protected int getExprStopChar(InstanceScope scope) {
-        Interval templateLocation = scope.st.impl.sourceMap[scope.ip];
+        Interval templateLocation = scope.st.impl.getSourceInterval(scope.ip);
         if ( templateLocation!=null ) return templateLocation.b;
         return -1;
     }
@@ -868,6 +1329,7 @@ public class Interpreter {
         int ti = 0;
         while ( iter.hasNext() ) {
             Object iterValue = iter.next();
+            checkIteration(scope);
             if ( iterValue == null ) { mapped.add(null); continue; }
             int templateIndex = ti % prototypes.size(); // rotate through
             ti++;
@@ -936,6 +1398,7 @@ public class Interpreter {
         while ( true ) {
             // get a value for each attribute in list; put into ST instance
             int numEmpty = 0;
+            checkIteration(scope);
             ST embedded = group.createStringTemplateInternally(prototype);
             embedded.rawSetAttribute("i0", i);
             embedded.rawSetAttribute("i", i+1);
@@ -981,7 +1444,10 @@ public class Interpreter {
         if ( o instanceof Iterator ) {
             // copy of elements into our temp list
             Iterator<?> it = (Iterator<?>)o;
-            while (it.hasNext()) list.add(it.next());
+            while (it.hasNext()) {
+                list.add(it.next());
+                checkIteration(scope);
+            }
         }
         else {
             list.add(o);
@@ -997,6 +1463,8 @@ public class Interpreter {
      */
     public Object first(InstanceScope scope, Object v) {
         if ( v==null ) return null;
+        ListWindow w = ListWindow.over(v);
+        if ( w!=null ) return w.isEmpty() ? v : w.get(0);
         Object r = v;
         v = convertAnythingIteratableToIterator(scope, v);
         if ( v instanceof Iterator ) {
@@ -1028,6 +1496,7 @@ public class Interpreter {
             Iterator<?> it = (Iterator<?>)v;
             while ( it.hasNext() ) {
                 last = it.next();
+                checkIteration(scope);
             }
         }
         return last;
@@ -1039,6 +1508,11 @@ public class Interpreter {
      */
     public Object rest(InstanceScope scope, Object v) {
         if ( v == null ) return null;
+        ListWindow w = ListWindow.over(v);
+        if ( w!=null ) { // view, don't copy, lists and arrays
+            if ( v instanceof List ? w.size()<=1 : w.isEmpty() ) return null;
+            return w.window(1, w.size());
+        }
         if ( v instanceof List ) { // optimize list case
             List<?> elems = (List<?>)v;
             if ( elems.size()<=1 ) return null;
@@ -1053,6 +1527,7 @@ public class Interpreter {
             while (it.hasNext()) {
                 Object o = it.next();
                 a.add(o);
+                checkIteration(scope);
             }
             return a;
         }
@@ -1062,6 +1537,11 @@ public class Interpreter {
     /** Return all but the last element. <code>trunc(<i>x</i>)==null</code> if <code><i>x</i></code> is single-valued. */
     public Object trunc(InstanceScope scope, Object v) {
         if ( v ==null ) return null;
+        ListWindow w = ListWindow.over(v);
+        if ( w!=null ) {
+            if ( v instanceof List && w.size()<=1 ) return null;
+            return w.window(0, Math.max(w.size()-1, 0));
+        }
         if ( v instanceof List ) { // optimize list case
             List<?> elems = (List<?>)v;
             if ( elems.size()<=1 ) return null;
@@ -1074,15 +1554,23 @@ public class Interpreter {
             while (it.hasNext()) {
                 Object o = it.next();
                 if ( it.hasNext() ) a.add(o); // only add if not last one
+                checkIteration(scope);
             }
             return a;
         }
         return null; // trunc(x)==null when x single-valued attribute
     }
 
-    /** Return a new list without {@code null} values. */
+    /** Return the elements of {@code v} without {@code null} values. Lists,
+     *  arrays and other iterables are filtered lazily as they're iterated.
+     */
     public Object strip(InstanceScope scope, Object v) {
         if ( v ==null ) return null;
+        ListWindow w = v instanceof ListWindow || v.getClass().isArray() ? ListWindow.over(v) : null;
+        // primitives can't be null; keep their window so they aren't boxed
+        if ( w!=null && w.isPrimitive() ) return w;
+        if ( v instanceof Iterable ) return new NonNullIterable((Iterable<?>)v);
+        if ( w!=null ) return new NonNullIterable(w);
         v = convertAnythingIteratableToIterator(scope, v);
         if ( v instanceof Iterator ) {
             List<Object> a = new ArrayList<Object>();
@@ -1090,6 +1578,7 @@ public class Interpreter {
             while (it.hasNext()) {
                 Object o = it.next();
                 if ( o!=null ) a.add(o);
+                checkIteration(scope);
             }
             return a;
         }
@@ -1101,14 +1590,23 @@ public class Interpreter {
      * <p>
      * Note that {@code null} values are <i>not</i> stripped out; use
      * {@code reverse(strip(v))} to do that.</p>
+     * <p>
+     * Random access lists and arrays are reversed by a view rather than a
+     * copy.</p>
      */
     public Object reverse(InstanceScope scope, Object v) {
         if ( v==null ) return null;
+        ListWindow w = ListWindow.over(v);
+        if ( w!=null ) return w.reverse();
         v = convertAnythingIteratableToIterator(scope, v);
         if ( v instanceof Iterator ) {
-            List<Object> a = new LinkedList<Object>();
+            List<Object> a = new ArrayList<Object>();
             Iterator<?> it = (Iterator<?>)v;
-            while (it.hasNext()) a.add(0, it.next());
+            while (it.hasNext()) {
+                a.add(it.next());
+                checkIteration(scope);
+            }
+            Collections.reverse(a);
             return a;
         }
         return v;
@@ -1143,36 +1641,74 @@ public class Interpreter {
         if ( value!=null ) {
             if ( value.getClass()==String.class ) return (String)value;
             // if not string already, must evaluate it
-            StringWriter sw = new StringWriter();
-            STWriter stw;
-            try {
-                Class<? extends STWriter> writerClass = out.getClass();
-                Constructor<? extends STWriter> ctor = writerClass.getConstructor(Writer.class);
-                stw = ctor.newInstance(sw);
+            if ( nestedDepth==nestedBuffers.length ) {
+                nestedBuffers = Arrays.copyOf(nestedBuffers, nestedBuffers.length*2);
             }
-            catch (Exception e) {
-                stw = new AutoIndentWriter(sw);
-                errMgr.runTimeError(this, scope, ErrorType.WRITER_CTOR_ISSUE, out.getClass().getSimpleName());
+            StringBuilderWriter sw = nestedBuffers[nestedDepth];
+            if ( sw==null ) {
+                sw = new StringBuilderWriter();
+                nestedBuffers[nestedDepth] = sw;
             }
+            else {
+                sw.reset();
+            }
+            STWriter stw = newNestedWriter(out, scope, sw);
 
             if (debug && !scope.earlyEval) {
                 scope = new InstanceScope(scope, scope.st);
                 scope.earlyEval = true;
             }
 
-            writeObjectNoOptions(stw, scope, value);
+            Escaper saveEscaper = valueEscaper;
+            valueEscaper = null;
+            nestedDepth++;
+            try {
+                writeObjectNoOptions(stw, scope, value);
+            }
+            finally {
+                nestedDepth--;
+                valueEscaper = saveEscaper;
+            }
 
             return sw.toString();
         }
         return null;
     }
 
+    /** Create a writer like {@code out} that writes to {@code sw}. Ask
+     *  {@code out} if it's a {@link NestableSTWriter}, else fall back on its
+     *  {@code (Writer)} constructor.
+     */
+    protected STWriter newNestedWriter(STWriter out, InstanceScope scope, Writer sw) {
+        if ( out instanceof NestableSTWriter ) {
+            STWriter stw = ((NestableSTWriter)out).newNestedWriter(sw);
+            if ( stw!=null ) return stw;
+        }
+        Class<? extends STWriter> writerClass = out.getClass();
+        try {
+            SoftReference<Constructor<? extends STWriter>> ref = writerCtors.get(writerClass);
+            Constructor<? extends STWriter> ctor = ref!=null ? ref.get() : null;
+            if ( ctor==null ) {
+                ctor = writerClass.getConstructor(Writer.class);
+                writerCtors.put(writerClass, new SoftReference<Constructor<? extends STWriter>>(ctor));
+            }
+            return ctor.newInstance(sw);
+        }
+        catch (Exception e) {
+            errMgr.runTimeError(this, scope, ErrorType.WRITER_CTOR_ISSUE, writerClass.getSimpleName());
+            return new AutoIndentWriter(sw);
+        }
+    }
+
     public Object convertAnythingIteratableToIterator(InstanceScope scope, Object o) {
         Iterator<?> iter = null;
         if ( o == null ) return null;
         if ( o instanceof Iterable )      iter = ((Iterable<?>)o).iterator();
         else if ( o instanceof Object[] )  iter = Arrays.asList((Object[])o).iterator();
-        else if ( o.getClass().isArray() ) iter = new ArrayIterator(o);
+        else if ( o.getClass().isArray() ) {
+            iter = PrimitiveArrayIterator.create(o);
+            if ( iter==null ) iter = new ArrayIterator(o);
+        }
         else if ( o instanceof Map ) {
             if (scope.st.groupThatCreatedThisInstance.iterateAcrossValues) {
                 iter = ((Map<?, ?>)o).values().iterator();
@@ -1216,16 +1752,24 @@ public class Interpreter {
             return null;
         }
 
+        Object value;
         try {
             final ST self = scope.st;
             ModelAdaptor adap = self.groupThatCreatedThisInstance.getModelAdaptor(o.getClass());
-            return adap.getProperty(this, self, o, property, toString(out,scope,property));
+            value = adap.getProperty(this, self, o, property, toString(out,scope,property));
         }
         catch (STNoSuchPropertyException e) {
             errMgr.runTimeError(this, scope, ErrorType.NO_SUCH_PROPERTY,
                                       e, o.getClass().getName()+"."+property);
+            return null;
         }
-        return null;
+        if ( value==ModelAdaptor.NO_SUCH_PROPERTY ) {
+            String name = o.getClass().getName()+"."+property;
+            errMgr.runTimeError(this, scope, ErrorType.NO_SUCH_PROPERTY,
+                                STNoSuchPropertyException.missing(null, name), name);
+            return null;
+        }
+        return value;
     }
 
     /**
@@ -1236,6 +1780,16 @@ public class Interpreter {
      * Return {@link ST#EMPTY_ATTR} if found definition but no value.</p>
      */
     public Object getAttribute(InstanceScope scope, String name) {
+        Object o = findAttribute(scope, name);
+        if ( o==NO_SUCH_ATTRIBUTE ) throw new STNoSuchAttributeException(name, scope);
+        return o;
+    }
+
+    /** Like {@link #getAttribute} but returns {@link #NO_SUCH_ATTRIBUTE}
+     *  rather than throwing when nothing defines {@code name}; misses are
+     *  common enough that building an exception for each costs.
+     */
+    protected Object findAttribute(InstanceScope scope, String name) {
         InstanceScope current = scope;
         while ( current!=null ) {
             ST p = current.st;
@@ -1253,21 +1807,11 @@ public class Interpreter {
         Object o = getDictionary(g, name);
         if ( o!=null ) return o;
 
-        // not found, report unknown attr
-        throw new STNoSuchAttributeException(name, scope);
+        return NO_SUCH_ATTRIBUTE;
     }
 
     public Object getDictionary(STGroup g, String name) {
-        if ( g.isDictionary(name) ) {
-            return g.rawGetDictionary(name);
-        }
-        if ( g.imports!=null ) {
-            for (STGroup sup : g.imports) {
-                Object o = getDictionary(sup, name);
-                if ( o!=null ) return o;
-            }
-        }
-        return null;
+        return g.lookupDictionary(name);
     }
 
     /**
@@ -1280,39 +1824,27 @@ public class Interpreter {
      */
     public void setDefaultArguments(STWriter out, InstanceScope scope) {
         final ST invokedST = scope.st;
-        if ( invokedST.impl.formalArguments==null ||
-             invokedST.impl.numberOfArgsWithDefaultValues==0 ) {
-            return;
-        }
-        for (FormalArgument arg : invokedST.impl.formalArguments.values()) {
-            // if no value for attribute and default arg, inject default arg into self
-            if ( invokedST.locals[arg.index]!=ST.EMPTY_ATTR || arg.defaultValueToken==null ) {
+        FormalArgument[] defaults = invokedST.impl.defaultArguments;
+        if ( defaults==null ) return;
+        Object[] locals = invokedST.locals;
+        for (FormalArgument arg : defaults) {
+            // if no value for attribute, inject default arg into self
+            if ( locals[arg.index]!=ST.EMPTY_ATTR ) continue;
+            if ( arg.defaultKind==FormalArgument.CONSTANT_DEFAULT ) {
+                locals[arg.index] = arg.defaultValue;
                 continue;
             }
-            //System.out.println("setting def arg "+arg.name+" to "+arg.defaultValueToken);
-            if ( arg.defaultValueToken.getType()==GroupParser.ANONYMOUS_TEMPLATE ) {
-                CompiledST code = arg.compiledDefaultValue;
-                if (code == null) {
-                    code = new CompiledST();
-                }
-                ST defaultArgST = group.createStringTemplateInternally(code);
-                defaultArgST.groupThatCreatedThisInstance = group;
-                // If default arg is template with single expression
-                // wrapped in parens, x={<(...)>}, then eval to string
-                // rather than setting x to the template for later
-                // eval.
-                String defArgTemplate = arg.defaultValueToken.getText();
-                if ( defArgTemplate.startsWith("{"+group.delimiterStartChar+"(") &&
-                    defArgTemplate.endsWith(")"+group.delimiterStopChar+"}") ) {
-
-                    invokedST.rawSetAttribute(arg.name, toString(out, new InstanceScope(scope, invokedST), defaultArgST));
-                }
-                else {
-                    invokedST.rawSetAttribute(arg.name, defaultArgST);
-                }
+            CompiledST code = arg.compiledDefaultValue;
+            if (code == null) {
+                code = new CompiledST();
+            }
+            ST defaultArgST = group.createStringTemplateInternally(code);
+            defaultArgST.groupThatCreatedThisInstance = group;
+            if ( arg.defaultKind==FormalArgument.EVALUATED_DEFAULT ) {
+                locals[arg.index] = toString(out, new InstanceScope(scope, invokedST), defaultArgST);
             }
             else {
-                invokedST.rawSetAttribute(arg.name, arg.defaultValue);
+                locals[arg.index] = defaultArgST;
             }
         }
     }
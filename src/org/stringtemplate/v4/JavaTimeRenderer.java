@@ -0,0 +1,108 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4;
+
+import java.text.DateFormat;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** The {@code java.time} half of {@link DateRenderer}, which creates one
+ *  only when {@code java.time} exists. This is the only class that refers
+ *  to {@code java.time}, so the build leaves it out on JDKs before 8.
+ */
+class JavaTimeRenderer implements AttributeRenderer<Object> {
+    /** Immutable formatters shared by all threads; racing {@code put}s at
+     *  worst build a formatter twice.
+     */
+    final DateRenderer.FormatCache<DateTimeFormatter> formatters =
+        new DateRenderer.FormatCache<DateTimeFormatter>(new ConcurrentHashMap<Locale, Map<String, DateTimeFormatter>>()) {
+            @Override
+            Map<String, DateTimeFormatter> newMap() {
+                return new ConcurrentHashMap<String, DateTimeFormatter>();
+            }
+        };
+
+    @Override
+    public String toString(Object value, String formatString, Locale locale) {
+        TemporalAccessor t = toZoned((TemporalAccessor)value);
+        boolean dateOnly = !t.isSupported(ChronoField.HOUR_OF_DAY);
+        boolean timeOnly = !t.isSupported(ChronoField.EPOCH_DAY);
+        // plain style names mean whatever components the value has
+        String key = formatString;
+        if ( DateRenderer.formatToInt.containsKey(formatString) && formatString.indexOf(':')<0 ) {
+            if ( dateOnly ) key = "date:"+formatString;
+            else if ( timeOnly ) key = "time:"+formatString;
+        }
+        DateTimeFormatter f = formatters.get(locale, key);
+        if ( f==null ) {
+            f = newFormatter(key, locale);
+            synchronized (formatters) {
+                formatters.put(locale, key, f);
+            }
+        }
+        return f.format(t);
+    }
+
+    /** Attach the default zone to values that have none so localized
+     *  long and full styles, which show a zone, work as they do for
+     *  {@link java.util.Date}s.
+     */
+    static TemporalAccessor toZoned(TemporalAccessor t) {
+        if ( t instanceof Instant ) return ((Instant)t).atZone(ZoneId.systemDefault());
+        if ( t instanceof LocalDateTime ) return ((LocalDateTime)t).atZone(ZoneId.systemDefault());
+        return t;
+    }
+
+    static DateTimeFormatter newFormatter(String formatString, Locale locale) {
+        Integer styleI = DateRenderer.formatToInt.get(formatString);
+        if ( styleI==null ) return DateTimeFormatter.ofPattern(formatString, locale);
+        FormatStyle style = toFormatStyle(styleI.intValue());
+        DateTimeFormatter f;
+        if ( formatString.startsWith("date:") ) f = DateTimeFormatter.ofLocalizedDate(style);
+        else if ( formatString.startsWith("time:") ) f = DateTimeFormatter.ofLocalizedTime(style);
+        else f = DateTimeFormatter.ofLocalizedDateTime(style);
+        return f.withLocale(locale);
+    }
+
+    static FormatStyle toFormatStyle(int style) {
+        switch ( style ) {
+            case DateFormat.FULL : return FormatStyle.FULL;
+            case DateFormat.LONG : return FormatStyle.LONG;
+            case DateFormat.MEDIUM : return FormatStyle.MEDIUM;
+            default : return FormatStyle.SHORT;
+        }
+    }
+}
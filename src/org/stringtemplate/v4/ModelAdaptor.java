@@ -48,6 +48,14 @@ import java.util.Map;
  *     the type of values this adaptor can handle.
  */
 public interface ModelAdaptor<T> {
+    /** Returned by {@link #getProperty} for a missing property; the
+     *  interpreter reports it like a thrown {@link STNoSuchPropertyException}.
+     */
+    Object NO_SUCH_PROPERTY = new Object() {
+        @Override
+        public String toString() { return "<no such property>"; }
+    };
+
     /**
      * Lookup property name in {@code o} and return its value.
      * <p>
@@ -55,6 +63,12 @@ public interface ModelAdaptor<T> {
      * E.g., if {@code o} is {@link Map}, {@code property} could be
      * any key type. If we need to convert to {@code String}, then it's done by
      * {@code ST} and passed in here.</p>
+     * <p>
+     * Return {@link #NO_SUCH_PROPERTY} if {@code model} has no such property,
+     * or throw {@link STNoSuchPropertyException}; use
+     * {@link STNoSuchPropertyException#missing} for a plain miss so the
+     * exception is cheap. {@link org.stringtemplate.v4.misc.ObjectModelAdaptor}
+     * throws, so subclasses can catch a miss from {@code super.getProperty}.</p>
      */
     Object getProperty(Interpreter interp, ST self, T model, Object property, String propertyName)
         throws STNoSuchPropertyException;
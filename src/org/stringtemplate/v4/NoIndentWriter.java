@@ -27,6 +27,8 @@
  */
 package org.stringtemplate.v4;
 
+import org.stringtemplate.v4.misc.Escaper;
+
 import java.io.IOException;
 import java.io.Writer;
 
@@ -36,9 +38,34 @@ public class NoIndentWriter extends AutoIndentWriter {
         super(out);
     }
 
+    @Override
+    public STWriter newNestedWriter(Writer out) {
+        if ( getClass()!=NoIndentWriter.class ) return null;
+        return new NoIndentWriter(out);
+    }
+
     @Override
     public int write(String str) throws IOException {
         out.write(str);
         return str.length();
     }
+
+    @Override
+    public int writeEscaped(String str, Escaper escaper) throws IOException {
+        if ( getClass()!=NoIndentWriter.class ) return escaper.writeRuns(this, str);
+        int n = 0;
+        int sl = str.length();
+        int start = 0;
+        int i = escaper.nextEscape(str, 0);
+        while ( i<sl ) {
+            out.write(str, start, i-start);
+            String rep = escaper.replacement(str, i);
+            out.write(rep);
+            n += i-start + rep.length();
+            start = i + escaper.replacedLength(str, i);
+            i = escaper.nextEscape(str, start);
+        }
+        out.write(str, start, sl-start);
+        return n + sl-start;
+    }
 }
@@ -29,8 +29,15 @@ package org.stringtemplate.v4;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Arrays;
 import java.util.Formatter;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /** Works with {@link Byte}, {@link Short}, {@link Integer}, {@link Long}, and {@link BigInteger} as well as
  *  {@link Float}, {@link Double}, and {@link BigDecimal}.  You pass in a format string suitable
@@ -38,11 +45,34 @@ import java.util.Locale;
  *  <p>
  *  For example, {@code %10d} emits a number as a decimal int padding to 10 char.
  *  This can even do {@code long} to {@code Date} conversions using the format string.</p>
+ *  <p>
+ *  Each format string is parsed once. Strings with a single {@code %d} or
+ *  {@code %f} conversion, optionally with the {@code ,} flag, a width and a
+ *  precision, are then formatted directly without a {@link Formatter}, giving
+ *  the same output; anything else goes through a {@link Formatter}.</p>
  */
 public class NumberRenderer implements AttributeRenderer<Object> {
+    /** Parsed format strings; cleared when it reaches this many. */
+    public static final int MAX_CACHED_FORMATS = 256;
+
+    /** Marks format strings we hand to {@link Formatter}. */
+    static final Plan GENERAL = new Plan("", "", false, 0, -1, 'x');
+
+    static final ConcurrentMap<String, Plan> plans = new ConcurrentHashMap<String, Plan>();
+
+    static final ConcurrentMap<Locale, Symbols> symbols = new ConcurrentHashMap<Locale, Symbols>();
+
+    /** What {@link Formatter} uses for a {@code null} locale or {@link Locale#US}. */
+    static final Symbols US_SYMBOLS = new Symbols('0', ',', 3, '.');
+
     @Override
     public String toString(Object value, String formatString, Locale locale) {
         if ( formatString==null ) return value.toString();
+        Plan plan = getPlan(formatString);
+        if ( plan!=GENERAL ) {
+            String s = plan.format(value, locale);
+            if ( s!=null ) return s;
+        }
         Formatter f = new Formatter(locale);
         try {
             f.format(formatString, value);
@@ -52,4 +82,175 @@ public class NumberRenderer implements AttributeRenderer<Object> {
             f.close();
         }
     }
+
+    static Plan getPlan(String formatString) {
+        Plan plan = plans.get(formatString);
+        if ( plan==null ) {
+            plan = Plan.parse(formatString);
+            if ( plans.size()>=MAX_CACHED_FORMATS ) plans.clear();
+            plans.put(formatString, plan);
+        }
+        return plan;
+    }
+
+    static Symbols getSymbols(Locale locale) {
+        if ( locale==null || locale.equals(Locale.US) ) return US_SYMBOLS;
+        Symbols s = symbols.get(locale);
+        if ( s==null ) {
+            DecimalFormatSymbols dfs = DecimalFormatSymbols.getInstance(locale);
+            int groupingSize = 3;
+            NumberFormat nf = NumberFormat.getIntegerInstance(locale);
+            if ( nf instanceof DecimalFormat ) groupingSize = ((DecimalFormat)nf).getGroupingSize();
+            s = new Symbols(dfs.getZeroDigit(), dfs.getGroupingSeparator(),
+                            groupingSize, dfs.getDecimalSeparator());
+            symbols.put(locale, s);
+        }
+        return s;
+    }
+
+    /** The parts of a locale's number format that {@link Formatter} uses. */
+    static final class Symbols {
+        final char zero;
+        final char groupingSeparator;
+        final int groupingSize;
+        final char decimalSeparator;
+
+        Symbols(char zero, char groupingSeparator, int groupingSize, char decimalSeparator) {
+            this.zero = zero;
+            this.groupingSeparator = groupingSeparator;
+            this.groupingSize = groupingSize;
+            this.decimalSeparator = decimalSeparator;
+        }
+    }
+
+    /** A format string of the form {@code prefix%[,][width][.precision](d|f)suffix}. */
+    static final class Plan {
+        final String prefix;
+        final String suffix;
+        final boolean group;
+        final int width;
+        final int precision;
+        final char conversion;
+
+        Plan(String prefix, String suffix, boolean group, int width, int precision, char conversion) {
+            this.prefix = prefix;
+            this.suffix = suffix;
+            this.group = group;
+            this.width = width;
+            this.precision = precision;
+            this.conversion = conversion;
+        }
+
+        /** Return a plan for {@code formatString} or {@link #GENERAL} if it has
+         *  anything we don't handle ourselves.
+         */
+        static Plan parse(String formatString) {
+            int pct = formatString.indexOf('%');
+            if ( pct<0 || formatString.indexOf('%', pct+1)>=0 ) return GENERAL;
+            int i = pct+1;
+            int n = formatString.length();
+            boolean group = false;
+            if ( i<n && formatString.charAt(i)==',' ) {
+                group = true;
+                i++;
+            }
+            if ( i<n && formatString.charAt(i)=='0' ) return GENERAL; // zero-pad flag
+            int width = 0;
+            while ( i<n && Character.isDigit(formatString.charAt(i)) ) {
+                width = width*10 + (formatString.charAt(i)-'0');
+                if ( width>1000 ) return GENERAL;
+                i++;
+            }
+            int precision = -1;
+            if ( i<n && formatString.charAt(i)=='.' ) {
+                i++;
+                int start = i;
+                precision = 0;
+                while ( i<n && Character.isDigit(formatString.charAt(i)) ) {
+                    precision = precision*10 + (formatString.charAt(i)-'0');
+                    if ( precision>100 ) return GENERAL;
+                    i++;
+                }
+                if ( i==start ) return GENERAL;
+            }
+            if ( i>=n ) return GENERAL;
+            char conversion = formatString.charAt(i);
+            if ( conversion=='d' ) {
+                if ( precision>=0 ) return GENERAL; // an error for Formatter to report
+            }
+            else if ( conversion=='f' ) {
+                if ( precision<0 ) precision = 6;
+            }
+            else return GENERAL;
+            return new Plan(formatString.substring(0, pct), formatString.substring(i+1),
+                            group, width, precision, conversion);
+        }
+
+        /** Format {@code value} or return {@code null} if {@link Formatter}
+         *  has to do it.
+         */
+        String format(Object value, Locale locale) {
+            boolean negative;
+            String digits; // magnitude, possibly with a '.'
+            if ( conversion=='d' ) {
+                long v;
+                if ( value instanceof Integer || value instanceof Long ||
+                     value instanceof Short || value instanceof Byte )
+                {
+                    v = ((Number)value).longValue();
+                }
+                else return null;
+                negative = v<0;
+                digits = Long.toString(v);
+                if ( negative ) digits = digits.substring(1);
+            }
+            else {
+                BigDecimal d;
+                if ( value instanceof Double || value instanceof Float ) {
+                    double v = ((Number)value).doubleValue();
+                    if ( Double.isNaN(v) || Double.isInfinite(v) ) return null;
+                    negative = v<0 || (v==0 && 1/v<0);
+                    // Formatter rounds the shortest decimal representation half up
+                    d = new BigDecimal(Double.toString(Math.abs(v)));
+                }
+                else if ( value instanceof BigDecimal ) {
+                    d = (BigDecimal)value;
+                    negative = d.signum()<0;
+                    d = d.abs();
+                }
+                else return null;
+                digits = d.setScale(precision, RoundingMode.HALF_UP).toPlainString();
+            }
+            Symbols sym = getSymbols(locale);
+            if ( group && sym.groupingSize<=0 ) return null;
+            StringBuilder buf = new StringBuilder(prefix.length() + digits.length() + 8 + suffix.length());
+            buf.append(prefix);
+            int numberStart = buf.length();
+            if ( negative ) buf.append('-');
+            int dot = digits.indexOf('.');
+            int intLen = dot>=0 ? dot : digits.length();
+            int zeroDelta = sym.zero - '0';
+            for (int i = 0; i < intLen; i++) {
+                if ( group && i>0 && (intLen-i)%sym.groupingSize==0 ) {
+                    buf.append(sym.groupingSeparator);
+                }
+                buf.append((char)(digits.charAt(i) + zeroDelta));
+            }
+            if ( dot>=0 ) {
+                buf.append(sym.decimalSeparator);
+                for (int i = dot+1; i < digits.length(); i++) {
+                    buf.append((char)(digits.charAt(i) + zeroDelta));
+                }
+            }
+            int pad = width - (buf.length() - numberStart);
+            if ( pad>0 ) {
+                // right justify like Formatter; insert is rare in practice
+                char[] spaces = new char[pad];
+                Arrays.fill(spaces, ' ');
+                buf.insert(numberStart, spaces);
+            }
+            buf.append(suffix);
+            return buf.toString();
+        }
+    }
 }
@@ -0,0 +1,109 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4;
+
+import org.stringtemplate.v4.misc.ErrorType;
+
+/** Limits on a single render, for templates you don't fully trust. Pass an
+ *  instance to {@link ST#render(java.util.Locale, int, RenderOptions)} or
+ *  {@link ST#write(STWriter, java.util.Locale, STErrorListener, RenderOptions)}.
+ *  <p>
+ *  The interpreter checks the instruction count, output size, deadline and
+ *  cancellation every {@link #getCheckInterval} instructions and on entry to
+ *  each template, so a limit can be overshot by up to one interval's worth of
+ *  work. When a limit is hit, the interpreter reports
+ *  {@link ErrorType#RENDER_ABORTED} and unwinds; the render returns whatever
+ *  was written so far.</p>
+ *  <p>
+ *  A value of 0 means no limit. Limits are read when a render starts; only
+ *  {@link #cancel} is meant to be called from another thread during a render.</p>
+ */
+public class RenderOptions {
+    public static final int DEFAULT_CHECK_INTERVAL = 1024;
+
+    protected long maxInstructions;
+    protected long maxOutputChars;
+    protected int maxNestingDepth;
+    /** Wall-clock deadline as in {@link System#currentTimeMillis}. */
+    protected long deadline;
+    protected int checkInterval = DEFAULT_CHECK_INTERVAL;
+    protected volatile boolean cancelled;
+
+    public long getMaxInstructions() { return maxInstructions; }
+
+    /** Stop after executing this many bytecode instructions across all templates. */
+    public void setMaxInstructions(long maxInstructions) {
+        this.maxInstructions = maxInstructions;
+    }
+
+    public long getMaxOutputChars() { return maxOutputChars; }
+
+    /** Stop once this many characters have been written, counting
+     *  indentation and wrapping.
+     */
+    public void setMaxOutputChars(long maxOutputChars) {
+        this.maxOutputChars = maxOutputChars;
+    }
+
+    public int getMaxNestingDepth() { return maxNestingDepth; }
+
+    /** Stop when templates nest deeper than this; the root template is at
+     *  depth 1.
+     */
+    public void setMaxNestingDepth(int maxNestingDepth) {
+        this.maxNestingDepth = maxNestingDepth;
+    }
+
+    public long getDeadline() { return deadline; }
+
+    /** Stop after this point in time, as returned by {@link System#currentTimeMillis}. */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /** Set the deadline {@code millis} milliseconds from now. */
+    public void setTimeout(long millis) {
+        this.deadline = System.currentTimeMillis() + millis;
+    }
+
+    public int getCheckInterval() { return checkInterval; }
+
+    public void setCheckInterval(int checkInterval) {
+        if ( checkInterval<=0 ) {
+            throw new IllegalArgumentException("check interval must be positive: "+checkInterval);
+        }
+        this.checkInterval = checkInterval;
+    }
+
+    /** Ask any render using these options to stop at its next check. Safe
+     *  to call from any thread.
+     */
+    public void cancel() { cancelled = true; }
+
+    public boolean isCancelled() { return cancelled; }
+}
@@ -38,6 +38,7 @@ import org.stringtemplate.v4.misc.Aggregate;
 import org.stringtemplate.v4.misc.ErrorBuffer;
 import org.stringtemplate.v4.misc.ErrorManager;
 import org.stringtemplate.v4.misc.MultiMap;
+import org.stringtemplate.v4.misc.StringBuilderWriter;
 
 import java.io.BufferedWriter;
 import java.io.File;
@@ -53,6 +54,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 /** An instance of the StringTemplate. It consists primarily of
  *  a {@linkplain ST#impl reference} to its implementation (shared among all
@@ -100,6 +102,11 @@ public class ST {
     /** The implementation for this template among all instances of same template . */
     public CompiledST impl;
 
+    /** {@link #impl} is the group's cached copy of an ad hoc template;
+     *  {@link #add} clones it before defining an argument on it.
+     */
+    protected boolean implShared;
+
     /** Safe to simultaneously write via {@link #add}, which is synchronized.
      *  Reading during exec is, however, NOT synchronized.  So, not thread safe
      *  to add attributes while it is being evaluated.  Initialized to
@@ -170,11 +177,57 @@ public class ST {
     public ST(STGroup group, String template) {
         this();
         groupThatCreatedThisInstance = group;
-        impl = groupThatCreatedThisInstance.compile(group.getFileName(), null,
-                                                    null, template, null);
-        impl.hasFormalArgs = false;
-        impl.name = UNKNOWN_NAME;
-        impl.defineImplicitlyDefinedTemplates(groupThatCreatedThisInstance);
+        // add() defines formal args on the fly; it copies the cached code first
+        impl = compileAdHoc(group, template);
+        implShared = true;
+    }
+
+    /** A template for {@link #format} with formal arguments {@code arg1} to
+     *  {@code arg<formatArgs>}. The code is cached with the arguments defined,
+     *  so {@link #add} doesn't copy it and a cache hit allocates just this
+     *  {@code ST}.
+     */
+    private ST(STGroup group, String template, int formatArgs) {
+        this();
+        groupThatCreatedThisInstance = group;
+        char start = group.delimiterStartChar;
+        char stop = group.delimiterStopChar;
+        CompiledST code = null;
+        if ( formatArgs>0 ) code = group.adHocTemplateCache.get(start, stop, template, formatArgs);
+        if ( code==null ) {
+            code = compileAdHoc(group, template);
+            if ( formatArgs>0 ) {
+                try {
+                    code = code.clone();
+                }
+                catch (CloneNotSupportedException e) {
+                    throw new RuntimeException(e);
+                }
+                for (int i = 1; i <= formatArgs; i++) code.addArg(new FormalArgument("arg"+i));
+                if ( code.template!=null ) group.adHocTemplateCache.put(start, stop, template, formatArgs, code);
+            }
+        }
+        impl = code;
+        implShared = true;
+        locals = new Object[formatArgs];
+        Arrays.fill(locals, EMPTY_ATTR);
+    }
+
+    /** The cached code for ad hoc {@code template}, compiling it on a miss. */
+    private static CompiledST compileAdHoc(STGroup group, String template) {
+        char start = group.delimiterStartChar;
+        char stop = group.delimiterStopChar;
+        CompiledST code = group.adHocTemplateCache.get(start, stop, template);
+        if ( code==null ) {
+            code = group.compile(group.getFileName(), null, null, template, null);
+            code.hasFormalArgs = false;
+            code.name = UNKNOWN_NAME;
+            code.defineImplicitlyDefinedTemplates(group);
+            // a template with syntax errors has no source; recompile it each
+            // time so the errors are reported again
+            if ( code.template!=null ) group.adHocTemplateCache.put(start, stop, template, code);
+        }
+        return code;
     }
 
     /** Clone a prototype template.
@@ -241,6 +294,15 @@ public class ST {
                 arg = impl.formalArguments.get(name);
             }
             if ( arg==null ) { // not defined
+                if ( implShared ) {
+                    try {
+                        impl = impl.clone(); // keep the cached code pristine
+                    }
+                    catch (CloneNotSupportedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    implShared = false;
+                }
                 arg = new FormalArgument(name);
                 impl.addArg(arg);
                 if ( locals==null ) locals = new Object[1];
@@ -452,6 +514,21 @@ public class ST {
         return interp.exec(out, scope);
     }
 
+    /** Write this template to {@code out}, stopping early if it exceeds any
+     *  of the limits in {@code options}. A {@code null} {@code listener}
+     *  reports errors to the group's error manager.
+     */
+    public int write(STWriter out, Locale locale, STErrorListener listener, RenderOptions options) {
+        ErrorManager errMgr = listener!=null ? new ErrorManager(listener) : impl.nativeGroup.errMgr;
+        Interpreter interp = new Interpreter(groupThatCreatedThisInstance,
+                                             locale,
+                                             errMgr,
+                                             false);
+        interp.setRenderOptions(options);
+        InstanceScope scope = new InstanceScope(null, this);
+        return interp.exec(out, scope);
+    }
+
     public int write(File outputFile, STErrorListener listener) throws IOException {
         return write(outputFile, listener, "UTF-8", Locale.getDefault(), STWriter.NO_WRAP);
     }
@@ -499,10 +576,24 @@ public class ST {
     public String render(Locale locale) { return render(locale, STWriter.NO_WRAP); }
 
     public String render(Locale locale, int lineWidth) {
-        StringWriter out = new StringWriter();
+        return render(locale, lineWidth, null);
+    }
+
+    public String render(RenderOptions options) {
+        return render(Locale.getDefault(), STWriter.NO_WRAP, options);
+    }
+
+    /** Render with the limits in {@code options}, or none if {@code null}.
+     *  If a limit is hit, the output produced so far is returned.
+     */
+    public String render(Locale locale, int lineWidth, RenderOptions options) {
+        // unsynchronized buffer presized from the size of previous renders
+        CompiledST code = impl;
+        StringBuilderWriter out = new StringBuilderWriter(code.getRenderSizeHint());
         STWriter wr = new AutoIndentWriter(out);
         wr.setLineWidth(lineWidth);
-        write(wr, locale);
+        write(wr, locale, null, options);
+        code.recordRenderSize(out.length());
         return out.toString();
     }
 
@@ -567,6 +658,8 @@ public class ST {
         return name;
     }
 
+    private static final Pattern FORMAT_ARG = Pattern.compile("%([0-9]+)");
+
     /**
      * <pre>
      * ST.format("&lt;%1&gt;:&lt;%2&gt;", n, p);
@@ -577,8 +670,10 @@ public class ST {
     }
 
     public static String format(int lineWidth, String template, Object... attributes) {
-        template = template.replaceAll("%([0-9]+)", "arg$1");
-        ST st = new ST(template);
+        if ( template.indexOf('%')>=0 ) {
+            template = FORMAT_ARG.matcher(template).replaceAll("arg$1");
+        }
+        ST st = new ST(STGroup.defaultGroup, template, attributes.length);
         int i = 1;
         for (Object a : attributes) {
             st.add("arg"+i, a);
@@ -29,17 +29,23 @@ package org.stringtemplate.v4;
 
 import org.antlr.runtime.ANTLRFileStream;
 import org.antlr.runtime.ANTLRInputStream;
+import org.antlr.runtime.ANTLRStringStream;
 import org.antlr.runtime.CharStream;
 import org.antlr.runtime.CommonToken;
 import org.antlr.runtime.CommonTokenStream;
 import org.antlr.runtime.RecognitionException;
 import org.antlr.runtime.Token;
 import org.stringtemplate.v4.compiler.CompiledST;
+import org.stringtemplate.v4.compiler.CompiledSTCache;
 import org.stringtemplate.v4.compiler.Compiler;
+import org.stringtemplate.v4.compiler.DecodedCode;
 import org.stringtemplate.v4.compiler.FormalArgument;
 import org.stringtemplate.v4.compiler.GroupLexer;
 import org.stringtemplate.v4.compiler.GroupParser;
+import org.stringtemplate.v4.compiler.RetainedSizeReport;
 import org.stringtemplate.v4.compiler.STException;
+import org.stringtemplate.v4.compiler.StringPool;
+import org.stringtemplate.v4.debug.RenderTracer;
 import org.stringtemplate.v4.gui.STViz;
 import org.stringtemplate.v4.misc.Aggregate;
 import org.stringtemplate.v4.misc.AggregateModelAdaptor;
@@ -62,9 +68,13 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** A directory or directory tree of {@code .st} template files and/or group files.
  *  Individual template files contain formal template definitions. In a sense,
@@ -109,16 +119,45 @@ public class STGroup {
     public String encoding = "UTF-8";
 
     /** Every group can import templates/dictionaries from other groups.
-     *  The list must be synchronized (see {@link STGroup#importTemplates}).
+     *  The list must be synchronized (see {@link STGroup#importTemplates})
+     *  until the group is {@link #freeze frozen}.
      */
-    protected final List<STGroup> imports = Collections.synchronizedList(new ArrayList<STGroup>());
+    protected List<STGroup> imports = Collections.synchronizedList(new ArrayList<STGroup>());
 
     protected final List<STGroup> importsToClearOnUnload = Collections.synchronizedList(new ArrayList<STGroup>());
 
+    /** Groups that import this one. They cache what names resolve to here,
+     *  so they hear about every change; held weakly.
+     */
+    protected final Set<STGroup> importers =
+        Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<STGroup, Boolean>()));
+
+    /** Every group this one imports, directly or not, in the order names
+     *  resolve through them: depth first, each group once. {@code null} until
+     *  needed and whenever the import graph below changes.
+     */
+    protected volatile List<STGroup> importClosure;
+
+    /** Where names this group doesn't define resolve in the closure of its
+     *  imports, or {@link #NOT_FOUND_ST} if nowhere. Filled in on first lookup
+     *  by searching {@link #importClosure} directly, and kept up to date as
+     *  groups in the closure change.
+     */
+    protected final Map<String, CompiledST> importedTemplates =
+        new ConcurrentHashMap<String, CompiledST>();
+
+    /** Like {@link #importedTemplates} for dictionaries, with
+     *  {@link #NOT_FOUND_DICT} for misses.
+     */
+    protected final Map<String, Map<String,Object>> importedDictionaries =
+        new ConcurrentHashMap<String, Map<String,Object>>();
+
     public char delimiterStartChar = '<'; // Use <expr> by default
     public char delimiterStopChar = '>';
 
-    /** Maps template name to {@link CompiledST} object. This map is synchronized. */
+    /** Maps template name to {@link CompiledST} object. This map is
+     *  synchronized until the group is {@link #freeze frozen}.
+     */
     protected Map<String, CompiledST> templates =
         Collections.synchronizedMap(new LinkedHashMap<String, CompiledST>());
 
@@ -158,7 +197,7 @@ public class STGroup {
      * <p>
      *  The last one you register gets priority; do least to most specific.</p>
      */
-    protected final Map<Class<?>, ModelAdaptor<?>> adaptors;
+    protected Map<Class<?>, ModelAdaptor<?>> adaptors;
     {
         TypeRegistry<ModelAdaptor<?>> registry = new TypeRegistry<ModelAdaptor<?>>();
         registry.put(Object.class, new ObjectModelAdaptor<Object>());
@@ -168,11 +207,28 @@ public class STGroup {
         adaptors = Collections.synchronizedMap(registry);
     }
 
+    /** Set by {@link #freeze}; from then on the group can't change. */
+    protected volatile boolean frozen = false;
+
+    /** Every template visible from a {@link #freeze frozen} group, its own
+     *  and those it imports, by fully-qualified name.
+     */
+    protected Map<String, CompiledST> resolvedTemplates;
+
+    /** Compiled code for templates created with {@link ST#ST(STGroup, String)}
+     *  relative to this group, which includes {@link ST#ST(String)} and
+     *  {@link ST#format} for {@link #defaultGroup}. Cleared on {@link #unload}.
+     */
+    public final CompiledSTCache adHocTemplateCache = new CompiledSTCache();
+
     /** Used to indicate that the template doesn't exist.
      *  Prevents duplicate group file loads and unnecessary file checks.
      */
     protected static final CompiledST NOT_FOUND_ST = new CompiledST();
 
+    /** Marks a dictionary name that none of the imports define. */
+    protected static final Map<String,Object> NOT_FOUND_DICT = new HashMap<String,Object>();
+
     public static final ErrorManager DEFAULT_ERR_MGR = new ErrorManager();
 
     /** Watch loading of groups and templates. */
@@ -191,6 +247,37 @@ public class STGroup {
      */
     public boolean iterateAcrossValues = false;
 
+    /** Escape expression values for the HTML context the surrounding
+     *  literals put them in. Decided at compile time, so set it before
+     *  loading templates; see {@link #setAutoEscape}.
+     */
+    protected boolean autoEscape = false;
+
+    /** Release ASTs and token streams, trim code and pack source maps as
+     *  templates are compiled; see {@link #setLean}.
+     */
+    protected boolean lean = false;
+
+    /** Where compiled templates get canonical instances of their strings;
+     *  {@code null}, the default, to keep whatever the compiler produced.
+     */
+    protected StringPool stringPool = null;
+
+    /** Samples renders of templates created by this group; {@code null} to
+     *  trace nothing. See {@link #setTracer}.
+     */
+    protected volatile RenderTracer tracer;
+
+    /** Largest template, in instructions, that calls may inline; 0 turns
+     *  inlining off. See {@link DecodedCode#link}.
+     */
+    protected volatile int maxInlineSize = 8;
+
+    /** Moves on whenever a name might start resolving to another template,
+     *  which makes code linked earlier stale.
+     */
+    protected final AtomicInteger linkEpoch = new AtomicInteger();
+
     public static STGroup defaultGroup = new STGroup();
 
     /** The {@link ErrorManager} for entire group; all compilations and executions.
@@ -270,12 +357,18 @@ public class STGroup {
     /** Look up a fully-qualified name. */
     public CompiledST lookupTemplate(String name) {
         if ( name.charAt(0)!='/' ) name = "/"+name;
+        if ( frozen ) return resolvedTemplates.get(name);
         if ( verbose ) System.out.println(getName()+".lookupTemplate("+name+")");
         CompiledST code = rawGetTemplate(name);
         if ( code==NOT_FOUND_ST ) {
             if ( verbose ) System.out.println(name+" previously seen as not found");
             return null;
         }
+        // seen before as an imported template?
+        if ( code==null ) {
+            code = importedTemplates.get(name);
+            if ( code==NOT_FOUND_ST ) code = null;
+        }
         // try to load from disk and look up again
         if ( code==null ) code = load(name);
         if ( code==null ) code = lookupImportedTemplate(name);
@@ -291,19 +384,107 @@ public class STGroup {
      * Unload all templates, dictionaries and import relationships, but leave
      * renderers and adaptors. This essentially forces the next call to
      * {@link #getInstanceOf} to reload templates. Call {@code unload()} on each
-     * group in the {@link #imports} list, and remove all elements in
+     * group in the {@link #imports} list that isn't frozen, and remove all elements in
      * {@link #importsToClearOnUnload} from {@link #imports}.
      */
     public synchronized void unload() {
+        checkNotFrozen();
         templates.clear();
+        adHocTemplateCache.clear(); // their subtemplates were in templates
         dictionaries.clear();
         for (STGroup imp : imports) {
-            imp.unload();
+            if ( !imp.isFrozen() ) imp.unload();
         }
         for (STGroup imp : importsToClearOnUnload) {
             imports.remove(imp);
+            imp.importers.remove(this);
         }
         importsToClearOnUnload.clear();
+        forgetImports();
+    }
+
+    /** Drop every resolution through this group, here and in the groups
+     *  importing it, including names recorded as not found. Called whenever
+     *  the import graph changes: a group imported anywhere in the closure can
+     *  turn misses into hits and, coming earlier in the depth-first order
+     *  than where a name resolved before, shadow hits too.
+     */
+    protected void forgetImports() {
+        forgetImportsHere();
+        for (STGroup g : getTransitiveImporters()) g.forgetImportsHere();
+    }
+
+    private void forgetImportsHere() {
+        linkEpoch.incrementAndGet();
+        importClosure = null;
+        if ( !frozen ) {
+            synchronized (templates) {
+                templates.values().removeAll(Collections.singleton(NOT_FOUND_ST));
+            }
+        }
+        importedTemplates.clear();
+        importedDictionaries.clear();
+    }
+
+    /** Template {@code name} was defined or undefined in this group; every
+     *  group importing it, directly or not, must resolve it again. That
+     *  includes names they recorded as not found at all.
+     */
+    protected void templateChanged(String name) {
+        linkEpoch.incrementAndGet();
+        for (STGroup g : getTransitiveImporters()) {
+            g.linkEpoch.incrementAndGet();
+            g.importedTemplates.remove(name);
+            synchronized (g.templates) {
+                if ( g.templates.get(name)==NOT_FOUND_ST ) g.templates.remove(name);
+            }
+        }
+    }
+
+    protected void dictionaryChanged(String name) {
+        for (STGroup g : getTransitiveImporters()) {
+            g.importedDictionaries.remove(name);
+        }
+    }
+
+    protected List<STGroup> getImporters() {
+        if ( importers.isEmpty() ) return Collections.emptyList();
+        synchronized (importers) {
+            return new ArrayList<STGroup>(importers);
+        }
+    }
+
+    /** The groups whose {@link #importClosure} contains this one. */
+    protected Set<STGroup> getTransitiveImporters() {
+        if ( importers.isEmpty() ) return Collections.emptySet();
+        Set<STGroup> all = new LinkedHashSet<STGroup>();
+        List<STGroup> work = getImporters();
+        while ( !work.isEmpty() ) {
+            STGroup g = work.remove(work.size()-1);
+            if ( all.add(g) ) work.addAll(g.getImporters());
+        }
+        return all;
+    }
+
+    /** Compute {@link #importClosure} if the import graph changed since it
+     *  was last needed.
+     */
+    protected List<STGroup> getImportClosure() {
+        List<STGroup> closure = importClosure;
+        if ( closure==null ) {
+            Set<STGroup> seen = new LinkedHashSet<STGroup>();
+            addImportClosure(this, seen);
+            seen.remove(this);
+            closure = new ArrayList<STGroup>(seen);
+            importClosure = closure;
+        }
+        return closure;
+    }
+
+    private static void addImportClosure(STGroup g, Set<STGroup> seen) {
+        for (STGroup imp : new ArrayList<STGroup>(g.imports)) {
+            if ( seen.add(imp) ) addImportClosure(imp, seen);
+        }
     }
 
     /** Load st from disk if directory or load whole group file if .stg file (then
@@ -314,6 +495,67 @@ public class STGroup {
     /** Force a load if it makes sense for the group. */
     public void load() { }
 
+    /** Load everything the group could define, so a {@link #freeze frozen}
+     *  group doesn't miss templates it would have loaded on demand.
+     */
+    protected void preload() { load(); }
+
+    public boolean isFrozen() { return frozen; }
+
+    /**
+     * Make this group and the groups it imports immutable. All templates are
+     * loaded and compiled now, lookups go to a table that also holds the
+     * imported templates, and the renderer and adaptor registries are fixed,
+     * so rendering from a frozen group takes no locks. Defining, importing,
+     * registering or unloading afterwards throws
+     * {@link IllegalStateException}; so does creating an {@link ST} from
+     * source with anonymous subtemplates, which would define them here.
+     * <p>
+     * Freeze a group before sharing it with other threads.</p>
+     */
+    public synchronized void freeze() {
+        if ( frozen ) return;
+        preload();
+        List<STGroup> imps = new ArrayList<STGroup>(imports);
+        for (STGroup imp : imps) imp.freeze();
+
+        Map<String, CompiledST> own = new LinkedHashMap<String, CompiledST>();
+        synchronized (templates) {
+            for (Map.Entry<String, CompiledST> e : templates.entrySet()) {
+                if ( e.getValue()!=NOT_FOUND_ST ) own.put(e.getKey(), e.getValue());
+            }
+        }
+        Map<String, CompiledST> resolved = new HashMap<String, CompiledST>(own);
+        for (STGroup imp : imps) {
+            for (Map.Entry<String, CompiledST> e : imp.resolvedTemplates.entrySet()) {
+                if ( !resolved.containsKey(e.getKey()) ) resolved.put(e.getKey(), e.getValue());
+            }
+        }
+        resolvedTemplates = resolved;
+        templates = Collections.unmodifiableMap(own);
+        synchronized (dictionaries) {
+            dictionaries = Collections.unmodifiableMap(new HashMap<String, Map<String,Object>>(dictionaries));
+        }
+        imports = Collections.unmodifiableList(imps);
+        importsToClearOnUnload.clear();
+        adaptors = freezeRegistry(adaptors);
+        if ( renderers!=null ) renderers = freezeRegistry(renderers);
+        frozen = true;
+    }
+
+    /** An unmodifiable copy of {@code registry} whose lookups take no locks. */
+    protected static <V> Map<Class<?>, V> freezeRegistry(Map<Class<?>, V> registry) {
+        TypeRegistry<V> copy = new TypeRegistry<V>();
+        synchronized (registry) {
+            copy.putAll(registry);
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
+    protected void checkNotFrozen() {
+        if ( frozen ) throw new IllegalStateException("group "+getName()+" is frozen");
+    }
+
     /**
      * Determines if a specified character may be used as a user-specified delimiter.
      *
@@ -332,10 +574,25 @@ public class STGroup {
 
     protected CompiledST lookupImportedTemplate(String name) {
         if ( imports.size()==0 ) return null;
-        for (STGroup g : imports) {
+        CompiledST code = importedTemplates.get(name);
+        if ( code==null ) {
+            code = resolveImportedTemplate(name);
+            importedTemplates.put(name, code!=null ? code : NOT_FOUND_ST);
+            if ( code!=null ) linkEpoch.incrementAndGet(); // now findResolvedTemplate knows it
+        }
+        return code!=NOT_FOUND_ST ? code : null;
+    }
+
+    /** Search the groups of the {@link #importClosure} in order for one that
+     *  defines {@code name} itself. The groups searched record nothing, so a
+     *  miss costs one lookup (or load) per group rather than a walk per level.
+     */
+    protected CompiledST resolveImportedTemplate(String name) {
+        for (STGroup g : getImportClosure()) {
             if ( verbose ) System.out.println("checking "+g.getName()+" for imported "+name);
-            CompiledST code = g.lookupTemplate(name);
-            if ( code!=null ) {
+            CompiledST code = g.rawGetTemplate(name);
+            if ( code==null && !g.frozen ) code = g.load(name);
+            if ( code!=null && code!=NOT_FOUND_ST ) {
                 if ( verbose ) System.out.println(g.getName()+".lookupImportedTemplate("+name+") found");
                 return code;
             }
@@ -345,9 +602,39 @@ public class STGroup {
     }
 
     public CompiledST rawGetTemplate(String name) { return templates.get(name); }
+
+    /** What {@link #lookupTemplate} would return for fully-qualified
+     *  {@code name}, if that's known without loading anything or searching
+     *  the imports; else {@code null}.
+     */
+    public CompiledST findResolvedTemplate(String name) {
+        if ( frozen ) return resolvedTemplates.get(name);
+        CompiledST code = templates.get(name);
+        if ( code==null ) code = importedTemplates.get(name);
+        return code!=NOT_FOUND_ST ? code : null;
+    }
     public Map<String,Object> rawGetDictionary(String name) { return dictionaries.get(name); }
     public boolean isDictionary(String name) { return dictionaries.get(name)!=null; }
 
+    /** Find dictionary {@code name} in this group or, failing that, in the
+     *  closure of its imports.
+     */
+    public Map<String,Object> lookupDictionary(String name) {
+        if ( isDictionary(name) ) return rawGetDictionary(name);
+        if ( imports.size()==0 ) return null;
+        Map<String,Object> dict = importedDictionaries.get(name);
+        if ( dict==null ) {
+            for (STGroup g : getImportClosure()) {
+                if ( g.isDictionary(name) ) {
+                    dict = g.rawGetDictionary(name);
+                    break;
+                }
+            }
+            importedDictionaries.put(name, dict!=null ? dict : NOT_FOUND_DICT);
+        }
+        return dict!=NOT_FOUND_DICT ? dict : null;
+    }
+
     /** for testing */
     public CompiledST defineTemplate(String templateName, String template) {
         if ( templateName.charAt(0)!='/' ) templateName = "/"+templateName;
@@ -383,6 +670,7 @@ public class STGroup {
                                      String template,
                                      Token templateToken)
     {
+        checkNotFrozen();
         if ( verbose ) System.out.println("defineTemplate("+fullyQualifiedTemplateName+")");
         if ( fullyQualifiedTemplateName==null || fullyQualifiedTemplateName.length()==0 ) {
             throw new IllegalArgumentException("empty template name");
@@ -404,6 +692,7 @@ public class STGroup {
 
     /** Make name and alias for target.  Replace any previous definition of name. */
     public CompiledST defineTemplateAlias(Token aliasT, Token targetT) {
+        checkNotFrozen();
         String alias = aliasT.getText();
         String target = targetT.getText();
         CompiledST targetCode = rawGetTemplate("/"+target);
@@ -420,6 +709,7 @@ public class STGroup {
                                    String template,
                                    Token templateToken)
     {
+        checkNotFrozen();
         String name = regionT.getText();
         template = Misc.trimOneStartingNewline(template);
         template = Misc.trimOneTrailingNewline(template);
@@ -466,6 +756,7 @@ public class STGroup {
     }
 
     public void rawDefineTemplate(String name, CompiledST code, Token defT) {
+        checkNotFrozen();
         CompiledST prev = rawGetTemplate(name);
         if ( prev!=null ) {
             if ( !prev.isRegion ) {
@@ -496,10 +787,13 @@ public class STGroup {
         code.nativeGroup = this;
         code.templateDefStartToken = defT;
         templates.put(name, code);
+        templateChanged(name);
     }
 
     public void undefineTemplate(String name) {
+        checkNotFrozen();
         templates.remove(name);
+        templateChanged(name);
     }
 
     /** Compile a template. */
@@ -540,7 +834,9 @@ public class STGroup {
      * Not thread safe...do not keep adding these while you reference them.</p>
      */
     public void defineDictionary(String name, Map<String,Object> mapping) {
+        checkNotFrozen();
         dictionaries.put(name, mapping);
+        dictionaryChanged(name);
     }
 
     /**
@@ -572,6 +868,7 @@ public class STGroup {
      *  'programmatically'.</p>
      */
     public void importTemplates(Token fileNameToken) {
+        checkNotFrozen();
         if ( verbose ) System.out.println("importTemplates("+fileNameToken.getText()+")");
         String fileName = fileNameToken.getText();
         // do nothing upon syntax error
@@ -654,11 +951,14 @@ public class STGroup {
     }
 
     protected void importTemplates(STGroup g, boolean clearOnUnload) {
+        checkNotFrozen();
         if ( g==null ) return;
         imports.add(g);
+        g.importers.add(this);
         if (clearOnUnload) {
             importsToClearOnUnload.add(g);
         }
+        forgetImports();
     }
 
     public List<STGroup> getImportedGroups() { return imports; }
@@ -667,21 +967,29 @@ public class STGroup {
     public void loadGroupFile(String prefix, String fileName) {
         if ( verbose ) System.out.println(this.getClass().getSimpleName()+
                                           ".loadGroupFile(group-file-prefix="+prefix+", fileName="+fileName+")");
-        GroupParser parser;
         try {
             URL f = new URL(fileName);
             ANTLRInputStream fs = new ANTLRInputStream(f.openStream(), encoding);
-            GroupLexer lexer = new GroupLexer(fs);
             fs.name = fileName;
-            CommonTokenStream tokens = new CommonTokenStream(lexer);
-            parser = new GroupParser(tokens);
-            parser.group(this, prefix);
+            loadGroup(fs, prefix);
         }
         catch (Exception e) {
             errMgr.IOError(null, ErrorType.CANT_LOAD_GROUP_FILE, e, fileName);
         }
     }
 
+    /** Define the templates and dictionaries of group file {@code input}
+     *  through the {@link GroupParser}. {@link STGroupFile} overrides this
+     *  to defer compiling when {@link STGroupFile#setLazyLoading loading
+     *  lazily}.
+     */
+    protected void loadGroup(ANTLRStringStream input, String prefix) throws RecognitionException {
+        GroupLexer lexer = new GroupLexer(input);
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        GroupParser parser = new GroupParser(tokens);
+        parser.group(this, prefix);
+    }
+
     /** Load template file into this group using absolute {@code fileName}. */
     public CompiledST loadAbsoluteTemplateFile(String fileName) {
         ANTLRFileStream fs;
@@ -737,6 +1045,7 @@ public class STGroup {
      * calling {@link ST#render} for efficiency.</p>
      */
     public <T> void registerModelAdaptor(Class<T> attributeType, ModelAdaptor<? super T> adaptor) {
+        checkNotFrozen();
         if ( attributeType.isPrimitive() ) {
             throw new IllegalArgumentException("can't register ModelAdaptor for primitive type "+
                                                attributeType.getSimpleName());
@@ -760,6 +1069,7 @@ public class STGroup {
     }
 
     public <T> void registerRenderer(Class<T> attributeType, AttributeRenderer<? super T> r, boolean recursive) {
+        checkNotFrozen();
         if ( attributeType.isPrimitive() ) {
             throw new IllegalArgumentException("can't register renderer for primitive type "+
                                                attributeType.getSimpleName());
@@ -770,6 +1080,7 @@ public class STGroup {
         }
 
         renderers.put(attributeType, r);
+        linkEpoch.incrementAndGet(); // strings may not render as is anymore
 
         if ( recursive ) {
             load(); // make sure imports exist (recursively)
@@ -877,6 +1188,81 @@ public class STGroup {
         errMgr = new ErrorManager(listener);
     }
 
+    public boolean isAutoEscape() { return autoEscape; }
+
+    /** Compile expressions to escape their values for the context they
+     *  appear in: HTML text, attribute values, URLs, and JavaScript (see
+     *  {@link org.stringtemplate.v4.compiler.HtmlContext}). Expressions where
+     *  that isn't possible, like CSS, are compile errors unless they have a
+     *  {@code format} option, which leaves escaping to the renderer. Elsewhere
+     *  the renderer's output is escaped in turn, except that
+     *  {@code xml-encode} and {@code url-encode} output isn't where it's
+     *  already safe. Literal text is left alone, but a template written
+     *  anywhere other than HTML text is escaped as a whole, since its own
+     *  expressions were compiled for HTML text. Only templates compiled
+     *  afterwards are affected, so call this before loading any.
+     */
+    public void setAutoEscape(boolean autoEscape) {
+        this.autoEscape = autoEscape;
+        adHocTemplateCache.clear();
+    }
+
+    public boolean isLean() { return lean; }
+
+    /** Keep only what rendering and error reporting need from each compiled
+     *  template (see {@link CompiledST#makeLean}). Meant for production;
+     *  {@link org.stringtemplate.v4.gui.STViz} can't show the AST of lean
+     *  templates. Only templates compiled afterwards are affected.
+     */
+    public void setLean(boolean lean) {
+        this.lean = lean;
+        adHocTemplateCache.clear();
+    }
+
+    public StringPool getStringPool() { return stringPool; }
+
+    /** Share the strings of templates compiled from now on through
+     *  {@code stringPool}, such as {@link StringPool#SHARED}, or don't pool
+     *  them if {@code null}, the default. Worth it for processes that load
+     *  many copies of the same templates.
+     */
+    public void setStringPool(StringPool stringPool) {
+        this.stringPool = stringPool;
+    }
+
+    public int getLinkEpoch() { return linkEpoch.get(); }
+
+    public int getMaxInlineSize() { return maxInlineSize; }
+
+    /** Let calls inline templates of up to {@code maxInlineSize}
+     *  instructions; 0 turns inlining off.
+     */
+    public void setMaxInlineSize(int maxInlineSize) {
+        this.maxInlineSize = maxInlineSize;
+        linkEpoch.incrementAndGet();
+    }
+
+    public RenderTracer getTracer() { return tracer; }
+
+    /** Record sampled traces of renders of this group's templates in
+     *  {@code tracer}, or stop tracing if {@code null}. Unlike the rest of
+     *  a group's configuration, this may change after {@link #freeze}.
+     */
+    public void setTracer(RenderTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /** Estimate the heap retained by the templates this group has compiled
+     *  so far, and what {@link #setLean lean} mode saves (or saved) on them.
+     */
+    public RetainedSizeReport getRetainedSizeReport() {
+        RetainedSizeReport report = new RetainedSizeReport(getName());
+        for (CompiledST code : templates.values()) {
+            if ( code!=NOT_FOUND_ST ) report.add(code);
+        }
+        return report;
+    }
+
     public Set<String> getTemplateNames() {
         load();
         HashSet<String> result = new HashSet<String>();
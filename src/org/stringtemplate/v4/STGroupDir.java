@@ -39,6 +39,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Map;
 
 // TODO: caching?
 
@@ -154,6 +155,49 @@ public class STGroupDir extends STGroup {
         return rawGetTemplate(name);
     }
 
+    /** Load every template and group file under {@link #root}. Templates are
+     *  otherwise loaded on demand, so this is only possible when the root is
+     *  a directory on disk; for other roots only what was already loaded is
+     *  kept.
+     */
+    @Override
+    protected void preload() {
+        if ( !"file".equals(root.getProtocol()) ) return;
+        preload(new File(root.getFile()), "/");
+    }
+
+    protected void preload(File dir, String prefix) {
+        File[] files = dir.listFiles();
+        if ( files==null ) return;
+        for (File f : files) {
+            String fileName = f.getName();
+            if ( f.isDirectory() ) {
+                preload(f, prefix+fileName+"/");
+            }
+            else if ( fileName.endsWith(TEMPLATE_FILE_EXTENSION) ) {
+                lookupTemplate(prefix+Misc.getFileNameNoSuffix(fileName));
+            }
+            else if ( fileName.endsWith(GROUP_FILE_EXTENSION) ) {
+                String groupPrefix = prefix+Misc.getFileNameNoSuffix(fileName)+"/";
+                if ( !isGroupFileLoaded(groupPrefix) ) {
+                    loadGroupFile(groupPrefix, root+prefix+fileName);
+                }
+            }
+        }
+    }
+
+    /** Has a template in group file {@code prefix} been looked up already,
+     *  loading the whole file?
+     */
+    protected boolean isGroupFileLoaded(String prefix) {
+        synchronized (templates) {
+            for (Map.Entry<String, CompiledST> e : templates.entrySet()) {
+                if ( e.getKey().startsWith(prefix) && e.getValue()!=NOT_FOUND_ST ) return true;
+            }
+        }
+        return false;
+    }
+
     /** Load .st as relative file name relative to root by {@code prefix}. */
     public CompiledST loadTemplateFile(String prefix, String unqualifiedFileName) {
         if ( verbose ) System.out.println("loadTemplateFile("+unqualifiedFileName+") in groupdir "+
@@ -27,7 +27,11 @@
  */
 package org.stringtemplate.v4;
 
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.runtime.RecognitionException;
+import org.antlr.runtime.Token;
 import org.stringtemplate.v4.compiler.CompiledST;
+import org.stringtemplate.v4.compiler.FormalArgument;
 import org.stringtemplate.v4.compiler.STException;
 import org.stringtemplate.v4.misc.ErrorType;
 import org.stringtemplate.v4.misc.Misc;
@@ -35,6 +39,13 @@ import org.stringtemplate.v4.misc.Misc;
 import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /** The internal representation of a single group file (which must end in
  *  ".stg").  If we fail to find a group file, look for it via the
@@ -54,6 +65,23 @@ public class STGroupFile extends STGroup {
 
     protected boolean alreadyLoaded = false;
 
+    /** Compile each template when first looked up instead of the whole file
+     *  on first use; see {@link #setLazyLoading}.
+     */
+    protected boolean lazyLoading = false;
+
+    /** When {@link #lazyLoading}, the template, region and alias definitions
+     *  not applied yet, by fully qualified name of the template they belong
+     *  to; regions are kept with their enclosing template.
+     */
+    protected Map<String, List<Runnable>> deferred;
+
+    /** Names in {@link #deferred} with a template or alias definition. */
+    protected Set<String> deferredTemplates;
+
+    /** Whether the group file is being parsed into {@link #deferred}. */
+    protected boolean deferring = false;
+
     /** Load a file relative to current directory or from root or via CLASSPATH. */
     public STGroupFile(String fileName) { this(fileName, '<', '>'); }
 
@@ -125,18 +153,144 @@ public class STGroupFile extends STGroup {
         return super.isDefined(name);
     }
 
+    public boolean isLazyLoading() { return lazyLoading; }
+
+    /** When loading, parse the file but compile each template the first
+     *  time it's looked up. Imports and dictionaries are still loaded up
+     *  front. Worth it for large files of which only a few templates are
+     *  used; errors in a template are reported when it's first used. Takes
+     *  effect at the next {@link #load}.
+     */
+    public synchronized void setLazyLoading(boolean lazyLoading) {
+        this.lazyLoading = lazyLoading;
+    }
+
     @Override
     public synchronized void unload() {
         super.unload();
         alreadyLoaded = false;
+        deferred = null;
+        deferredTemplates = null;
     }
 
     @Override
     protected synchronized CompiledST load(String name) {
         if ( !alreadyLoaded ) load();
+        defineDeferred(name);
         return rawGetTemplate(name);
     }
 
+    /** When {@link #lazyLoading}, parse the file as usual but keep the
+     *  template definitions the {@link org.stringtemplate.v4.compiler.GroupParser}
+     *  makes for {@link #defineDeferred} instead of compiling them. Regions
+     *  of templates defined elsewhere, such as in imports, are defined right
+     *  away.
+     */
+    @Override
+    protected void loadGroup(ANTLRStringStream input, String prefix) throws RecognitionException {
+        if ( !lazyLoading ) {
+            super.loadGroup(input, prefix);
+            return;
+        }
+        deferred = new HashMap<String, List<Runnable>>();
+        deferredTemplates = new HashSet<String>();
+        deferring = true;
+        try {
+            super.loadGroup(input, prefix);
+        }
+        finally {
+            deferring = false;
+        }
+        Iterator<Map.Entry<String, List<Runnable>>> it = deferred.entrySet().iterator();
+        while ( it.hasNext() ) {
+            Map.Entry<String, List<Runnable>> e = it.next();
+            if ( !deferredTemplates.contains(e.getKey()) ) {
+                it.remove();
+                for (Runnable d : e.getValue()) d.run();
+            }
+        }
+    }
+
+    @Override
+    public void defineTemplateOrRegion(final String fullyQualifiedTemplateName,
+                                       final String regionSurroundingTemplateName,
+                                       final Token templateToken,
+                                       final String template,
+                                       final Token nameToken,
+                                       final List<FormalArgument> args)
+    {
+        if ( !deferring ) {
+            super.defineTemplateOrRegion(fullyQualifiedTemplateName, regionSurroundingTemplateName,
+                                         templateToken, template, nameToken, args);
+            return;
+        }
+        Runnable d = new Runnable() {
+            @Override
+            public void run() {
+                STGroupFile.super.defineTemplateOrRegion(fullyQualifiedTemplateName, regionSurroundingTemplateName,
+                                                         templateToken, template, nameToken, args);
+            }
+        };
+        if ( regionSurroundingTemplateName!=null ) defer(regionSurroundingTemplateName, false, d);
+        else defer(fullyQualifiedTemplateName, true, d);
+    }
+
+    @Override
+    public CompiledST defineTemplateAlias(final Token aliasT, final Token targetT) {
+        if ( !deferring ) return super.defineTemplateAlias(aliasT, targetT);
+        defer("/"+aliasT.getText(), true, new Runnable() {
+            @Override
+            public void run() {
+                defineDeferred("/"+targetT.getText());
+                STGroupFile.super.defineTemplateAlias(aliasT, targetT);
+            }
+        });
+        return null;
+    }
+
+    /** Keep {@code d} until template {@code name} is looked up. */
+    protected void defer(String name, boolean isTemplate, Runnable d) {
+        List<Runnable> defs = deferred.get(name);
+        if ( defs==null ) {
+            defs = new ArrayList<Runnable>(1);
+            deferred.put(name, defs);
+        }
+        defs.add(d);
+        if ( isTemplate ) deferredTemplates.add(name);
+    }
+
+    /** Define template {@code name} (fully qualified) and its regions if
+     *  they're still waiting.
+     */
+    protected synchronized void defineDeferred(String name) {
+        if ( deferred==null ) return;
+        List<Runnable> defs = deferred.remove(name);
+        if ( defs==null ) return;
+        deferredTemplates.remove(name);
+        for (Runnable d : defs) d.run();
+    }
+
+    /** Compile any templates still waiting to be looked up. */
+    protected synchronized void defineLazyTemplates() {
+        if ( !alreadyLoaded ) load();
+        if ( deferred==null ) return;
+        while ( !deferred.isEmpty() ) defineDeferred(deferred.keySet().iterator().next());
+    }
+
+    @Override
+    protected void preload() { defineLazyTemplates(); }
+
+    /** Templates not compiled yet when {@link #lazyLoading} are listed
+     *  without compiling them, so without the regions and anonymous
+     *  subtemplates they would add.
+     */
+    @Override
+    public synchronized Set<String> getTemplateNames() {
+        Set<String> names = super.getTemplateNames();
+        if ( deferredTemplates!=null ) names.addAll(deferredTemplates);
+        return names;
+    }
+
     @Override
     public synchronized void load() {
         if ( alreadyLoaded ) return;
@@ -150,7 +304,7 @@ public class STGroupFile extends STGroup {
 
     @Override
     public String show() {
-        if ( !alreadyLoaded ) load();
+        defineLazyTemplates();
         return super.show();
     }
 
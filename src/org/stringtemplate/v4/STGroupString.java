@@ -29,10 +29,7 @@
 package org.stringtemplate.v4;
 
 import org.antlr.runtime.ANTLRStringStream;
-import org.antlr.runtime.CommonTokenStream;
 import org.stringtemplate.v4.compiler.CompiledST;
-import org.stringtemplate.v4.compiler.GroupLexer;
-import org.stringtemplate.v4.compiler.GroupParser;
 import org.stringtemplate.v4.misc.ErrorType;
 
 /** A group derived from a string not a file or directory. */
@@ -73,16 +70,12 @@ public class STGroupString extends STGroup {
     public synchronized void load() {
         if (alreadyLoaded) return;
         alreadyLoaded = true;
-        GroupParser parser;
         try {
             ANTLRStringStream fs = new ANTLRStringStream(text);
             fs.name = sourceName;
-            GroupLexer lexer = new GroupLexer(fs);
-            CommonTokenStream tokens = new CommonTokenStream(lexer);
-            parser = new GroupParser(tokens);
             // no prefix since this group file is the entire group, nothing lives
             // beneath it.
-            parser.group(this, "/");
+            loadGroup(fs, "/");
         }
         catch (Exception e) {
             errMgr.IOError(null, ErrorType.CANT_LOAD_GROUP_FILE, e, "<string>");
@@ -27,8 +27,8 @@
  */
 package org.stringtemplate.v4;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
+import org.stringtemplate.v4.misc.Escaper;
+
 import java.util.Locale;
 
 /** This render knows to perform a few format operations on {@link String} objects:
@@ -58,15 +58,12 @@ public class StringRenderer implements AttributeRenderer<Object> {
             return (value.length() > 0) ? Character.toUpperCase(value.charAt(0))+value.substring(1) : value;
         }
         if ( formatString.equals("url-encode") ) {
-            try {
-                return URLEncoder.encode(value, "UTF-8");
-            } catch (UnsupportedEncodingException ex) {
-                // UTF-8 is standard, should always be available
-            }
+            return Escaper.URL.escape(value);
         }
         if ( formatString.equals("xml-encode") ) {
             return escapeHTML(value);
         }
+        if ( formatString.equals("%s") ) return value;
         return String.format(locale, formatString, value);
     }
 
@@ -74,36 +71,6 @@ public class StringRenderer implements AttributeRenderer<Object> {
         if ( s==null ) {
             return null;
         }
-        StringBuilder buf = new StringBuilder( s.length() );
-        int len = s.length();
-        for (int i=0; i<len; i++) {
-            char c = s.charAt(i);
-            switch ( c ) {
-                case '&' :
-                    buf.append("&amp;");
-                    break;
-                case '<' :
-                    buf.append("&lt;");
-                    break;
-                case '>' :
-                    buf.append("&gt;");
-                    break;
-                case '\r':
-                case '\n':
-                case '\t':
-                    buf.append(c);
-                    break;
-                default:
-                    boolean control = c < ' '; // 32
-                    boolean aboveASCII = c > 126;
-                    if ( control || aboveASCII ) {
-                        buf.append("&#");
-                        buf.append((int)c);
-                        buf.append(";");
-                    }
-                    else buf.append(c);
-            }
-        }
-        return buf.toString();
+        return Escaper.XML.escape(s);
     }
 }
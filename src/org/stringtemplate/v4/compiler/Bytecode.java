@@ -111,8 +111,11 @@ public class Bytecode {
 
     public static final short INSTR_WRITE_STR       = 47; // load_str n, write
     public static final short INSTR_WRITE_LOCAL     = 48; // TODO load_local n, write
+    public static final short INSTR_WRITE_CONST_OPT = 49; // write with pre-rendered options n
+    public static final short INSTR_WRITE_ESC       = 50; // write with escaper n
+    public static final short INSTR_ESCAPE          = 51; // next write uses escaper n
 
-    public static final short MAX_BYTECODE          = 48;
+    public static final short MAX_BYTECODE          = 51;
 
     /** Used for assembly/disassembly; describes instruction set */
     public static Instruction[] instructions = new Instruction[] {
@@ -165,5 +168,8 @@ public class Bytecode {
         new Instruction("false"),
         new Instruction("write_str", OperandType.STRING),
         new Instruction("write_local",OperandType.INT),
+        new Instruction("write_const_opt",OperandType.INT),
+        new Instruction("write_esc",OperandType.INT),
+        new Instruction("escape",OperandType.INT),
     };
 }
@@ -157,13 +157,12 @@ public class BytecodeDisassembler {
 
     public String sourceMap() {
         StringBuilder buf = new StringBuilder();
-        int addr = 0;
-        for (Interval I : code.sourceMap) {
+        for (int addr = 0; addr < code.codeSize; addr++) {
+            Interval I = code.getSourceInterval(addr);
             if ( I!=null ) {
                 String chunk = code.template.substring(I.a,I.b+1);
                 buf.append( String.format("%04d: %s\t\"%s\"\n", addr, I, chunk) );
             }
-            addr++;
         }
         return buf.toString();
     }
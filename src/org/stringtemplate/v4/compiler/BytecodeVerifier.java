@@ -0,0 +1,219 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.compiler;
+
+import java.util.Arrays;
+
+/** Checks the bytecode of a {@link CompiledST} and computes how many
+ *  operand stack slots it needs. Follows every path through the code
+ *  requiring that opcodes exist, operands fit in the code and index real
+ *  strings and constant options, branches land on instructions, nothing
+ *  pops an empty stack, and paths that meet agree on the stack depth.
+ *  <p>
+ *  The depth is relative to the stack pointer when the template starts;
+ *  templates it calls check their own.</p>
+ */
+public class BytecodeVerifier {
+    protected final CompiledST code;
+    /** Stack depth on entry to the instruction at each address; -1 if not
+     *  reached yet or not an instruction.
+     */
+    protected final int[] depthAt;
+    /** Whether an instruction starts at each address. */
+    protected final boolean[] isInstr;
+    protected final int[] worklist;
+    protected int worklistSize;
+    protected int maxDepth;
+
+    protected BytecodeVerifier(CompiledST code) {
+        this.code = code;
+        depthAt = new int[code.codeSize+1];
+        Arrays.fill(depthAt, -1);
+        worklist = new int[code.codeSize+1];
+        isInstr = new boolean[code.codeSize+1];
+    }
+
+    /** Set {@link CompiledST#maxStackDepth} of {@code code} and of its
+     *  regions and subtemplates.
+     *
+     *  @throws STException if any of them is malformed
+     */
+    public static void verify(CompiledST code) {
+        code.maxStackDepth = new BytecodeVerifier(code).computeMaxStackDepth();
+        if ( code.implicitlyDefinedTemplates!=null ) {
+            for (CompiledST sub : code.implicitlyDefinedTemplates) verify(sub);
+        }
+    }
+
+    protected int computeMaxStackDepth() {
+        if ( code.codeSize==0 ) return 0;
+        findInstructions();
+        reach(0, 0, 0);
+        while ( worklistSize>0 ) {
+            int ip = worklist[--worklistSize];
+            step(ip, depthAt[ip]);
+        }
+        return maxDepth;
+    }
+
+    /** Fill in {@link #isInstr}, checking every opcode on the way. */
+    protected void findInstructions() {
+        int ip = 0;
+        while ( ip<code.codeSize ) {
+            short opcode = code.instrs[ip];
+            if ( opcode<=0 || opcode>=Bytecode.instructions.length || Bytecode.instructions[opcode]==null ) {
+                throw error(ip, "invalid opcode "+opcode);
+            }
+            isInstr[ip] = true;
+            Bytecode.Instruction I = Bytecode.instructions[opcode];
+            int next = ip + 1 + I.nopnds*Bytecode.OPND_SIZE_IN_BYTES;
+            if ( next>code.codeSize ) throw error(ip, I.name+" runs past the end of the code");
+            ip = next;
+        }
+        isInstr[code.codeSize] = true; // falling off the end finishes the template
+    }
+
+    protected void step(int ip, int depth) {
+        byte[] instrs = code.instrs;
+        short opcode = instrs[ip];
+        Bytecode.Instruction I = Bytecode.instructions[opcode];
+        int next = ip + 1 + I.nopnds*Bytecode.OPND_SIZE_IN_BYTES;
+        int opnd1 = I.nopnds>0 ? BytecodeDisassembler.getShort(instrs, ip+1) : 0;
+        int opnd2 = I.nopnds>1 ? BytecodeDisassembler.getShort(instrs, ip+1+Bytecode.OPND_SIZE_IN_BYTES) : 0;
+        if ( I.type[0]==Bytecode.OperandType.STRING &&
+             (code.strings==null || opnd1>=code.strings.length) )
+        {
+            throw error(ip, I.name+" has no string "+opnd1);
+        }
+
+        int needs;  // operands the instruction reads
+        int pops;   // how many of those it removes
+        int pushes = 0;
+        switch ( opcode ) {
+            case Bytecode.INSTR_LOAD_STR :
+            case Bytecode.INSTR_LOAD_ATTR :
+            case Bytecode.INSTR_LOAD_LOCAL :
+            case Bytecode.INSTR_OPTIONS :
+            case Bytecode.INSTR_ARGS :
+            case Bytecode.INSTR_LIST :
+            case Bytecode.INSTR_NULL :
+            case Bytecode.INSTR_TRUE :
+            case Bytecode.INSTR_FALSE :
+                needs = 0; pops = 0; pushes = 1;
+                break;
+            case Bytecode.INSTR_LOAD_PROP :
+            case Bytecode.INSTR_NEW_BOX_ARGS :
+            case Bytecode.INSTR_SUPER_NEW_BOX_ARGS :
+            case Bytecode.INSTR_TOSTR :
+            case Bytecode.INSTR_FIRST :
+            case Bytecode.INSTR_LAST :
+            case Bytecode.INSTR_REST :
+            case Bytecode.INSTR_TRUNC :
+            case Bytecode.INSTR_STRIP :
+            case Bytecode.INSTR_TRIM :
+            case Bytecode.INSTR_LENGTH :
+            case Bytecode.INSTR_STRLEN :
+            case Bytecode.INSTR_REVERSE :
+            case Bytecode.INSTR_NOT :
+                needs = 1; pops = 1; pushes = 1;
+                break;
+            case Bytecode.INSTR_LOAD_PROP_IND :
+            case Bytecode.INSTR_MAP :
+            case Bytecode.INSTR_OR :
+            case Bytecode.INSTR_AND :
+                needs = 2; pops = 2; pushes = 1;
+                break;
+            case Bytecode.INSTR_STORE_OPTION :
+            case Bytecode.INSTR_STORE_ARG :
+            case Bytecode.INSTR_ADD :
+                needs = 2; pops = 1; // leave the options, args or list
+                break;
+            case Bytecode.INSTR_PASSTHRU :
+                needs = 1; pops = 0;
+                break;
+            case Bytecode.INSTR_NEW :
+            case Bytecode.INSTR_SUPER_NEW :
+                needs = opnd2; pops = opnd2; pushes = 1;
+                break;
+            case Bytecode.INSTR_NEW_IND :
+                needs = opnd1+1; pops = opnd1+1; pushes = 1;
+                break;
+            case Bytecode.INSTR_ROT_MAP :
+            case Bytecode.INSTR_ZIP_MAP :
+                needs = opnd1+1; pops = opnd1+1; pushes = 1;
+                break;
+            case Bytecode.INSTR_WRITE :
+            case Bytecode.INSTR_WRITE_ESC :
+            case Bytecode.INSTR_WRITE_LOCAL :
+            case Bytecode.INSTR_BRF :
+            case Bytecode.INSTR_POP :
+                needs = 1; pops = 1;
+                break;
+            case Bytecode.INSTR_WRITE_CONST_OPT :
+                if ( code.constantOptions==null || opnd1>=code.constantOptions.length ) {
+                    throw error(ip, I.name+" has no constant options "+opnd1);
+                }
+                needs = 1; pops = 1;
+                break;
+            case Bytecode.INSTR_WRITE_OPT :
+                needs = 2; pops = 2;
+                break;
+            default : // br, indent, dedent, newline, noop, write_str, escape
+                needs = 0; pops = 0;
+        }
+        if ( depth<needs ) {
+            throw error(ip, I.name+" needs "+needs+" operand(s) but the stack has "+depth);
+        }
+        int after = depth - pops + pushes;
+        if ( opcode==Bytecode.INSTR_BR || opcode==Bytecode.INSTR_BRF ) {
+            reach(ip, opnd1, after);
+        }
+        if ( opcode!=Bytecode.INSTR_BR ) reach(ip, next, after);
+    }
+
+    /** Record that control flows from {@code from} to {@code ip} with
+     *  {@code depth} operands on the stack.
+     */
+    protected void reach(int from, int ip, int depth) {
+        if ( ip>code.codeSize || !isInstr[ip] ) {
+            throw error(from, "branch to "+ip+" isn't an instruction");
+        }
+        maxDepth = Math.max(maxDepth, depth);
+        if ( depthAt[ip]==-1 ) {
+            depthAt[ip] = depth;
+            if ( ip<code.codeSize ) worklist[worklistSize++] = ip;
+        }
+        else if ( depthAt[ip]!=depth ) {
+            throw error(from, "stack depth "+depth+" at "+ip+" doesn't match "+depthAt[ip]+" on another path");
+        }
+    }
+
+    protected STException error(int ip, String msg) {
+        return new STException("malformed bytecode in "+code.name+" @ "+ip+": "+msg, null);
+    }
+}
@@ -73,6 +73,8 @@ import org.stringtemplate.v4.*;
 	Token templateToken;			// overall template token
 	String template;  				// overall template text
 	ErrorManager errMgr;
+	/** Non-null when the group auto-escapes; see {@link STGroup#setAutoEscape}. */
+	HtmlContext htmlContext;
 	public CodeGenerator(TreeNodeStream input, ErrorManager errMgr, String name, String template, Token templateToken) {
 		this(input, new RecognizerSharedState());
 		this.errMgr = errMgr;
@@ -125,6 +127,25 @@ import org.stringtemplate.v4.*;
 	public void refAttr(CommonTree id) { $template::state.refAttr(templateToken, id); }
 	public int defineString(String s) { return $template::state.defineString(s); }
 
+	public void literal(String text) { if ( htmlContext!=null ) htmlContext.text(text); }
+
+	/** The value of the {@code format} option of {@code expr} if it's a
+	 *  string literal, {@code ""} for any other value, else {@code null}.
+	 */
+	public static String getFormatOption(CommonTree expr) {
+		if ( expr.getChildCount()<2 ) return null;
+		CommonTree options = (CommonTree)expr.getChild(1);
+		for (int i = 0; i < options.getChildCount(); i++) {
+			CommonTree option = (CommonTree)options.getChild(i);
+			if ( option.getChildCount()>1 && option.getChild(0).getText().equals("format") ) {
+				CommonTree value = (CommonTree)option.getChild(1);
+				if ( value.getType()!=STRING ) return "";
+				return Misc.strip(value.getText(), 1);
+			}
+		}
+		return null;
+	}
+
 	@Override
 	public void displayRecognitionError(String[] tokenNames, RecognitionException e) {
 		Token tokenWithPosition = e.token;
@@ -158,6 +179,9 @@ scope {
 	:	chunk
 		{ // finish off the CompiledST result
         if ( $template::state.stringtable!=null ) $impl.strings = $template::state.stringtable.toArray();
+        if ( $template::state.constantOptions!=null ) {
+            $impl.constantOptions = $template::state.constantOptions.toArray(new String[0][]);
+        }
         $impl.codeSize = $template::state.ip;
 		}
 	;
@@ -167,9 +191,9 @@ chunk
 	;
 
 element
-	:	^(INDENTED_EXPR INDENT compoundElement[$INDENT]) // ignore indent in front of IF and region blocks
+	:	^(INDENTED_EXPR INDENT {literal($INDENT.text);} compoundElement[$INDENT]) // ignore indent in front of IF and region blocks
 	|	compoundElement[null]
-	|	^(INDENTED_EXPR INDENT {$template::state.indent($INDENT);} singleElement? {$template::state.emit(Bytecode.INSTR_DEDENT);})
+	|	^(INDENTED_EXPR INDENT {literal($INDENT.text); $template::state.indent($INDENT);} singleElement? {$template::state.emit(Bytecode.INSTR_DEDENT);})
 	|	singleElement
 	;
 
@@ -179,10 +203,11 @@ singleElement
 		{
 		if ( $TEXT.text.length()>0 ) {
 			emit1($TEXT,Bytecode.INSTR_WRITE_STR, $TEXT.text);
+			literal($TEXT.text);
 		}
 		}
 
-	|	NEWLINE {emit($NEWLINE, Bytecode.INSTR_NEWLINE);}
+	|	NEWLINE {emit($NEWLINE, Bytecode.INSTR_NEWLINE); literal("\n");}
 	;
 
 compoundElement[CommonTree indent]
@@ -191,8 +216,8 @@ compoundElement[CommonTree indent]
 	;
 
 exprElement
-@init { short op = Bytecode.INSTR_WRITE; }
-	:	^( EXPR expr (exprOptions {op=Bytecode.INSTR_WRITE_OPT;})? )
+@init { short op = Bytecode.INSTR_WRITE; int constOptions = -1; }
+	:	^( EXPR expr (exprOptions {op=Bytecode.INSTR_WRITE_OPT; constOptions=$exprOptions.constIndex;})? )
 		{
 		/*
 		CompilationState state = $template::state;
@@ -204,7 +229,29 @@ exprElement
 			emit($EXPR, op);
 		}
 		*/
-		emit($EXPR, op);
+		int escaper = -1;
+		if ( htmlContext!=null ) {
+			String format = getFormatOption($EXPR);
+			String context = htmlContext.getUnsupportedContext();
+			if ( context==null || format==null ) {
+				if ( context!=null ) {
+					errMgr.compileTimeError(ErrorType.UNSUPPORTED_ESCAPE_CONTEXT, templateToken, $EXPR.token, context);
+				}
+				escaper = htmlContext.getEscaperId();
+				// escape what the renderer made of the value too, unless its
+				// own escaping is already enough here
+				if ( format!=null && Escaper.formatSuffices(format, escaper) ) escaper = -1;
+			} // else it's up to the renderer, as in CSS
+			htmlContext.expression();
+		}
+		if ( escaper>=0 && op==Bytecode.INSTR_WRITE ) {
+			emit1($EXPR, Bytecode.INSTR_WRITE_ESC, escaper);
+		}
+		else {
+			if ( escaper>=0 ) emit1($EXPR, Bytecode.INSTR_ESCAPE, escaper);
+			if ( constOptions>=0 ) emit1($EXPR, Bytecode.INSTR_WRITE_CONST_OPT, constOptions);
+			else emit($EXPR, op);
+		}
 		}
 	;
 
@@ -333,7 +380,11 @@ conditional
 	|	expr // not all expr are valid, but reuse code gen (parser restricts syntax)
 	;
 
-exprOptions : {emit($start, Bytecode.INSTR_OPTIONS);} ^(OPTIONS option*) ;
+exprOptions returns [int constIndex=-1]
+@init { int addr = address(); }
+	:	{emit($start, Bytecode.INSTR_OPTIONS);} ^(OPTIONS option*)
+		{$constIndex = $template::state.foldConstantOptions(addr);}
+	;
 
 option : ^('=' ID expr) {setOption($ID);} ;
 
@@ -33,6 +33,9 @@ import org.antlr.runtime.tree.CommonTree;
 import org.stringtemplate.v4.Interpreter;
 import org.stringtemplate.v4.misc.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /** Temporary data used during construction and functions that fill it / use it.
  *  Result is {@link #impl} {@link CompiledST} object.
  */
@@ -43,6 +46,9 @@ public class CompilationState {
     /** Track unique strings; copy into {@link CompiledST#strings} after compilation. */
     StringTable stringtable = new StringTable();
 
+    /** Pre-rendered option sets; copy into {@link CompiledST#constantOptions} after compilation. */
+    List<String[]> constantOptions;
+
     /**
      * Track instruction location within
      * {@code impl.}{@link CompiledST#instrs instrs} array; this is next address
@@ -87,6 +93,33 @@ public class CompilationState {
         emit1(id, Bytecode.INSTR_STORE_OPTION, O.ordinal());
     }
 
+    /** If the options block starting with the {@link Bytecode#INSTR_OPTIONS}
+     *  at {@code addr} only stores string literals, such as
+     *  {@code <names; separator=", ">}, throw away its code and record the
+     *  option values so they need not be rendered on every evaluation.
+     *
+     *  @return index into {@link CompiledST#constantOptions} or -1 if some
+     *  option value must be computed at run time
+     */
+    public int foldConstantOptions(int addr) {
+        if ( impl.instrs[addr]!=Bytecode.INSTR_OPTIONS ) return -1;
+        String[] values = new String[Compiler.NUM_OPTIONS];
+        int a = addr+1;
+        while ( a < ip ) {
+            if ( impl.instrs[a]!=Bytecode.INSTR_LOAD_STR ) return -1;
+            String value = stringtable.get(BytecodeDisassembler.getShort(impl.instrs, a+1));
+            a += 1+Bytecode.OPND_SIZE_IN_BYTES;
+            if ( a>=ip || impl.instrs[a]!=Bytecode.INSTR_STORE_OPTION ) return -1;
+            values[BytecodeDisassembler.getShort(impl.instrs, a+1)] = value;
+            a += 1+Bytecode.OPND_SIZE_IN_BYTES;
+        }
+        for (int i=addr; i<ip; i++) impl.sourceMap[i] = null;
+        ip = addr;
+        if ( constantOptions==null ) constantOptions = new ArrayList<String[]>();
+        constantOptions.add(values);
+        return constantOptions.size()-1;
+    }
+
     public void func(Token templateToken, CommonTree id) {
         Short funcBytecode = Compiler.funcs.get(id.getText());
         if ( funcBytecode==null ) {
@@ -82,6 +82,12 @@ public class CompiledST implements Cloneable {
 
     public int numberOfArgsWithDefaultValues;
 
+    /** The {@link #formalArguments} that have a default value, in order;
+     *  {@code null} if none. Built by {@link #defineArgDefaultValueTemplates}
+     *  so invocations don't have to look at the map or the default's text.
+     */
+    public FormalArgument[] defaultArguments;
+
     /** A list of all regions and subtemplates. */
     public List<CompiledST> implicitlyDefinedTemplates;
 
@@ -113,10 +119,43 @@ public class CompiledST implements Cloneable {
     public boolean isAnonSubtemplate; // {...}
 
     public String[] strings;     // string operands of instructions
+    /** Option values of expressions whose options are all string literals,
+     *  rendered once at compile time; operand of
+     *  {@link Bytecode#INSTR_WRITE_CONST_OPT}.
+     */
+    public String[][] constantOptions;
     public byte[] instrs;        // byte-addressable code memory.
     public int codeSize;
     public Interval[] sourceMap; // maps IP to range in template pattern
 
+    /** Compact form of {@link #sourceMap} left by {@link #makeLean}:
+     *  {@code (ip, start, stop)} triples sorted by ip, one per instruction
+     *  that maps to template text.
+     */
+    public int[] packedSourceMap;
+
+    /** Most operand stack slots this template uses at once, as computed by
+     *  {@link BytecodeVerifier}; -1 until then.
+     */
+    public int maxStackDepth = -1;
+
+    /** {@link #instrs} as the interpreter runs them; built on first use by
+     *  {@link #getDecodedCode} and shared with clones.
+     */
+    protected volatile DecodedCode decodedCode;
+
+    /** Moving average of the number of chars {@link ST#render} produced for
+     *  this template; used to presize the output buffer. Updated without
+     *  locking since a lost update only costs a slightly worse guess.
+     *  Clones leave it alone and update their {@link #prototype}'s.
+     */
+    public int averageRenderSize;
+
+    /** The template this one is a {@link #clone} of, or {@code null} if it
+     *  isn't one, so that what renders of every instance learn is shared.
+     */
+    protected CompiledST prototype;
+
     public CompiledST() {
         instrs = new byte[Compiler.TEMPLATE_INITIAL_CODE_SIZE];
         sourceMap = new Interval[Compiler.TEMPLATE_INITIAL_CODE_SIZE];
@@ -137,7 +176,9 @@ public class CompiledST implements Cloneable {
      */
     @Override
     public CompiledST clone() throws CloneNotSupportedException {
+        getDecodedCode(); // decode once, not once per instance
         CompiledST clone = (CompiledST)super.clone();
+        clone.prototype = prototype!=null ? prototype : this;
         if (formalArguments != null) {
             formalArguments = Collections.synchronizedMap(new LinkedHashMap<String,FormalArgument>(formalArguments));
         }
@@ -145,6 +186,130 @@ public class CompiledST implements Cloneable {
         return clone;
     }
 
+    /** The pre-decoded form of {@link #instrs}. Racing threads may each
+     *  decode, which is harmless; the code doesn't change once compiled.
+     */
+    public DecodedCode getDecodedCode() {
+        DecodedCode d = decodedCode;
+        if ( d==null ) {
+            d = DecodedCode.decode(this);
+            decodedCode = d;
+        }
+        return d;
+    }
+
+    /** {@link #maxStackDepth}, verifying templates that didn't come from
+     *  {@link Compiler#compile} first.
+     *
+     *  @throws STException if the code is malformed
+     */
+    public int getMaxStackDepth() {
+        int depth = maxStackDepth;
+        if ( depth<0 ) {
+            BytecodeVerifier.verify(this);
+            depth = maxStackDepth;
+        }
+        return depth;
+    }
+
+    /** {@link #instrs} with small templates it calls inlined and static
+     *  ones replaced by their text, linked against {@link #nativeGroup}.
+     *  Relinked whenever the group's {@link STGroup#getLinkEpoch} moves on.
+     */
+    public DecodedCode getLinkedCode() {
+        DecodedCode plain = getDecodedCode();
+        int epoch = nativeGroup.getLinkEpoch();
+        DecodedCode linked = plain.linked;
+        if ( linked==null || linked.linkEpoch!=epoch ) {
+            linked = DecodedCode.link(this, nativeGroup, epoch);
+            plain.linked = linked;
+        }
+        return linked;
+    }
+
+    /** Forget the decoded code after changing {@link #instrs} or
+     *  {@link #strings}.
+     */
+    public void invalidateDecodedCode() { decodedCode = null; }
+
+    /** Initial capacity for a buffer that will receive a full render of this
+     *  template: the average of previous renders plus some headroom.
+     */
+    public int getRenderSizeHint() {
+        int avg = getAverageRenderSize();
+        return Math.max(16, avg + (avg >> 3));
+    }
+
+    public int getAverageRenderSize() {
+        return prototype!=null ? prototype.averageRenderSize : averageRenderSize;
+    }
+
+    /** Fold the size of a completed render into {@link #averageRenderSize};
+     *  each new render has weight 1/8.
+     */
+    public void recordRenderSize(int n) {
+        CompiledST code = prototype!=null ? prototype : this;
+        int avg = code.averageRenderSize;
+        if ( avg==0 ) code.averageRenderSize = n;
+        else code.averageRenderSize = avg + ((n - avg) >> 3);
+    }
+
+    /** Range in {@link #template} that produced the instruction at
+     *  {@code ip}, or {@code null} if it has none.
+     */
+    public Interval getSourceInterval(int ip) {
+        if ( sourceMap!=null ) {
+            return ip>=0 && ip<sourceMap.length ? sourceMap[ip] : null;
+        }
+        if ( packedSourceMap==null ) return null;
+        int lo = 0;
+        int hi = packedSourceMap.length/3 - 1;
+        while ( lo<=hi ) {
+            int mid = (lo+hi) >>> 1;
+            int addr = packedSourceMap[mid*3];
+            if ( addr<ip ) lo = mid+1;
+            else if ( addr>ip ) hi = mid-1;
+            else return new Interval(packedSourceMap[mid*3+1], packedSourceMap[mid*3+2]);
+        }
+        return null;
+    }
+
+    /** Drop what only debugging needs once compilation is done: trim
+     *  {@link #instrs} to {@link #codeSize}, pack {@link #sourceMap} into
+     *  {@link #packedSourceMap}, and release {@link #ast} and
+     *  {@link #tokens}. Error messages keep their line:col positions;
+     *  {@link org.stringtemplate.v4.gui.STViz} loses the tree view. Applies
+     *  to regions and subtemplates too.
+     */
+    public void makeLean() {
+        if ( instrs.length!=codeSize ) {
+            byte[] c = new byte[codeSize];
+            System.arraycopy(instrs, 0, c, 0, codeSize);
+            instrs = c;
+            decodedCode = null;
+        }
+        if ( sourceMap!=null ) {
+            int n = 0;
+            for (Interval I : sourceMap) if ( I!=null ) n++;
+            int[] packed = new int[n*3];
+            int i = 0;
+            for (int ip = 0; ip < sourceMap.length; ip++) {
+                Interval I = sourceMap[ip];
+                if ( I==null ) continue;
+                packed[i++] = ip;
+                packed[i++] = I.a;
+                packed[i++] = I.b;
+            }
+            packedSourceMap = packed;
+            sourceMap = null;
+        }
+        ast = null;
+        tokens = null;
+        if ( implicitlyDefinedTemplates!=null ) {
+            for (CompiledST sub : implicitlyDefinedTemplates) sub.makeLean();
+        }
+    }
+
     public void addImplicitlyDefinedTemplate(CompiledST sub) {
         sub.prefix = this.prefix;
         if ( sub.name.charAt(0)!='/' ) sub.name = sub.prefix+sub.name;
@@ -156,21 +321,35 @@ public class CompiledST implements Cloneable {
 
     public void defineArgDefaultValueTemplates(STGroup group) {
         if ( formalArguments==null ) return;
+        List<FormalArgument> defaults = new ArrayList<FormalArgument>();
         for (String a : formalArguments.keySet()) {
             FormalArgument fa = formalArguments.get(a);
             if ( fa.defaultValueToken!=null ) {
                 numberOfArgsWithDefaultValues++;
+                defaults.add(fa);
                 switch (fa.defaultValueToken.getType()) {
                 case GroupParser.ANONYMOUS_TEMPLATE:
                     String argSTname = fa.name + "_default_value";
                     Compiler c2 = new Compiler(group);
-                    String defArgTemplate =
-                        Misc.strip(fa.defaultValueToken.getText(), 1);
+                    String text = fa.defaultValueToken.getText();
+                    String defArgTemplate = Misc.strip(text, 1);
                     fa.compiledDefaultValue =
                         c2.compile(group.getFileName(), argSTname, null,
                                    defArgTemplate, fa.defaultValueToken);
                     fa.compiledDefaultValue.name = argSTname;
                     fa.compiledDefaultValue.defineImplicitlyDefinedTemplates(group);
+                    // If default arg is template with single expression
+                    // wrapped in parens, x={<(...)>}, then eval to string
+                    // rather than setting x to the template for later
+                    // eval.
+                    if ( text.startsWith("{"+group.delimiterStartChar+"(") &&
+                         text.endsWith(")"+group.delimiterStopChar+"}") )
+                    {
+                        fa.defaultKind = FormalArgument.EVALUATED_DEFAULT;
+                    }
+                    else {
+                        fa.defaultKind = FormalArgument.TEMPLATE_DEFAULT;
+                    }
                     break;
 
                 case GroupParser.STRING:
@@ -191,6 +370,9 @@ public class CompiledST implements Cloneable {
                 }
             }
         }
+        if ( defaults.size()>0 ) {
+            defaultArguments = defaults.toArray(new FormalArgument[defaults.size()]);
+        }
     }
 
     public void defineFormalArgs(List<FormalArgument> args) {
@@ -230,13 +412,21 @@ public class CompiledST implements Cloneable {
         if ( isAnonSubtemplate ) {
             int start = Integer.MAX_VALUE;
             int stop = Integer.MIN_VALUE;
-            for (Interval interval : sourceMap) {
-                if (interval == null) {
-                    continue;
+            if ( sourceMap!=null ) {
+                for (Interval interval : sourceMap) {
+                    if (interval == null) {
+                        continue;
+                    }
+
+                    start = Math.min(start, interval.a);
+                    stop = Math.max(stop, interval.b);
+                }
+            }
+            else if ( packedSourceMap!=null ) {
+                for (int i = 0; i < packedSourceMap.length; i += 3) {
+                    start = Math.min(start, packedSourceMap[i+1]);
+                    stop = Math.max(stop, packedSourceMap[i+2]);
                 }
-
-                start = Math.min(start, interval.a);
-                stop = Math.max(stop, interval.b);
             }
 
             if (start <= stop + 1) {
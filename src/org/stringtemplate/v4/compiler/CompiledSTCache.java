@@ -0,0 +1,151 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.compiler;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** A bounded, thread-safe map from template source to its compiled form.
+ *  Each {@link org.stringtemplate.v4.STGroup} keeps one for the ad hoc
+ *  templates created via {@link org.stringtemplate.v4.ST#ST(org.stringtemplate.v4.STGroup, String)},
+ *  so repeated {@code new ST("...")} and {@link org.stringtemplate.v4.ST#format}
+ *  calls skip the lexer, parser and code generator.
+ *  <p>
+ *  Entries are keyed by delimiters and source since the delimiters of a group
+ *  may change between compilations. {@link org.stringtemplate.v4.ST#format}
+ *  caches its templates separately, keyed also by its argument count, with
+ *  the arguments {@code arg1..argN} already defined. When the cache is full, an arbitrary
+ *  entry is dropped to make room. Cached objects must be treated as
+ *  prototypes: clone before handing one to an {@link org.stringtemplate.v4.ST}.</p>
+ */
+public class CompiledSTCache {
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    protected final ConcurrentMap<Key, CompiledST> cache =
+        new ConcurrentHashMap<Key, CompiledST>();
+
+    /** Maximum number of entries; 0 disables caching. */
+    protected volatile int maxSize;
+
+    protected final AtomicLong hits = new AtomicLong();
+    protected final AtomicLong misses = new AtomicLong();
+
+    public CompiledSTCache() { this(DEFAULT_MAX_SIZE); }
+
+    public CompiledSTCache(int maxSize) { this.maxSize = maxSize; }
+
+    /** Return the cached code for {@code template} or {@code null}; counts
+     *  the lookup as a hit or miss.
+     */
+    public CompiledST get(char delimiterStartChar, char delimiterStopChar, String template) {
+        return get(delimiterStartChar, delimiterStopChar, template, 0);
+    }
+
+    /** Like {@link #get(char, char, String)} for code with {@code formatArgs}
+     *  format arguments defined.
+     */
+    public CompiledST get(char delimiterStartChar, char delimiterStopChar, String template, int formatArgs) {
+        if ( maxSize<=0 ) return null;
+        CompiledST code = cache.get(new Key(delimiterStartChar, delimiterStopChar, template, formatArgs));
+        if ( code!=null ) hits.incrementAndGet();
+        else misses.incrementAndGet();
+        return code;
+    }
+
+    public void put(char delimiterStartChar, char delimiterStopChar, String template, CompiledST code) {
+        put(delimiterStartChar, delimiterStopChar, template, 0, code);
+    }
+
+    public void put(char delimiterStartChar, char delimiterStopChar, String template, int formatArgs,
+                    CompiledST code)
+    {
+        int max = maxSize;
+        if ( max<=0 ) return;
+        if ( cache.size()>=max ) {
+            Iterator<Key> it = cache.keySet().iterator();
+            if ( it.hasNext() ) {
+                it.next();
+                it.remove();
+            }
+        }
+        cache.put(new Key(delimiterStartChar, delimiterStopChar, template, formatArgs), code);
+    }
+
+    public long getHits() { return hits.get(); }
+
+    public long getMisses() { return misses.get(); }
+
+    public int size() { return cache.size(); }
+
+    public int getMaxSize() { return maxSize; }
+
+    /** Change the bound; shrinking drops all entries. */
+    public void setMaxSize(int maxSize) {
+        int old = this.maxSize;
+        this.maxSize = maxSize;
+        if ( maxSize<old ) cache.clear();
+    }
+
+    /** Drop all entries; the hit and miss counters are left alone. */
+    public void clear() { cache.clear(); }
+
+    @Override
+    public String toString() {
+        return "size="+size()+", hits="+getHits()+", misses="+getMisses();
+    }
+
+    protected static final class Key {
+        final char start;
+        final char stop;
+        final String template;
+        final int formatArgs;
+
+        Key(char start, char stop, String template, int formatArgs) {
+            this.start = start;
+            this.stop = stop;
+            this.template = template;
+            this.formatArgs = formatArgs;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((template.hashCode()*31 + start)*31 + stop)*31 + formatArgs;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if ( this==o ) return true;
+            if ( !(o instanceof Key) ) return false;
+            Key other = (Key)o;
+            return start==other.start && stop==other.stop &&
+                   formatArgs==other.formatArgs && template.equals(other.template);
+        }
+    }
+}
@@ -164,6 +164,7 @@ public class Compiler {
         CommonTreeNodeStream nodes = new CommonTreeNodeStream(r.getTree());
         nodes.setTokenStream(tokens);
         CodeGenerator gen = new CodeGenerator(nodes, group.errMgr, name, template, templateToken);
+        if ( group.isAutoEscape() ) gen.htmlContext = new HtmlContext();
 
         CompiledST impl=null;
         try {
@@ -177,6 +178,20 @@ public class Compiler {
         catch (RecognitionException re) {
             group.errMgr.internalError(null, "bad tree structure", re);
         }
+        if ( impl!=null ) {
+            try {
+                BytecodeVerifier.verify(impl);
+            }
+            catch (STException ste) {
+                group.errMgr.internalError(null, ste.getMessage(), ste);
+                impl = new CompiledST(); // don't run bad code; treat like a syntax error
+                impl.defineFormalArgs(args);
+            }
+        }
+        if ( impl!=null && group.getStringPool()!=null ) {
+            group.getStringPool().intern(impl);
+        }
+        if ( impl!=null && group.isLean() ) impl.makeLean();
 
         return impl;
     }
@@ -0,0 +1,426 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.compiler;
+
+import org.stringtemplate.v4.AttributeRenderer;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.StringRenderer;
+import org.stringtemplate.v4.misc.Escaper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** {@link CompiledST#instrs} decoded once for the interpreter. Every
+ *  instruction takes {@link #SLOT} ints of {@link #code}: its opcode, its
+ *  two operands already read out of the byte stream, and the byte address
+ *  it came from, which is what {@link org.stringtemplate.v4.InstanceScope#ip},
+ *  error messages and the source map still use. Branch targets point at
+ *  the instruction's index, slot number {@code index * SLOT}, rather than at
+ *  a byte address.
+ *  <p>
+ *  {@link #refs} holds, per instruction, whatever its first operand names:
+ *  the string for string operands, the {@link Escaper} of
+ *  {@link Bytecode#INSTR_WRITE_ESC} and {@link Bytecode#INSTR_ESCAPE}, and
+ *  the option strings of {@link Bytecode#INSTR_WRITE_CONST_OPT}.</p>
+ *  <p>
+ *  {@link #link} additionally inlines small templates into their callers
+ *  and replaces templates whose output never changes with that output.</p>
+ */
+public final class DecodedCode {
+    public static final int OPCODE = 0;
+    public static final int OPND1 = 1;
+    public static final int OPND2 = 2;
+    public static final int ADDR = 3;
+    public static final int SLOT = 4;
+
+    // instructions only linked code contains
+
+    /** Write argument {@link InlinedArg#arg} of an inlined template, which
+     *  sits below the rest of its arguments on the stack.
+     */
+    public static final short INSTR_INLINED_ARG = Bytecode.MAX_BYTECODE+1;
+    /** Pop the operand 1 arguments of an inlined template. */
+    public static final short INSTR_INLINED_END = Bytecode.MAX_BYTECODE+2;
+    /** Write the {@link StaticText} in {@link #refs}: the whole template if
+     *  operand 1 is {@link #STATIC_BODY}, a {@code new t 0; write} of it if
+     *  {@link #STATIC_CALL}.
+     */
+    public static final short INSTR_WRITE_STATIC = Bytecode.MAX_BYTECODE+3;
+
+    public static final int STATIC_BODY = 0;
+    public static final int STATIC_CALL = 1;
+
+    public final int[] code;
+    /** Indexed by instruction index. */
+    public final Object[] refs;
+    /** The {@link STGroup#getLinkEpoch} this code was linked in; -1 if
+     *  it wasn't linked.
+     */
+    public final int linkEpoch;
+    /** The latest linked form of this code, if it isn't linked itself;
+     *  clones of a {@link CompiledST} share it.
+     */
+    volatile DecodedCode linked;
+    /** What the template renders to if that never changes, in which case
+     *  this code is a single {@link #STATIC_BODY} write of it.
+     */
+    public final StaticText staticText;
+
+    /** What {@link #INSTR_INLINED_ARG} needs to know about the template it
+     *  was inlined from.
+     */
+    public static final class InlinedArg {
+        public final CompiledST callee;
+        /** Index of the argument to write. */
+        public final int arg;
+        public final int nargs;
+        /** Address of the callee's instruction that loaded the argument. */
+        public final int ip;
+
+        InlinedArg(CompiledST callee, int arg, int nargs, int ip) {
+            this.callee = callee;
+            this.arg = arg;
+            this.nargs = nargs;
+            this.ip = ip;
+        }
+    }
+
+    /** The output of a template that references no attributes and calls
+     *  only other such templates. What it writes still depends on where it
+     *  starts: an indent it opens on its first line only shows at the start
+     *  of a line, and whether its first newline is kept depends on whether
+     *  its caller wrote anything on the line. The interpreter renders each
+     *  of those {@link #variant}s the first time it needs it.
+     */
+    public static final class StaticText {
+        public final CompiledST template;
+        /** Indexed by {@link #variant}; racing renders of the same variant
+         *  store equal values.
+         */
+        public final Rendering[] renderings = new Rendering[4];
+
+        StaticText(CompiledST template) {
+            this.template = template;
+        }
+
+        public static int variant(boolean wroteOnLine, boolean atStartOfLine) {
+            return (wroteOnLine ? 1 : 0) | (atStartOfLine ? 2 : 0);
+        }
+    }
+
+    /** One variant of a {@link StaticText}, rendered with {@code \n}
+     *  newlines and no indentation of its own.
+     */
+    public static final class Rendering {
+        public final String text;
+        /** {@link #text} split at its newlines, so it can be written like
+         *  the template would write it: a line, then a newline on its own.
+         */
+        public final String[] lines;
+        /** How many of the newlines in {@link #text} came from
+         *  {@link Bytecode#INSTR_NEWLINE}, which don't count as written.
+         */
+        public final int newlines;
+        /** Whether the last line of {@link #text} had anything written to
+         *  it, which decides if a following newline is kept.
+         */
+        public final boolean wroteOnLine;
+
+        public Rendering(String text, int newlines, boolean wroteOnLine) {
+            this.text = text;
+            this.lines = text.split("\n", -1);
+            this.newlines = newlines;
+            this.wroteOnLine = wroteOnLine;
+        }
+    }
+
+    DecodedCode(int[] code, Object[] refs, int linkEpoch) {
+        this(code, refs, linkEpoch, null);
+    }
+
+    DecodedCode(int[] code, Object[] refs, int linkEpoch, StaticText staticText) {
+        this.code = code;
+        this.refs = refs;
+        this.linkEpoch = linkEpoch;
+        this.staticText = staticText;
+    }
+
+    public static DecodedCode decode(CompiledST impl) {
+        byte[] instrs = impl.instrs;
+        int codeSize = impl.codeSize;
+        // pass 1: index of each instruction by byte address
+        int[] indexOfAddr = new int[codeSize+1];
+        int n = 0;
+        int ip = 0;
+        while ( ip<codeSize ) {
+            indexOfAddr[ip] = n;
+            ip += 1 + nopnds(instrs[ip])*Bytecode.OPND_SIZE_IN_BYTES;
+            n++;
+        }
+        indexOfAddr[Math.min(ip, codeSize)] = n; // branches to the end
+
+        int[] code = new int[n*SLOT];
+        Object[] refs = new Object[n];
+        ip = 0;
+        for (int i = 0; i<n; i++) {
+            int pc = i*SLOT;
+            short opcode = instrs[ip];
+            int nopnds = nopnds(opcode);
+            code[pc+OPCODE] = opcode;
+            code[pc+ADDR] = ip;
+            if ( nopnds>0 ) code[pc+OPND1] = BytecodeDisassembler.getShort(instrs, ip+1);
+            if ( nopnds>1 ) code[pc+OPND2] = BytecodeDisassembler.getShort(instrs, ip+1+Bytecode.OPND_SIZE_IN_BYTES);
+            ip += 1 + nopnds*Bytecode.OPND_SIZE_IN_BYTES;
+            if ( nopnds==0 ) continue;
+            int opnd = code[pc+OPND1];
+            switch ( opcode ) {
+                case Bytecode.INSTR_BR :
+                case Bytecode.INSTR_BRF :
+                    code[pc+OPND1] = opnd<=codeSize ? indexOfAddr[opnd] : n;
+                    break;
+                case Bytecode.INSTR_WRITE_ESC :
+                case Bytecode.INSTR_ESCAPE :
+                    refs[i] = Escaper.get(opnd);
+                    break;
+                case Bytecode.INSTR_WRITE_CONST_OPT :
+                    refs[i] = impl.constantOptions[opnd];
+                    break;
+                default :
+                    if ( Bytecode.instructions[opcode].type[0]==Bytecode.OperandType.STRING &&
+                         impl.strings!=null && opnd<impl.strings.length )
+                    {
+                        refs[i] = impl.strings[opnd];
+                    }
+            }
+        }
+        return new DecodedCode(code, refs, -1);
+    }
+
+    /** Link {@code impl} against the templates {@code group} resolves names
+     *  to right now, replacing each {@code new t n; write} with the body of
+     *  {@code t} if it is at most {@link STGroup#getMaxInlineSize}
+     *  instructions of literal text and written arguments. The arguments
+     *  stay on the stack and {@link #INSTR_INLINED_ARG} reads them there;
+     *  {@link #INSTR_INLINED_END} pops them. Inlined instructions carry the
+     *  address of the {@code new} so errors point at the call.
+     *  <p>
+     *  Attribute references, nested templates, newlines and indentation
+     *  behave differently outside their own template, so callees using them
+     *  are left alone, as are regions, subtemplates, calls passing the wrong
+     *  number of arguments and callers that escape values.</p>
+     *  <p>
+     *  A template that is {@link #isStatic} becomes a single
+     *  {@link #INSTR_WRITE_STATIC} of its output, and so do calls of one
+     *  that can't be inlined.</p>
+     */
+    public static DecodedCode link(CompiledST impl, STGroup group, int epoch) {
+        DecodedCode plain = impl.getDecodedCode();
+        if ( isStatic(impl, group, new HashMap<CompiledST, Boolean>()) ) {
+            StaticText text = new StaticText(impl);
+            int[] code = {INSTR_WRITE_STATIC, STATIC_BODY, 0, 0};
+            return new DecodedCode(code, new Object[] {text}, epoch, text);
+        }
+        int n = plain.refs.length;
+        int[] pc = plain.code;
+        int maxInline = group.getMaxInlineSize();
+        boolean[] isTarget = new boolean[n+1];
+        for (int i = 0; i<n; i++) {
+            int opcode = pc[i*SLOT+OPCODE];
+            if ( opcode==Bytecode.INSTR_ESCAPE || opcode==Bytecode.INSTR_WRITE_ESC ) maxInline = 0;
+            if ( opcode==Bytecode.INSTR_BR || opcode==Bytecode.INSTR_BRF ) isTarget[pc[i*SLOT+OPND1]] = true;
+        }
+
+        Linker l = new Linker(n);
+        int[] newIndex = new int[n+1];
+        boolean changed = false; // anything inlined or made static
+        for (int i = 0; i<n; i++) {
+            newIndex[i] = l.size;
+            int p = i*SLOT;
+            if ( pc[p+OPCODE]==Bytecode.INSTR_NEW && i+1<n &&
+                 pc[p+SLOT+OPCODE]==Bytecode.INSTR_WRITE && !isTarget[i+1] )
+            {
+                CompiledST callee = resolve(impl, group, (String)plain.refs[i]);
+                int nargs = pc[p+OPND2];
+                if ( l.inline(callee, nargs, pc[p+ADDR], maxInline) ) {
+                    newIndex[++i] = l.size; // the write went with the call
+                    changed = true;
+                    continue;
+                }
+                StaticText text = nargs==0 && isStatic(callee, group, new HashMap<CompiledST, Boolean>()) ?
+                    callee.getLinkedCode().staticText : null;
+                if ( text!=null ) {
+                    l.emit(INSTR_WRITE_STATIC, STATIC_CALL, 0, pc[p+ADDR], text);
+                    newIndex[++i] = l.size;
+                    changed = true;
+                    continue;
+                }
+            }
+            l.emit(pc[p+OPCODE], pc[p+OPND1], pc[p+OPND2], pc[p+ADDR], plain.refs[i]);
+        }
+        newIndex[n] = l.size;
+        if ( !changed ) return new DecodedCode(plain.code, plain.refs, epoch);
+
+        int[] code = Arrays.copyOf(l.code, l.size*SLOT);
+        for (int p = 0; p<code.length; p += SLOT) {
+            if ( code[p+OPCODE]==Bytecode.INSTR_BR || code[p+OPCODE]==Bytecode.INSTR_BRF ) {
+                code[p+OPND1] = newIndex[code[p+OPND1]];
+            }
+        }
+        return new DecodedCode(code, l.refs.toArray(), epoch);
+    }
+
+    /** Accumulates linked code. */
+    static final class Linker {
+        int[] code;
+        List<Object> refs;
+        int size;
+
+        Linker(int n) {
+            code = new int[n*2*SLOT];
+            refs = new ArrayList<Object>(n*2);
+        }
+
+        void emit(int opcode, int opnd1, int opnd2, int addr, Object ref) {
+            if ( (size+1)*SLOT>code.length ) code = Arrays.copyOf(code, code.length*2);
+            int p = size*SLOT;
+            code[p+OPCODE] = opcode;
+            code[p+OPND1] = opnd1;
+            code[p+OPND2] = opnd2;
+            code[p+ADDR] = addr;
+            refs.add(ref);
+            size++;
+        }
+
+        /** Emit the body of {@code callee} if it can be inlined. */
+        boolean inline(CompiledST callee, int nargs, int addr, int maxInline) {
+            if ( maxInline<=0 || callee==null || callee.isAnonSubtemplate || callee.isRegion || !callee.hasFormalArgs ) {
+                return false;
+            }
+            int nformalArgs = callee.formalArguments!=null ? callee.formalArguments.size() : 0;
+            if ( nargs!=nformalArgs ) return false;
+
+            DecodedCode body = callee.getDecodedCode();
+            int[] bc = body.code;
+            int m = body.refs.length;
+            // check the whole body first
+            int count = 0;
+            for (int j = 0; j<m; j++, count++) {
+                int opcode = bc[j*SLOT+OPCODE];
+                if ( opcode==Bytecode.INSTR_LOAD_LOCAL && j+1<m &&
+                     bc[(j+1)*SLOT+OPCODE]==Bytecode.INSTR_WRITE )
+                {
+                    j++;
+                }
+                else if ( opcode!=Bytecode.INSTR_WRITE_STR ) return false;
+            }
+            if ( count>maxInline ) return false;
+
+            for (int j = 0; j<m; j++) {
+                int p = j*SLOT;
+                if ( bc[p+OPCODE]==Bytecode.INSTR_WRITE_STR ) {
+                    emit(Bytecode.INSTR_WRITE_STR, bc[p+OPND1], 0, addr, body.refs[j]);
+                }
+                else {
+                    int arg = bc[p+OPND1];
+                    emit(INSTR_INLINED_ARG, arg, nargs, addr,
+                         new InlinedArg(callee, arg, nargs, bc[p+ADDR]));
+                    j++; // the write
+                }
+            }
+            emit(INSTR_INLINED_END, nargs, 0, addr, null);
+            return true;
+        }
+    }
+
+    /** The template {@code group} resolves {@code name}, as {@code caller}
+     *  calls it, to; {@code null} if none.
+     */
+    static CompiledST resolve(CompiledST caller, STGroup group, String name) {
+        if ( name.charAt(0)!='/' ) name = caller.prefix + name;
+        return group.findResolvedTemplate(name);
+    }
+
+    /** Whether {@code t} renders the same text every time from
+     *  {@code group}: it takes no arguments, its code is only literal text,
+     *  newlines, indentation and argument-less calls of templates of
+     *  {@code group} that are static themselves, and strings are rendered
+     *  as is. Regions and subtemplates don't count, nor do templates that
+     *  call themselves. {@code seen} remembers the answer for templates
+     *  already checked and is {@code false} for those being checked.
+     */
+    public static boolean isStatic(CompiledST t, STGroup group, Map<CompiledST, Boolean> seen) {
+        if ( t==null || t.nativeGroup!=group || t.isAnonSubtemplate || t.isRegion ||
+             (t.formalArguments!=null && t.formalArguments.size()>0) )
+        {
+            return false;
+        }
+        AttributeRenderer<? super String> r = group.getAttributeRenderer(String.class);
+        if ( r!=null && r.getClass()!=StringRenderer.class ) return false;
+        Boolean known = seen.get(t);
+        if ( known!=null ) return known;
+        seen.put(t, Boolean.FALSE);
+        DecodedCode body = t.getDecodedCode();
+        int[] bc = body.code;
+        int m = body.refs.length;
+        for (int j = 0; j<m; j++) {
+            int p = j*SLOT;
+            switch ( bc[p+OPCODE] ) {
+                case Bytecode.INSTR_WRITE_STR :
+                case Bytecode.INSTR_NEWLINE :
+                case Bytecode.INSTR_INDENT :
+                case Bytecode.INSTR_DEDENT :
+                case Bytecode.INSTR_NOOP :
+                    break;
+                case Bytecode.INSTR_NEW :
+                    if ( bc[p+OPND2]!=0 || j+1==m || bc[p+SLOT+OPCODE]!=Bytecode.INSTR_WRITE ||
+                         !isStatic(resolve(t, group, (String)body.refs[j]), group, seen) )
+                    {
+                        return false;
+                    }
+                    j++; // the write
+                    break;
+                default :
+                    return false;
+            }
+        }
+        seen.put(t, Boolean.TRUE);
+        return true;
+    }
+
+    /** Operand count of {@code opcode}; 0 for opcodes that don't exist so
+     *  the interpreter can report them.
+     */
+    static int nopnds(short opcode) {
+        if ( opcode<=0 || opcode>=Bytecode.instructions.length ) return 0;
+        Bytecode.Instruction I = Bytecode.instructions[opcode];
+        return I!=null ? I.nopnds : 0;
+    }
+}
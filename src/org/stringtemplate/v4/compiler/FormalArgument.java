@@ -68,10 +68,23 @@ public class FormalArgument {
 
     public int index; // which argument is it? from 0..n-1
 
+    // how a missing argument gets its default value; see defaultKind
+
+    /** {@link #defaultValue} as is: {@code x="str"}, {@code x=true}, {@code x=[]}. */
+    public static final int CONSTANT_DEFAULT = 0;
+    /** A new instance of {@link #compiledDefaultValue}: {@code x={...}}. */
+    public static final int TEMPLATE_DEFAULT = 1;
+    /** {@link #compiledDefaultValue} rendered to a string right away:
+     *  {@code x={<(...)>}}.
+     */
+    public static final int EVALUATED_DEFAULT = 2;
+
     /** If they specified default value {@code x=y}, store the token here */
     public Token defaultValueToken;
     public Object defaultValue; // x="str", x=true, x=false
     public CompiledST compiledDefaultValue; // x={...}
+    /** Set along with {@link #defaultValue} or {@link #compiledDefaultValue}. */
+    public int defaultKind = CONSTANT_DEFAULT;
 
     public FormalArgument(String name) { this.name = name; }
 
@@ -0,0 +1,381 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.compiler;
+
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.misc.Escaper;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/** Follows the literal text of a template through HTML so the compiler can
+ *  pick an {@link Escaper} for each expression when
+ *  {@link STGroup#isAutoEscape} is on. Expressions in text get
+ *  {@link Escaper#XML}, in attribute values {@link Escaper#HTML_ATTRIBUTE}
+ *  or, without quotes, {@link Escaper#HTML_UNQUOTED_ATTRIBUTE}. In URL
+ *  attributes, values that can set the scheme are filtered and those in
+ *  the query get {@link Escaper#URL}. In {@code <script>} blocks and
+ *  {@code on*} attributes, values in string literals and comments get
+ *  {@link Escaper#JS_STRING} and values in code become a string literal
+ *  with {@link Escaper#JS_VALUE}.
+ *  <p>
+ *  Expressions in tags outside of attribute values, in CSS, in
+ *  {@code srcdoc} attributes and in JavaScript regular expressions can't
+ *  be escaped properly; {@link #getUnsupportedContext} says so and the
+ *  closest escaper is used.</p>
+ *  <p>
+ *  Literals are fed in source order, including those of anonymous
+ *  subtemplates and of every {@code if} branch, so branches should leave
+ *  the context where they found it. Values that are templates aren't
+ *  escaped; their own expressions are, in the context of their own
+ *  literals.</p>
+ */
+public class HtmlContext {
+    static final int TEXT = 0;
+    static final int COMMENT = 1;
+    static final int TAG_NAME = 2;
+    static final int IN_TAG = 3;
+    static final int ATTR_NAME = 4;
+    static final int AFTER_ATTR_NAME = 5;
+    static final int BEFORE_VALUE = 6;
+    static final int VALUE = 7;
+    static final int SCRIPT = 8;
+    static final int STYLE = 9;
+
+    // where JavaScript in a script block or on* attribute is
+    static final int JS_CODE = 0;
+    static final int JS_STRING = 1;
+    static final int JS_LINE_COMMENT = 2;
+    static final int JS_BLOCK_COMMENT = 3;
+    static final int JS_REGEX = 4;
+
+    // kinds of attribute
+    static final int PLAIN_ATTRIBUTE = 0;
+    static final int URL_ATTRIBUTE = 1;
+    static final int JS_ATTRIBUTE = 2;
+    static final int UNSUPPORTED_ATTRIBUTE = 3;
+
+    static final Set<String> URL_ATTRIBUTES = new HashSet<String>(Arrays.asList(
+        "action", "background", "cite", "codebase", "data", "formaction",
+        "href", "longdesc", "manifest", "poster", "src", "usemap"));
+
+    /** Chars after which a {@code /} starts a regular expression, not a division. */
+    static final String REGEX_PRECEDERS = "(,=:[!&|?{};+-*%<>~^";
+
+    int state = TEXT;
+    final StringBuilder tagName = new StringBuilder();
+    boolean closingTag;
+    final StringBuilder attrName = new StringBuilder();
+    int attrKind;
+    /** Quote around the current attribute value; 0 if none. */
+    char quote;
+    boolean valueHasQuery;
+    /** No literal text of the URL value has fixed its scheme yet. */
+    boolean schemeOpen;
+
+    int js;
+    /** Quote around the current JavaScript string. */
+    char jsQuote;
+    /** Last char of JavaScript code that wasn't whitespace; 0 if none. */
+    char jsLast;
+    boolean jsInCharClass;
+
+    /** Advance over literal text. */
+    public void text(String s) {
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            switch ( state ) {
+                case TEXT :
+                    if ( c=='<' ) {
+                        if ( s.startsWith("!--", i+1) ) {
+                            state = COMMENT;
+                            i += 3;
+                        }
+                        else if ( i+1<n && (Character.isLetter(s.charAt(i+1)) || s.charAt(i+1)=='/') ) {
+                            i = startTag(s, i);
+                        }
+                    }
+                    break;
+                case COMMENT :
+                    if ( s.startsWith("-->", i) ) {
+                        state = TEXT;
+                        i += 2;
+                    }
+                    break;
+                case TAG_NAME :
+                    if ( c=='>' ) endTag();
+                    else if ( Character.isWhitespace(c) || c=='/' ) state = IN_TAG;
+                    else tagName.append(Character.toLowerCase(c));
+                    break;
+                case IN_TAG :
+                    if ( c=='>' ) endTag();
+                    else if ( !Character.isWhitespace(c) && c!='/' ) startAttribute(c);
+                    break;
+                case ATTR_NAME :
+                    if ( c=='>' ) endTag();
+                    else if ( c=='=' ) state = BEFORE_VALUE;
+                    else if ( c=='/' ) state = IN_TAG;
+                    else if ( Character.isWhitespace(c) ) state = AFTER_ATTR_NAME;
+                    else attrName.append(Character.toLowerCase(c));
+                    break;
+                case AFTER_ATTR_NAME :
+                    if ( c=='>' ) endTag();
+                    else if ( c=='=' ) state = BEFORE_VALUE;
+                    else if ( !Character.isWhitespace(c) && c!='/' ) startAttribute(c);
+                    break;
+                case BEFORE_VALUE :
+                    if ( c=='>' ) endTag();
+                    else if ( c=='"' || c=='\'' ) startValue(c);
+                    else if ( !Character.isWhitespace(c) ) {
+                        startValue((char)0);
+                        i--; // c is part of the value
+                    }
+                    break;
+                case VALUE :
+                    if ( quote!=0 ? c==quote : Character.isWhitespace(c) ) state = IN_TAG;
+                    else if ( quote==0 && c=='>' ) endTag();
+                    else i = valueChar(s, i);
+                    break;
+                case SCRIPT :
+                    if ( isEndTag(s, i, "script") ) i = startTag(s, i);
+                    else i = jsChar(c, i+1<n ? s.charAt(i+1) : 0, i);
+                    break;
+                case STYLE :
+                    if ( isEndTag(s, i, "style") ) i = startTag(s, i);
+                    break;
+            }
+        }
+    }
+
+    /** An expression was written; one right after {@code =} is an unquoted
+     *  attribute value.
+     */
+    public void expression() {
+        if ( state==BEFORE_VALUE ) startValue((char)0);
+        if ( js==JS_CODE ) jsLast = '"'; // a string literal, so / after it divides
+    }
+
+    /** Where an expression here can't be escaped, like {@code "in a tag"};
+     *  {@code null} if it can.
+     */
+    public String getUnsupportedContext() {
+        switch ( state ) {
+            case TAG_NAME :
+            case IN_TAG :
+            case ATTR_NAME :
+            case AFTER_ATTR_NAME :
+                return "in a tag outside of an attribute value";
+            case STYLE :
+                return "in a style block";
+            case SCRIPT :
+                return js==JS_REGEX ? "in a JavaScript regular expression" : null;
+            case BEFORE_VALUE :
+            case VALUE :
+                int kind = state==VALUE ? attrKind : getAttributeKind();
+                if ( kind==UNSUPPORTED_ATTRIBUTE ) return "in a "+attrName+" attribute";
+                if ( kind==JS_ATTRIBUTE && js==JS_REGEX ) return "in a JavaScript regular expression";
+                return null;
+            default :
+                return null;
+        }
+    }
+
+    /** The {@link Escaper#get id} of the escaper for an expression here. */
+    public int getEscaperId() {
+        switch ( state ) {
+            case TEXT :
+            case COMMENT :
+                return Escaper.XML_ID;
+            case SCRIPT :
+                return js==JS_CODE ? Escaper.JS_VALUE_ID : Escaper.JS_STRING_ID;
+            case BEFORE_VALUE :
+                return getValueEscaperId(getAttributeKind(), false);
+            case VALUE :
+                return getValueEscaperId(attrKind, quote!=0);
+            default :
+                return Escaper.HTML_UNQUOTED_ATTRIBUTE_ID;
+        }
+    }
+
+    int getValueEscaperId(int kind, boolean quoted) {
+        switch ( kind ) {
+            case URL_ATTRIBUTE :
+                // BEFORE_VALUE hasn't reset the value's fields yet
+                if ( state==BEFORE_VALUE || schemeOpen ) {
+                    return quoted ? Escaper.URL_ATTRIBUTE_ID : Escaper.URL_UNQUOTED_ATTRIBUTE_ID;
+                }
+                if ( valueHasQuery ) return Escaper.URL_ID;
+                break;
+            case JS_ATTRIBUTE :
+                if ( state==BEFORE_VALUE || js==JS_CODE ) {
+                    return quoted ? Escaper.JS_VALUE_ATTRIBUTE_ID : Escaper.JS_VALUE_UNQUOTED_ATTRIBUTE_ID;
+                }
+                return quoted ? Escaper.JS_STRING_ID : Escaper.JS_STRING_UNQUOTED_ATTRIBUTE_ID;
+        }
+        return quoted ? Escaper.HTML_ATTRIBUTE_ID : Escaper.HTML_UNQUOTED_ATTRIBUTE_ID;
+    }
+
+    int getAttributeKind() {
+        String name = attrName.toString();
+        if ( name.equals("style") || name.equals("srcdoc") ) return UNSUPPORTED_ATTRIBUTE;
+        if ( name.length()>2 && name.startsWith("on") ) return JS_ATTRIBUTE;
+        if ( URL_ATTRIBUTES.contains(name) ) return URL_ATTRIBUTE;
+        return PLAIN_ATTRIBUTE;
+    }
+
+    /** Advance over the char at {@code i} of an attribute value; return the
+     *  index of the last char consumed.
+     */
+    int valueChar(String s, int i) {
+        char c = s.charAt(i);
+        if ( attrKind==URL_ATTRIBUTE ) {
+            if ( c=='?' ) valueHasQuery = true;
+            if ( c==':' || c=='/' || c=='?' || c=='#' ) schemeOpen = false;
+        }
+        else if ( attrKind==JS_ATTRIBUTE ) {
+            // the browser decodes references before running the code
+            int end = s.indexOf(';', i);
+            char decoded = c=='&' && end>0 ? decodeQuote(s.substring(i+1, end)) : 0;
+            if ( decoded!=0 ) {
+                jsChar(decoded, (char)0, i);
+                return end;
+            }
+            return jsChar(c, i+1<s.length() ? s.charAt(i+1) : 0, i);
+        }
+        return i;
+    }
+
+    /** The quote a character reference like {@code quot} stands for; 0 if
+     *  it isn't one.
+     */
+    static char decodeQuote(String ref) {
+        if ( ref.equals("quot") || ref.equals("#34") || ref.equalsIgnoreCase("#x22") ) return '"';
+        if ( ref.equals("apos") || ref.equals("#39") || ref.equalsIgnoreCase("#x27") ) return '\'';
+        return 0;
+    }
+
+    /** Advance over JavaScript char {@code c}, followed by {@code next} (0
+     *  if unknown), at index {@code i}; return the index of the last char
+     *  consumed.
+     */
+    int jsChar(char c, char next, int i) {
+        switch ( js ) {
+            case JS_CODE :
+                if ( c=='"' || c=='\'' || c=='`' ) {
+                    js = JS_STRING;
+                    jsQuote = c;
+                }
+                else if ( c=='/' && next=='/' ) {
+                    js = JS_LINE_COMMENT;
+                    return i+1;
+                }
+                else if ( c=='/' && next=='*' ) {
+                    js = JS_BLOCK_COMMENT;
+                    return i+1;
+                }
+                else if ( c=='/' && (jsLast==0 || REGEX_PRECEDERS.indexOf(jsLast)>=0) ) {
+                    js = JS_REGEX;
+                    jsInCharClass = false;
+                }
+                else if ( !Character.isWhitespace(c) ) jsLast = c;
+                break;
+            case JS_STRING :
+                if ( c=='\\' ) return i+1;
+                if ( c==jsQuote ) endJs();
+                break;
+            case JS_LINE_COMMENT :
+                if ( c=='\n' || c=='\r' ) js = JS_CODE;
+                break;
+            case JS_BLOCK_COMMENT :
+                if ( c=='*' && next=='/' ) {
+                    js = JS_CODE;
+                    return i+1;
+                }
+                break;
+            case JS_REGEX :
+                if ( c=='\\' ) return i+1;
+                if ( c=='[' ) jsInCharClass = true;
+                else if ( c==']' ) jsInCharClass = false;
+                else if ( c=='/' && !jsInCharClass ) endJs();
+                break;
+        }
+        return i;
+    }
+
+    /** A string or regular expression ended; a / after it divides. */
+    void endJs() {
+        js = JS_CODE;
+        jsLast = '"';
+    }
+
+    void startJs() {
+        js = JS_CODE;
+        jsLast = 0;
+    }
+
+    /** {@code s.charAt(i)} is the {@code <} of a tag; return the index of
+     *  the last char consumed.
+     */
+    int startTag(String s, int i) {
+        state = TAG_NAME;
+        tagName.setLength(0);
+        closingTag = i+1<s.length() && s.charAt(i+1)=='/';
+        return closingTag ? i+1 : i;
+    }
+
+    static boolean isEndTag(String s, int i, String name) {
+        return s.charAt(i)=='<' && i+1<s.length() && s.charAt(i+1)=='/' &&
+               s.regionMatches(true, i+2, name, 0, name.length());
+    }
+
+    void startAttribute(char c) {
+        state = ATTR_NAME;
+        attrName.setLength(0);
+        attrName.append(Character.toLowerCase(c));
+    }
+
+    void startValue(char quote) {
+        state = VALUE;
+        this.quote = quote;
+        attrKind = getAttributeKind();
+        valueHasQuery = false;
+        schemeOpen = true;
+        startJs();
+    }
+
+    void endTag() {
+        String name = closingTag ? "" : tagName.toString();
+        if ( name.equals("script") ) {
+            state = SCRIPT;
+            startJs();
+        }
+        else state = name.equals("style") ? STYLE : TEXT;
+    }
+}
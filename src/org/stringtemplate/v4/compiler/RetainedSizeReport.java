@@ -0,0 +1,206 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.compiler;
+
+import org.antlr.runtime.Token;
+import org.antlr.runtime.TokenStream;
+import org.antlr.runtime.tree.CommonTree;
+import org.stringtemplate.v4.misc.Interval;
+import org.stringtemplate.v4.misc.Misc;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/** Estimated heap retained by a group's compiled templates, split into the
+ *  parts {@link CompiledST#makeLean} trims or releases. Sizes assume a 64-bit
+ *  JVM with compressed references; they are meant for comparing groups and
+ *  modes, not as exact measurements. Objects shared between templates, like
+ *  the token stream and AST of a template and its subtemplates, are counted
+ *  once.
+ */
+public class RetainedSizeReport {
+    static final int ARRAY_HEADER = 16;
+    static final int INTERVAL = 24;
+    static final int TREE_NODE = 40;
+    static final int ARRAY_LIST = 24;
+    static final int TOKEN = 48;
+    static final int REFERENCE = 4;
+    static final int DECODED_CODE = 32;
+    static final int STRING = 24;
+
+    public final String groupName;
+
+    public int templates;
+    /** Bytes of the {@link CompiledST#instrs} arrays. */
+    public long codeBytes;
+    /** Part of {@link #codeBytes} past {@link CompiledST#codeSize}. */
+    public long unusedCodeBytes;
+    /** Bytes of the source maps as they are now, packed or not. */
+    public long sourceMapBytes;
+    /** Part of {@link #sourceMapBytes} in {@link CompiledST#sourceMap} form. */
+    public long unpackedSourceMapBytes;
+    /** Bytes those unpacked source maps would take once packed. */
+    public long packableSourceMapBytes;
+    public long astBytes;
+    public long tokenBytes;
+    /** Bytes of the {@link DecodedCode} the interpreter runs, which
+     *  {@link CompiledST#makeLean} keeps; only for templates run so far.
+     */
+    public long decodedCodeBytes;
+    /** Bytes of linked code that doesn't share the decoded arrays, with the
+     *  text of static templates.
+     */
+    public long linkedCodeBytes;
+
+    protected final Set<Object> seen =
+        Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+    public RetainedSizeReport(String groupName) { this.groupName = groupName; }
+
+    public void add(CompiledST code) {
+        if ( code==null || !seen.add(code) ) return;
+        templates++;
+        if ( code.instrs!=null ) {
+            codeBytes += array(code.instrs.length, 1);
+            unusedCodeBytes += array(code.instrs.length, 1) - array(code.codeSize, 1);
+        }
+        if ( code.sourceMap!=null ) {
+            int n = 0;
+            for (Interval I : code.sourceMap) if ( I!=null ) n++;
+            long bytes = array(code.sourceMap.length, REFERENCE) + n * INTERVAL;
+            sourceMapBytes += bytes;
+            unpackedSourceMapBytes += bytes;
+            packableSourceMapBytes += array(n*3, 4);
+        }
+        else if ( code.packedSourceMap!=null ) {
+            sourceMapBytes += array(code.packedSourceMap.length, 4);
+        }
+        DecodedCode d = code.decodedCode;
+        if ( d!=null && seen.add(d) ) {
+            decodedCodeBytes += decoded(d);
+            DecodedCode linked = d.linked;
+            if ( linked!=null && seen.add(linked) ) {
+                linkedCodeBytes += linked.code!=d.code ? decoded(linked) : DECODED_CODE;
+                linkedCodeBytes += staticText(linked);
+            }
+        }
+        if ( code.ast!=null ) astBytes += tree(code.ast);
+        if ( code.tokens!=null && seen.add(code.tokens) ) {
+            tokenBytes += tokens(code.tokens);
+        }
+        if ( code.implicitlyDefinedTemplates!=null ) {
+            for (CompiledST sub : code.implicitlyDefinedTemplates) add(sub);
+        }
+        if ( code.formalArguments!=null ) {
+            for (FormalArgument a : code.formalArguments.values()) {
+                add(a.compiledDefaultValue);
+            }
+        }
+    }
+
+    /** Total estimated bytes of code, decoded and linked code, source
+     *  maps, ASTs and tokens.
+     */
+    public long getTotalBytes() {
+        return codeBytes + decodedCodeBytes + linkedCodeBytes + sourceMapBytes + astBytes + tokenBytes;
+    }
+
+    /** Bytes {@link CompiledST#makeLean} would release from the templates
+     *  that aren't lean yet; 0 for a group compiled in lean mode.
+     */
+    public long getLeanSavings() {
+        return unusedCodeBytes + unpackedSourceMapBytes - packableSourceMapBytes +
+               astBytes + tokenBytes;
+    }
+
+    protected static long decoded(DecodedCode d) {
+        return DECODED_CODE + array(d.code.length, 4) + array(d.refs.length, REFERENCE);
+    }
+
+    protected long staticText(DecodedCode d) {
+        long size = 0;
+        for (Object ref : d.refs) {
+            if ( !(ref instanceof DecodedCode.StaticText) || !seen.add(ref) ) continue;
+            for (DecodedCode.Rendering r : ((DecodedCode.StaticText)ref).renderings) {
+                if ( r==null || !seen.add(r) ) continue;
+                size += string(r.text) + array(r.lines.length, REFERENCE);
+                for (String line : r.lines) size += string(line);
+            }
+        }
+        return size;
+    }
+
+    protected static long string(String s) {
+        return STRING + array(s.length(), 2);
+    }
+
+    protected long tree(CommonTree t) {
+        if ( !seen.add(t) ) return 0;
+        long size = TREE_NODE;
+        Token token = t.getToken();
+        if ( token!=null && token.getTokenIndex()<0 ) size += TOKEN; // imaginary
+        if ( t.getChildCount()>0 ) {
+            size += ARRAY_LIST + array(t.getChildCount(), REFERENCE);
+            for (int i = 0; i < t.getChildCount(); i++) {
+                size += tree((CommonTree)t.getChild(i));
+            }
+        }
+        return size;
+    }
+
+    protected static long tokens(TokenStream tokens) {
+        int n = tokens.size();
+        return ARRAY_LIST + array(n, REFERENCE) + (long)n * TOKEN;
+    }
+
+    protected static long array(int length, int elementSize) {
+        long size = ARRAY_HEADER + (long)length * elementSize;
+        return (size + 7) & ~7L;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        buf.append(groupName).append(": ").append(templates).append(" templates").append(Misc.newline);
+        line(buf, "code", codeBytes);
+        line(buf, "  unused", unusedCodeBytes);
+        line(buf, "decoded code", decodedCodeBytes);
+        line(buf, "linked code", linkedCodeBytes);
+        line(buf, "source maps", sourceMapBytes);
+        line(buf, "ASTs", astBytes);
+        line(buf, "tokens", tokenBytes);
+        line(buf, "total", getTotalBytes());
+        line(buf, "lean savings", getLeanSavings());
+        return buf.toString();
+    }
+
+    protected static void line(StringBuilder buf, String label, long bytes) {
+        buf.append(String.format("  %-14s%,12d bytes", label, bytes)).append(Misc.newline);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.compiler;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/** Canonical instances of the strings compiled templates hold on to: string
+ *  tables, constant options, template source and names. Groups that share a
+ *  pool share one {@link String} per distinct constant, so loading many
+ *  near-identical template sets costs little more than loading one.
+ *  <p>
+ *  The pool holds its strings weakly; it never keeps a string alive that no
+ *  template uses anymore. Groups don't pool unless given a pool with
+ *  {@link org.stringtemplate.v4.STGroup#setStringPool}. Groups compiling at
+ *  the same time wait for each other on a shared pool, but only once per
+ *  template.</p>
+ */
+public class StringPool {
+    /** A JVM-wide pool for groups that opt in. */
+    public static final StringPool SHARED = new StringPool();
+
+    protected final Map<String, WeakReference<String>> pool =
+        new WeakHashMap<String, WeakReference<String>>();
+
+    /** Return the pooled string equal to {@code s}, adding {@code s} if there
+     *  is none.
+     */
+    public synchronized String intern(String s) {
+        if ( s==null ) return null;
+        WeakReference<String> ref = pool.get(s);
+        String pooled = ref!=null ? ref.get() : null;
+        if ( pooled==null ) {
+            pool.put(s, new WeakReference<String>(s));
+            pooled = s;
+        }
+        return pooled;
+    }
+
+    /** Replace the strings of {@code code}, its regions and subtemplates with
+     *  their pooled instances.
+     */
+    public synchronized void intern(CompiledST code) {
+        code.template = intern(code.template);
+        code.name = intern(code.name);
+        if ( code.strings!=null ) {
+            for (int i = 0; i < code.strings.length; i++) {
+                code.strings[i] = intern(code.strings[i]);
+            }
+        }
+        if ( code.constantOptions!=null ) {
+            for (String[] options : code.constantOptions) {
+                if ( options==null ) continue;
+                for (int i = 0; i < options.length; i++) options[i] = intern(options[i]);
+            }
+        }
+        if ( code.formalArguments!=null ) {
+            Map<String, FormalArgument> args = new LinkedHashMap<String, FormalArgument>();
+            for (FormalArgument a : code.formalArguments.values()) {
+                a.name = intern(a.name);
+                args.put(a.name, a);
+            }
+            code.formalArguments = Collections.synchronizedMap(args);
+        }
+        code.invalidateDecodedCode();
+        if ( code.implicitlyDefinedTemplates!=null ) {
+            for (CompiledST sub : code.implicitlyDefinedTemplates) intern(sub);
+        }
+    }
+
+    public synchronized int size() { return pool.size(); }
+}
@@ -27,13 +27,16 @@
  */
 package org.stringtemplate.v4.compiler;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 
 /** A unique set of strings where we can get a string's index.
  *  We can also get them back out in original order. 
  */
 public class StringTable {
     protected LinkedHashMap<String,Integer> table = new LinkedHashMap<String,Integer>();
+    protected List<String> strings = new ArrayList<String>();
     protected int i = -1;
 
     public int add(String s) {
@@ -41,9 +44,12 @@ public class StringTable {
         if ( I!=null ) return I;
         i++;
         table.put(s, i);
+        strings.add(s);
         return i;
     }
 
+    public String get(int index) { return strings.get(index); }
+
     public String[] toArray() {
         String[] a = new String[table.size()];
         int i = 0;
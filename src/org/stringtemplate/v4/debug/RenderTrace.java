@@ -0,0 +1,235 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.debug;
+
+import org.stringtemplate.v4.InstanceScope;
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.compiler.CompiledST;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** A compact record of one sampled render: which templates ran, which
+ *  expressions they evaluated, what output each produced and how long it
+ *  took. Events are kept in parallel primitive arrays in the order the
+ *  interpreter finishes them, the same order
+ *  {@link org.stringtemplate.v4.Interpreter#getEvents}
+ *  uses in debug mode: a template's expressions and nested templates come
+ *  before the template itself.
+ *  <p>
+ *  Only the {@link CompiledST} of each template is retained, never its
+ *  attributes, so a trace is safe to keep around after the render.
+ *  {@link #toEvents} rebuilds the debug events {@link org.stringtemplate.v4.gui.STViz}
+ *  shows from it.</p>
+ *
+ *  @see RenderTracer
+ */
+public class RenderTrace {
+    public static final int TEMPLATE = 0;
+    public static final int EXPR = 1;
+
+    // int fields per event
+    static final int KIND = 0;
+    static final int DEPTH = 1;
+    static final int OUT_START = 2;
+    static final int OUT_STOP = 3;
+    static final int EXPR_START = 4;
+    static final int EXPR_STOP = 5;
+    static final int INTS_PER_EVENT = 6;
+
+    /** The template that was rendered. */
+    public final String name;
+    /** When the render started, in {@link System#currentTimeMillis} terms. */
+    public final long startTime;
+    /** Position in {@link RenderTracer}'s buffer; set as it is recorded. */
+    long sequence = -1;
+
+    protected final int maxEvents;
+    protected int numEvents;
+    /** Events {@link #maxEvents} had no room for. */
+    protected int droppedEvents;
+
+    protected int[] ints;
+    /** Start and stop {@link System#nanoTime} of each event. */
+    protected long[] times;
+    protected CompiledST[] templates;
+
+    public RenderTrace(String name, int maxEvents) {
+        this.name = name;
+        this.startTime = System.currentTimeMillis();
+        this.maxEvents = maxEvents;
+        int initial = Math.max(1, Math.min(maxEvents, 32));
+        ints = new int[initial*INTS_PER_EVENT];
+        times = new long[initial*2];
+        templates = new CompiledST[initial];
+    }
+
+    /** Record that the template in {@code scope} at nesting {@code depth}
+     *  (1 for the root) wrote {@code outStart..outStop}, inclusive.
+     */
+    public void template(InstanceScope scope, int depth, int outStart, int outStop,
+                         long startNanos, long stopNanos)
+    {
+        add(TEMPLATE, scope.st.impl, depth, outStart, outStop, -1, -1, startNanos, stopNanos);
+    }
+
+    /** Record that the expression {@code exprStart..exprStop} of the
+     *  template in {@code scope} wrote {@code outStart..outStop}.
+     */
+    public void expr(InstanceScope scope, int depth, int outStart, int outStop,
+                     int exprStart, int exprStop, long startNanos, long stopNanos)
+    {
+        add(EXPR, scope.st.impl, depth, outStart, outStop, exprStart, exprStop, startNanos, stopNanos);
+    }
+
+    protected void add(int kind, CompiledST impl, int depth, int outStart, int outStop,
+                       int exprStart, int exprStop, long startNanos, long stopNanos)
+    {
+        if ( numEvents==maxEvents ) {
+            droppedEvents++;
+            return;
+        }
+        if ( numEvents==templates.length ) {
+            int n = Math.min(maxEvents, numEvents*2);
+            ints = Arrays.copyOf(ints, n*INTS_PER_EVENT);
+            times = Arrays.copyOf(times, n*2);
+            templates = Arrays.copyOf(templates, n);
+        }
+        int i = numEvents*INTS_PER_EVENT;
+        ints[i+KIND] = kind;
+        ints[i+DEPTH] = depth;
+        ints[i+OUT_START] = outStart;
+        ints[i+OUT_STOP] = outStop;
+        ints[i+EXPR_START] = exprStart;
+        ints[i+EXPR_STOP] = exprStop;
+        times[numEvents*2] = startNanos;
+        times[numEvents*2+1] = stopNanos;
+        templates[numEvents] = impl;
+        numEvents++;
+    }
+
+    public int size() { return numEvents; }
+
+    public int getDroppedEvents() { return droppedEvents; }
+
+    public int getKind(int i) { return ints[i*INTS_PER_EVENT+KIND]; }
+
+    public int getDepth(int i) { return ints[i*INTS_PER_EVENT+DEPTH]; }
+
+    public int getOutputStartChar(int i) { return ints[i*INTS_PER_EVENT+OUT_START]; }
+
+    public int getOutputStopChar(int i) { return ints[i*INTS_PER_EVENT+OUT_STOP]; }
+
+    public int getExprStartChar(int i) { return ints[i*INTS_PER_EVENT+EXPR_START]; }
+
+    public int getExprStopChar(int i) { return ints[i*INTS_PER_EVENT+EXPR_STOP]; }
+
+    public long getNanos(int i) { return times[i*2+1] - times[i*2]; }
+
+    public CompiledST getTemplate(int i) { return templates[i]; }
+
+    /** How long the whole render took; 0 if nothing was recorded. */
+    public long getTotalNanos() {
+        return numEvents>0 ? getNanos(numEvents-1) : 0;
+    }
+
+    /** Rebuild the events debug mode would have tracked for this render,
+     *  with one fresh, attribute-less {@link ST} per template from
+     *  {@code group}. The last one is the {@link EvalTemplateEvent} of the
+     *  root, and each template's {@link InstanceScope#events} and
+     *  {@link InstanceScope#childEvalTemplateEvents} are filled in, which is
+     *  what {@link org.stringtemplate.v4.gui.STViz} walks.
+     */
+    public List<InterpEvent> toEvents(STGroup group) {
+        InterpEvent[] events = new InterpEvent[numEvents];
+        InstanceScope[] scopes = new InstanceScope[8];
+        // walk backwards so every template is seen before what it contains
+        for (int i = numEvents-1; i>=0; i--) {
+            int depth = getDepth(i);
+            if ( depth>=scopes.length ) scopes = Arrays.copyOf(scopes, depth*2);
+            if ( getKind(i)==TEMPLATE ) {
+                InstanceScope parent = depth>1 ? scopes[depth-1] : null;
+                ST st = group.createStringTemplateInternally(templates[i]);
+                scopes[depth] = new InstanceScope(parent, st);
+                events[i] = new EvalTemplateEvent(scopes[depth],
+                                                  getOutputStartChar(i), getOutputStopChar(i));
+            }
+            else {
+                events[i] = new EvalExprEvent(scopes[depth],
+                                              getOutputStartChar(i), getOutputStopChar(i),
+                                              getExprStartChar(i), getExprStopChar(i));
+            }
+        }
+        List<InterpEvent> result = new ArrayList<InterpEvent>(numEvents);
+        for (InterpEvent e : events) {
+            if ( e.scope==null ) continue; // its template ran past maxEvents
+            result.add(e);
+            e.scope.events.add(e);
+            if ( e instanceof EvalTemplateEvent && e.scope.parent!=null ) {
+                e.scope.parent.childEvalTemplateEvents.add((EvalTemplateEvent)e);
+            }
+        }
+        return result;
+    }
+
+    /** One line per event, indented by nesting depth, in the order they
+     *  finished.
+     */
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        buf.append("render ").append(name).append(' ').append(formatNanos(getTotalNanos()));
+        if ( droppedEvents>0 ) buf.append(" (").append(droppedEvents).append(" events dropped)");
+        buf.append('\n');
+        for (int i = 0; i<numEvents; i++) {
+            int depth = getDepth(i);
+            for (int d = 0; d<depth; d++) buf.append("  ");
+            CompiledST impl = templates[i];
+            if ( getKind(i)==TEMPLATE ) {
+                buf.append(impl.name);
+            }
+            else {
+                int start = getExprStartChar(i);
+                int stop = getExprStopChar(i);
+                String expr = start>=0 && stop>=0 && impl.template!=null ?
+                    impl.template.substring(start, stop+1) : "";
+                buf.append('\'').append(expr.replace("\n", "\\n")).append('\'');
+            }
+            buf.append(" [").append(getOutputStartChar(i)).append("..")
+               .append(getOutputStopChar(i)).append("] ")
+               .append(formatNanos(getNanos(i))).append('\n');
+        }
+        return buf.toString();
+    }
+
+    static String formatNanos(long nanos) {
+        return (nanos/1000)+"us";
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.debug;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/** Samples one in every {@link #getSampleEvery} renders of a group into a
+ *  {@link RenderTrace} and keeps the most recent {@link #getCapacity}
+ *  traces in a ring buffer. Recording and reading take no locks: writers
+ *  claim a slot with one atomic increment, overwriting the oldest trace.
+ *  <p>
+ *  Install one with {@link org.stringtemplate.v4.STGroup#setTracer}; renders
+ *  that aren't sampled pay only for a counter increment.</p>
+ */
+public class RenderTracer {
+    public static final int DEFAULT_MAX_EVENTS = 4096;
+
+    protected final int sampleEvery;
+    protected final int maxEventsPerTrace;
+    protected final AtomicReferenceArray<RenderTrace> traces;
+    /** Renders seen, sampled or not. */
+    protected final AtomicLong renders = new AtomicLong();
+    /** Traces recorded; the next one goes in slot {@code next % capacity}. */
+    protected final AtomicLong next = new AtomicLong();
+
+    public RenderTracer(int sampleEvery, int capacity) {
+        this(sampleEvery, capacity, DEFAULT_MAX_EVENTS);
+    }
+
+    /** Trace one render in {@code sampleEvery} (every render if 1), keeping
+     *  the last {@code capacity} traces of at most {@code maxEventsPerTrace}
+     *  events each.
+     */
+    public RenderTracer(int sampleEvery, int capacity, int maxEventsPerTrace) {
+        if ( sampleEvery<1 || capacity<1 || maxEventsPerTrace<1 ) {
+            throw new IllegalArgumentException("sampleEvery, capacity and maxEventsPerTrace must be positive");
+        }
+        this.sampleEvery = sampleEvery;
+        this.maxEventsPerTrace = maxEventsPerTrace;
+        this.traces = new AtomicReferenceArray<RenderTrace>(capacity);
+    }
+
+    public int getSampleEvery() { return sampleEvery; }
+
+    public int getCapacity() { return traces.length(); }
+
+    /** Called as a render of {@code name} starts; returns the trace to fill
+     *  in if this render is sampled, else {@code null}.
+     */
+    public RenderTrace startRender(String name) {
+        if ( renders.getAndIncrement() % sampleEvery != 0 ) return null;
+        return new RenderTrace(name, maxEventsPerTrace);
+    }
+
+    /** Publish a finished trace, evicting the oldest if the buffer is full. */
+    public void record(RenderTrace trace) {
+        long seq = next.getAndIncrement();
+        trace.sequence = seq;
+        traces.set((int)(seq % traces.length()), trace);
+    }
+
+    public long getRenderCount() { return renders.get(); }
+
+    /** How many traces were recorded, including evicted ones. */
+    public long getTraceCount() { return next.get(); }
+
+    /** The buffered traces, oldest first. A trace being overwritten while
+     *  this runs is left out.
+     */
+    public List<RenderTrace> getTraces() {
+        long last = next.get();
+        long first = Math.max(0, last - traces.length());
+        List<RenderTrace> result = new ArrayList<RenderTrace>((int)(last - first));
+        for (long seq = first; seq<last; seq++) {
+            RenderTrace t = traces.get((int)(seq % traces.length()));
+            if ( t!=null && t.sequence==seq ) result.add(t);
+        }
+        return result;
+    }
+
+    public void clear() {
+        for (int i = 0; i<traces.length(); i++) traces.set(i, null);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        for (RenderTrace t : getTraces()) buf.append(t);
+        return buf.toString();
+    }
+}
@@ -57,6 +57,7 @@ import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultHighlighter;
 import javax.swing.text.Highlighter;
 import javax.swing.text.JTextComponent;
+import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreePath;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
@@ -134,8 +135,7 @@ public class STViz {
             }
         );
 
-        JTreeASTModel astModel = new JTreeASTModel(new CommonTreeAdaptor(), currentScope.st.impl.ast);
-        viewFrame.ast.setModel(astModel);
+        updateAST(viewFrame);
         viewFrame.ast.addTreeSelectionListener(
             new TreeSelectionListener() {
                 @Override
@@ -147,7 +147,7 @@ public class STViz {
                         }
 
                         TreePath path = treeSelectionEvent.getNewLeadSelectionPath();
-                        if ( path==null ) return;
+                        if ( path==null || currentScope.st.impl.tokens==null ) return;
                         CommonTree node = (CommonTree)treeSelectionEvent.getNewLeadSelectionPath().getLastPathComponent();
                         //System.out.println("select AST: "+node);
                         CommonToken a = (CommonToken)currentScope.st.impl.tokens.get(node.getTokenStartIndex());
@@ -245,7 +245,7 @@ public class STViz {
                         STMessage msg = (STMessage)model.getElementAt(i);
                         if ( msg instanceof STRuntimeMessage ) {
                             STRuntimeMessage rmsg = (STRuntimeMessage)msg;
-                            Interval I = rmsg.self.impl.sourceMap[rmsg.ip];
+                            Interval I = rmsg.self.impl.getSourceInterval(rmsg.ip);
                             currentEvent = null;
                             currentScope = ((STRuntimeMessage) msg).scope;
                             updateCurrentST(viewFrame);
@@ -320,6 +320,13 @@ public class STViz {
         t.join();
     }
 
+    /** Templates of {@link STGroup#setLean lean} groups have no AST to show. */
+    private void updateAST(STViewFrame m) {
+        CommonTree ast = currentScope.st.impl.ast;
+        if ( ast!=null ) m.ast.setModel(new JTreeASTModel(new CommonTreeAdaptor(), ast));
+        else m.ast.setModel(new DefaultTreeModel(null));
+    }
+
     private void updateCurrentST(STViewFrame m) {
 //      System.out.println("updateCurrentST(): currentScope.st="+currentScope.st);
         // update all views according to currentScope.st
@@ -327,8 +334,7 @@ public class STViz {
         updateAttributes(currentScope, m);                 // ATTRIBUTES
         setText(m.bytecode, currentScope.st.impl.disasm()); // BYTECODE DIS.
         setText(m.template, currentScope.st.impl.template); // TEMPLATE SRC
-        JTreeASTModel astModel = new JTreeASTModel(new CommonTreeAdaptor(), currentScope.st.impl.ast);
-        viewFrame.ast.setModel(astModel);
+        updateAST(m);
 
         // highlight output text and, if {...} subtemplate, region in ST src
         // get last event for currentScope.st; it's the event that captures ST eval
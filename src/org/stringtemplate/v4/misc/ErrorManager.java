@@ -35,6 +35,9 @@ import org.stringtemplate.v4.Interpreter;
 import org.stringtemplate.v4.ST;
 import org.stringtemplate.v4.STErrorListener;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
 public class ErrorManager {
     public static STErrorListener DEFAULT_ERROR_LISTENER =
         new STErrorListener() {
@@ -119,25 +122,51 @@ public class ErrorManager {
     }
 
     public void runTimeError(Interpreter interp, InstanceScope scope, ErrorType error) {
+        if ( !accept(scope, error) ) return;
         listener.runTimeError(new STRuntimeMessage(interp, error, scope != null ? scope.ip : 0, scope));
     }
 
     public void runTimeError(Interpreter interp, InstanceScope scope, ErrorType error, Object arg) {
+        if ( !accept(scope, error) ) return;
         listener.runTimeError(new STRuntimeMessage(interp, error, scope != null ? scope.ip : 0, scope,arg));
     }
 
     public void runTimeError(Interpreter interp, InstanceScope scope, ErrorType error, Throwable e, Object arg) {
+        if ( !accept(scope, error) ) return;
         listener.runTimeError(new STRuntimeMessage(interp, error, scope != null ? scope.ip : 0, scope,e,arg));
     }
 
     public void runTimeError(Interpreter interp, InstanceScope scope, ErrorType error, Object arg, Object arg2) {
+        if ( !accept(scope, error) ) return;
         listener.runTimeError(new STRuntimeMessage(interp, error, scope != null ? scope.ip : 0, scope,null,arg,arg2));
     }
 
     public void runTimeError(Interpreter interp, InstanceScope scope, ErrorType error, Object arg, Object arg2, Object arg3) {
+        if ( !accept(scope, error) ) return;
         listener.runTimeError(new STRuntimeMessage(interp, error, scope != null ? scope.ip : 0, scope,null,arg,arg2,arg3));
     }
 
+    /** An exception escaped the interpreter; report it as
+     *  {@link ErrorType#INTERNAL_ERROR} with its stack trace.
+     */
+    public void runTimeError(Interpreter interp, InstanceScope scope, Throwable e) {
+        if ( !accept(scope, ErrorType.INTERNAL_ERROR) ) return;
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        e.printStackTrace(pw);
+        pw.flush();
+        listener.runTimeError(new STRuntimeMessage(interp, ErrorType.INTERNAL_ERROR, scope != null ? scope.ip : 0, scope,
+                                                   "internal error: "+sw.toString()));
+    }
+
+    /** Should this runtime error go to the listener? Called before the
+     *  message is built, so a rejected error costs next to nothing. This
+     *  manager accepts all of them; see {@link ThrottledErrorManager}.
+     */
+    protected boolean accept(InstanceScope scope, ErrorType error) {
+        return true;
+    }
+
     public void IOError(ST self, ErrorType error, Throwable e) {
         listener.IOError(new STMessage(error, self, e));
     }
@@ -42,6 +42,7 @@ public enum ErrorType {
     EXPECTING_STRING("function %s expects a string not %s"),
     WRITER_CTOR_ISSUE("%s(Writer) constructor doesn't exist"),
     CANT_IMPORT("can't find template(s) in import \"%s\""),
+    RENDER_ABORTED("render aborted: %s"),
 
     // COMPILE-TIME SYNTAX/SEMANTIC ERRORS
     SYNTAX_ERROR("%s"),
@@ -61,6 +62,7 @@ public enum ErrorType {
     ANON_ARGUMENT_MISMATCH("anonymous template has %s arg(s) but mapped across %s value(s)"),
     REQUIRED_PARAMETER_AFTER_OPTIONAL("required parameters (%s) must appear before optional parameters"),
     UNSUPPORTED_DELIMITER("unsupported delimiter character: %s"),
+    UNSUPPORTED_ESCAPE_CONTEXT("can't auto-escape an expression %s"),
 
     // INTERNAL ERRORS
     INTERNAL_ERROR("%s"),
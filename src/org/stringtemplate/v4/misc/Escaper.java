@@ -0,0 +1,432 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.misc;
+
+import org.stringtemplate.v4.EscapingSTWriter;
+import org.stringtemplate.v4.STWriter;
+
+import java.io.IOException;
+
+/** Replaces characters that can't appear as is in some output context.
+ *  Chars below {@code table.length} are looked up in {@link #table}; all
+ *  chars at or above it are escaped by {@link #escapeAboveTable}.
+ *  <p>
+ *  Callers scan with {@link #nextEscape} and copy the runs in between
+ *  unchanged, so text that needs no escaping is never copied.</p>
+ */
+public abstract class Escaper {
+    // initialized before the escapers below, which use it
+    static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /** Same as {@link org.stringtemplate.v4.StringRenderer#escapeHTML}. */
+    public static final Escaper XML = new XmlEscaper();
+
+    /** Same as {@link java.net.URLEncoder#encode(String, String)} with UTF-8. */
+    public static final Escaper URL = new UrlEscaper();
+
+    /** {@link #XML} plus both quote characters, for attribute values. */
+    public static final Escaper HTML_ATTRIBUTE = new HtmlAttributeEscaper();
+
+    /** For the inside of a JavaScript string literal; the result contains
+     *  no quotes, {@code <}, {@code >} or {@code &} so it is also safe in
+     *  an HTML attribute or {@code <script>} block.
+     */
+    public static final Escaper JS_STRING = new JsStringEscaper();
+
+    /** {@link #HTML_ATTRIBUTE} plus whitespace, {@code =} and backtick, for
+     *  attribute values without quotes.
+     */
+    public static final Escaper HTML_UNQUOTED_ATTRIBUTE = new HtmlUnquotedAttributeEscaper();
+
+    /** A JavaScript string literal in double quotes, for JavaScript code
+     *  outside of string literals.
+     */
+    public static final Escaper JS_VALUE = new JsValueEscaper();
+
+    /** URL attribute values that may still get their scheme from the value:
+     *  a value with a scheme other than {@code http}, {@code https} or
+     *  {@code mailto} is replaced by {@code about:invalid#unsafe-url}.
+     */
+    public static final Escaper URL_ATTRIBUTE = new NestedEscaper(UrlFilter.INSTANCE, HTML_ATTRIBUTE);
+    public static final Escaper URL_UNQUOTED_ATTRIBUTE = new NestedEscaper(UrlFilter.INSTANCE, HTML_UNQUOTED_ATTRIBUTE);
+
+    /** {@link #JS_VALUE} inside {@code on*} attribute values; its quotes
+     *  become character references.
+     */
+    public static final Escaper JS_VALUE_ATTRIBUTE = new NestedEscaper(JS_VALUE, HTML_ATTRIBUTE);
+    public static final Escaper JS_VALUE_UNQUOTED_ATTRIBUTE = new NestedEscaper(JS_VALUE, HTML_UNQUOTED_ATTRIBUTE);
+    public static final Escaper JS_STRING_UNQUOTED_ATTRIBUTE = new NestedEscaper(JS_STRING, HTML_UNQUOTED_ATTRIBUTE);
+
+    /** Escapers by {@link #id}, the operand of {@link org.stringtemplate.v4.compiler.Bytecode#INSTR_WRITE_ESC}
+     *  and {@link org.stringtemplate.v4.compiler.Bytecode#INSTR_ESCAPE}.
+     */
+    private static final Escaper[] escapers = {
+        XML, URL, HTML_ATTRIBUTE, JS_STRING, HTML_UNQUOTED_ATTRIBUTE, JS_VALUE,
+        URL_ATTRIBUTE, URL_UNQUOTED_ATTRIBUTE,
+        JS_VALUE_ATTRIBUTE, JS_VALUE_UNQUOTED_ATTRIBUTE, JS_STRING_UNQUOTED_ATTRIBUTE
+    };
+
+    public static final int XML_ID = 0;
+    public static final int URL_ID = 1;
+    public static final int HTML_ATTRIBUTE_ID = 2;
+    public static final int JS_STRING_ID = 3;
+    public static final int HTML_UNQUOTED_ATTRIBUTE_ID = 4;
+    public static final int JS_VALUE_ID = 5;
+    public static final int URL_ATTRIBUTE_ID = 6;
+    public static final int URL_UNQUOTED_ATTRIBUTE_ID = 7;
+    public static final int JS_VALUE_ATTRIBUTE_ID = 8;
+    public static final int JS_VALUE_UNQUOTED_ATTRIBUTE_ID = 9;
+    public static final int JS_STRING_UNQUOTED_ATTRIBUTE_ID = 10;
+
+    /** Replacement for each char below {@code table.length}; {@code null}
+     *  leaves the char alone.
+     */
+    protected final String[] table;
+
+    protected Escaper(String[] table) { this.table = table; }
+
+    public static Escaper get(int id) { return escapers[id]; }
+
+    /** Return the {@link org.stringtemplate.v4.StringRenderer} format name's
+     *  escaper, or {@code null} if {@code format} isn't an escaping format.
+     */
+    public static Escaper forFormat(String format) {
+        if ( "xml-encode".equals(format) ) return XML;
+        if ( "url-encode".equals(format) ) return URL;
+        return null;
+    }
+
+    /** Is what the {@code format} escaping format makes of a value already
+     *  safe where the escaper {@code escaperId} would go? {@code xml-encode}
+     *  leaves quotes alone, so it's only enough for HTML text;
+     *  {@code url-encode} leaves only letters, digits and {@code .-*_+%},
+     *  which are safe anywhere but JavaScript code.
+     */
+    public static boolean formatSuffices(String format, int escaperId) {
+        if ( "xml-encode".equals(format) ) return escaperId==XML_ID;
+        if ( "url-encode".equals(format) ) {
+            return escaperId!=JS_VALUE_ID && escaperId!=JS_VALUE_ATTRIBUTE_ID &&
+                   escaperId!=JS_VALUE_UNQUOTED_ATTRIBUTE_ID;
+        }
+        return false;
+    }
+
+    /** Index of the first char at or after {@code from} that must be
+     *  replaced, or {@code s.length()} if none.
+     */
+    public int nextEscape(String s, int from) {
+        String[] t = table;
+        int n = s.length();
+        for (int i = from; i < n; i++) {
+            char c = s.charAt(i);
+            if ( c>=t.length || t[c]!=null ) return i;
+        }
+        return n;
+    }
+
+    /** The replacement for the char at {@code i}, which
+     *  {@link #nextEscape} found.
+     */
+    public String replacement(String s, int i) {
+        char c = s.charAt(i);
+        if ( c<table.length ) return table[c];
+        return escapeAboveTable(s, i);
+    }
+
+    /** How many chars starting at {@code i} {@link #replacement} replaced. */
+    public int replacedLength(String s, int i) { return 1; }
+
+    protected abstract String escapeAboveTable(String s, int i);
+
+    /** Return {@code s} escaped; {@code s} itself if nothing needs escaping. */
+    public String escape(String s) {
+        int n = s.length();
+        int i = nextEscape(s, 0);
+        if ( i==n ) return s;
+        StringBuilder buf = new StringBuilder(n + 16);
+        int start = 0;
+        while ( i<n ) {
+            buf.append(s, start, i);
+            buf.append(replacement(s, i));
+            start = i + replacedLength(s, i);
+            i = nextEscape(s, start);
+        }
+        buf.append(s, start, n);
+        return buf.toString();
+    }
+
+    /** Write {@code s} escaped to {@code out} and return the number of chars
+     *  written. An {@link EscapingSTWriter} escapes as it writes; anything
+     *  else gets the unescaped runs and replacements one at a time.
+     */
+    public int write(STWriter out, String s) throws IOException {
+        if ( out instanceof EscapingSTWriter ) {
+            return ((EscapingSTWriter)out).writeEscaped(s, this);
+        }
+        return writeRuns(out, s);
+    }
+
+    /** Write {@code s} through {@link STWriter#write(String)} as runs of
+     *  unescaped text and replacements.
+     */
+    public int writeRuns(STWriter out, String s) throws IOException {
+        int n = s.length();
+        int i = nextEscape(s, 0);
+        if ( i==n ) return out.write(s);
+        int written = 0;
+        int start = 0;
+        while ( i<n ) {
+            if ( i>start ) written += out.write(s.substring(start, i));
+            written += out.write(replacement(s, i));
+            start = i + replacedLength(s, i);
+            i = nextEscape(s, start);
+        }
+        if ( start<n ) written += out.write(s.substring(start));
+        return written;
+    }
+
+    static final class XmlEscaper extends Escaper {
+        XmlEscaper() {
+            super(new String[256]);
+            for (int c = 0; c < table.length; c++) {
+                if ( (c<' ' && c!='\r' && c!='\n' && c!='\t') || c>126 ) {
+                    table[c] = "&#"+c+";";
+                }
+            }
+            table['&'] = "&amp;";
+            table['<'] = "&lt;";
+            table['>'] = "&gt;";
+        }
+
+        @Override
+        protected String escapeAboveTable(String s, int i) {
+            return "&#"+(int)s.charAt(i)+";";
+        }
+    }
+
+    static final class UrlEscaper extends Escaper {
+        UrlEscaper() {
+            super(new String[128]);
+            for (int c = 0; c < table.length; c++) {
+                boolean safe = (c>='a' && c<='z') || (c>='A' && c<='Z') ||
+                               (c>='0' && c<='9') ||
+                               c=='.' || c=='-' || c=='*' || c=='_';
+                if ( !safe ) table[c] = percent(new StringBuilder(3), c).toString();
+            }
+            table[' '] = "+";
+        }
+
+        static StringBuilder percent(StringBuilder buf, int b) {
+            return buf.append('%').append(HEX[(b>>4)&0xF]).append(HEX[b&0xF]);
+        }
+
+        @Override
+        public int replacedLength(String s, int i) {
+            return isPair(s, i) ? 2 : 1;
+        }
+
+        static boolean isPair(String s, int i) {
+            return Character.isHighSurrogate(s.charAt(i)) && i+1<s.length() &&
+                   Character.isLowSurrogate(s.charAt(i+1));
+        }
+
+        /** UTF-8 bytes, percent encoded; a lone surrogate becomes {@code ?}
+         *  like {@link String#getBytes}.
+         */
+        @Override
+        protected String escapeAboveTable(String s, int i) {
+            char c = s.charAt(i);
+            StringBuilder buf = new StringBuilder(12);
+            if ( isPair(s, i) ) {
+                int cp = Character.toCodePoint(c, s.charAt(i+1));
+                percent(buf, 0xF0 | (cp>>18));
+                percent(buf, 0x80 | ((cp>>12) & 0x3F));
+                percent(buf, 0x80 | ((cp>>6) & 0x3F));
+                percent(buf, 0x80 | (cp & 0x3F));
+            }
+            else if ( c>=Character.MIN_SURROGATE && c<=Character.MAX_SURROGATE ) {
+                percent(buf, '?');
+            }
+            else if ( c<0x800 ) {
+                percent(buf, 0xC0 | (c>>6));
+                percent(buf, 0x80 | (c & 0x3F));
+            }
+            else {
+                percent(buf, 0xE0 | (c>>12));
+                percent(buf, 0x80 | ((c>>6) & 0x3F));
+                percent(buf, 0x80 | (c & 0x3F));
+            }
+            return buf.toString();
+        }
+    }
+
+    static final class HtmlAttributeEscaper extends Escaper {
+        HtmlAttributeEscaper() {
+            super(XML.table.clone());
+            table['"'] = "&#34;";
+            table['\''] = "&#39;";
+        }
+
+        @Override
+        protected String escapeAboveTable(String s, int i) {
+            return XML.escapeAboveTable(s, i);
+        }
+    }
+
+    static final class HtmlUnquotedAttributeEscaper extends Escaper {
+        HtmlUnquotedAttributeEscaper() {
+            super(HTML_ATTRIBUTE.table.clone());
+            for (char c : new char[] {' ', '\t', '\n', '\f', '\r', '=', '`'}) {
+                table[c] = "&#"+(int)c+";";
+            }
+        }
+
+        @Override
+        protected String escapeAboveTable(String s, int i) {
+            return XML.escapeAboveTable(s, i);
+        }
+    }
+
+    static final class JsStringEscaper extends Escaper {
+        JsStringEscaper() {
+            super(new String[128]);
+            for (int c = 0; c < ' '; c++) table[c] = unicode(c);
+            table[0x7F] = unicode(0x7F);
+            table['\b'] = "\\b";
+            table['\t'] = "\\t";
+            table['\n'] = "\\n";
+            table['\f'] = "\\f";
+            table['\r'] = "\\r";
+            table['\\'] = "\\\\";
+            table['/'] = "\\/";
+            table['"'] = "\\x22";
+            table['\''] = "\\x27";
+            table['&'] = "\\x26";
+            table['<'] = "\\x3C";
+            table['>'] = "\\x3E";
+            table['='] = "\\x3D";
+            table['`'] = "\\x60";
+            table['$'] = "\\x24";
+        }
+
+        static String unicode(int c) {
+            return new StringBuilder(6).append("\\u")
+                .append(HEX[(c>>12)&0xF]).append(HEX[(c>>8)&0xF])
+                .append(HEX[(c>>4)&0xF]).append(HEX[c&0xF]).toString();
+        }
+
+        @Override
+        protected String escapeAboveTable(String s, int i) {
+            return unicode(s.charAt(i));
+        }
+    }
+
+    static final class JsValueEscaper extends Escaper {
+        JsValueEscaper() { super(JS_STRING.table); }
+
+        @Override
+        public String escape(String s) { return '"' + JS_STRING.escape(s) + '"'; }
+
+        @Override
+        public int write(STWriter out, String s) throws IOException {
+            int n = out.write("\"");
+            n += JS_STRING.write(out, s);
+            return n + out.write("\"");
+        }
+
+        @Override
+        protected String escapeAboveTable(String s, int i) {
+            return JS_STRING.escapeAboveTable(s, i);
+        }
+    }
+
+    /** Leaves {@code s} alone unless it is a URL with an unsafe scheme. */
+    static final class UrlFilter extends Escaper {
+        static final UrlFilter INSTANCE = new UrlFilter();
+
+        static final String UNSAFE_URL = "about:invalid#unsafe-url";
+
+        UrlFilter() { super(new String[0]); }
+
+        @Override
+        public int nextEscape(String s, int from) { return s.length(); }
+
+        @Override
+        public String escape(String s) { return isSafe(s) ? s : UNSAFE_URL; }
+
+        @Override
+        public int write(STWriter out, String s) throws IOException {
+            return out.write(escape(s));
+        }
+
+        /** A relative URL or one whose scheme is http, https or mailto. */
+        static boolean isSafe(String s) {
+            int n = s.length();
+            for (int i = 0; i < n; i++) {
+                char c = s.charAt(i);
+                if ( c=='/' || c=='?' || c=='#' ) return true;
+                if ( c==':' ) {
+                    String scheme = s.substring(0, i);
+                    return scheme.equalsIgnoreCase("http") || scheme.equalsIgnoreCase("https") ||
+                           scheme.equalsIgnoreCase("mailto");
+                }
+            }
+            return true;
+        }
+
+        @Override
+        protected String escapeAboveTable(String s, int i) { return s.substring(i, i+1); }
+    }
+
+    /** Escapes for {@code inner} and then for {@code outer}, like JavaScript
+     *  in an attribute value.
+     */
+    static final class NestedEscaper extends Escaper {
+        final Escaper inner;
+        final Escaper outer;
+
+        NestedEscaper(Escaper inner, Escaper outer) {
+            super(outer.table);
+            this.inner = inner;
+            this.outer = outer;
+        }
+
+        @Override
+        public String escape(String s) { return outer.escape(inner.escape(s)); }
+
+        @Override
+        public int write(STWriter out, String s) throws IOException {
+            return outer.write(out, inner.escape(s));
+        }
+
+        @Override
+        protected String escapeAboveTable(String s, int i) {
+            return outer.escapeAboveTable(s, i);
+        }
+    }
+}
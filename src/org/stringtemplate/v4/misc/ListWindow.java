@@ -0,0 +1,114 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.misc;
+
+import java.lang.reflect.Array;
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/** A read-only window onto a contiguous range of a random access
+ *  {@link List} or an array, optionally reversed. Windows of windows share
+ *  the underlying list so {@code rest}, {@code trunc} and {@code reverse}
+ *  take constant time and space however deeply templates recurse.
+ */
+public class ListWindow extends AbstractList<Object> implements RandomAccess {
+    /** The underlying list, or {@code null} if {@link #array} holds the elements. */
+    protected final List<?> list;
+    protected final Object array;
+    /** Index of the first element of the window in the underlying elements. */
+    protected final int offset;
+    protected final int size;
+    protected final boolean reversed;
+
+    protected ListWindow(List<?> list, Object array, int offset, int size, boolean reversed) {
+        this.list = list;
+        this.array = array;
+        this.offset = offset;
+        this.size = size;
+        this.reversed = reversed;
+    }
+
+    /** Return a window onto all of {@code o} if it's a random access list or
+     *  an array, {@code o} itself if it's already a window, or {@code null}.
+     */
+    public static ListWindow over(Object o) {
+        if ( o instanceof ListWindow ) return (ListWindow)o;
+        if ( o instanceof List && o instanceof RandomAccess ) {
+            return new ListWindow((List<?>)o, null, 0, ((List<?>)o).size(), false);
+        }
+        if ( o!=null && o.getClass().isArray() ) {
+            return new ListWindow(null, o, 0, Array.getLength(o), false);
+        }
+        return null;
+    }
+
+    @Override
+    public Object get(int i) {
+        if ( i<0 || i>=size ) throw new IndexOutOfBoundsException("Index: "+i+", Size: "+size);
+        int j = reversed ? offset+size-1-i : offset+i;
+        if ( list!=null ) return list.get(j);
+        if ( array instanceof Object[] ) return ((Object[])array)[j];
+        return Array.get(array, j);
+    }
+
+    @Override
+    public int size() { return size; }
+
+    /** Windows onto arrays of primitives iterate with a
+     *  {@link PrimitiveArrayIterator} so their elements can be written
+     *  without boxing.
+     */
+    @Override
+    public Iterator<Object> iterator() {
+        if ( isPrimitive() ) {
+            return PrimitiveArrayIterator.create(array, offset, size, reversed);
+        }
+        return super.iterator();
+    }
+
+    /** Whether the elements are those of an array of primitives. */
+    public boolean isPrimitive() { return list==null && !(array instanceof Object[]); }
+
+    /** The elements from {@code from} (inclusive) to {@code to} (exclusive). */
+    public ListWindow window(int from, int to) {
+        if ( from<0 || to>size || from>to ) {
+            throw new IndexOutOfBoundsException("from: "+from+", to: "+to+", size: "+size);
+        }
+        int start = reversed ? offset+size-to : offset+from;
+        return new ListWindow(list, array, start, to-from, reversed);
+    }
+
+    @Override
+    public List<Object> subList(int from, int to) { return window(from, to); }
+
+    public ListWindow reverse() {
+        return new ListWindow(list, array, offset, size, !reversed);
+    }
+}
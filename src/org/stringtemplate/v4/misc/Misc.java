@@ -136,22 +136,23 @@ public class Misc {
      *  Do NOT replace if it's &lt;\\&gt;
      */
     public static String replaceEscapedRightAngle(String s) {
-        StringBuilder buf = new StringBuilder();
+        if ( s.indexOf('\\')<0 ) return s; // every escape has a backslash
+        StringBuilder buf = new StringBuilder(s.length());
         int i = 0;
         while ( i<s.length() ) {
             char c = s.charAt(i);
-            if ( c=='<' && s.substring(i).startsWith("<\\\\>") ) {
+            if ( c=='<' && s.startsWith("<\\\\>", i) ) {
                 buf.append("<\\\\>");
                 i += "<\\\\>".length();
                 continue;
             }
-            if ( c=='>' && s.substring(i).startsWith(">\\>") ) {
+            if ( c=='>' && s.startsWith(">\\>", i) ) {
                 buf.append(">>");
                 i += ">\\>".length();
                 continue;
             }
-            if ( c=='\\' && s.substring(i).startsWith("\\>>") &&
-                !s.substring(i).startsWith("\\>>>") )
+            if ( c=='\\' && s.startsWith("\\>>", i) &&
+                !s.startsWith("\\>>>", i) )
             {
                 buf.append(">>");
                 i += "\\>>".length();
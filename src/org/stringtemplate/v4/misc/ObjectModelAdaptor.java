@@ -34,8 +34,9 @@ import org.stringtemplate.v4.ST;
 import java.lang.reflect.Field;
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class ObjectModelAdaptor<T> implements ModelAdaptor<T> {
     protected static final Member INVALID_MEMBER;
@@ -52,11 +53,15 @@ public class ObjectModelAdaptor<T> implements ModelAdaptor<T> {
         INVALID_MEMBER = invalidMember;
     }
 
-    protected static final Map<Class<?>, Map<String, Member>> membersCache =
-        new HashMap<Class<?>, Map<String, Member>>();
+    /** Members found per class and property name; lookups take no locks.
+     *  Threads racing on a miss resolve the same member, so the last put wins
+     *  harmlessly.
+     */
+    protected static final ConcurrentMap<Class<?>, Map<String, Member>> membersCache =
+        new ConcurrentHashMap<Class<?>, Map<String, Member>>();
 
     @Override
-    public synchronized Object getProperty(Interpreter interp, ST self, T model, Object property, String propertyName)
+    public Object getProperty(Interpreter interp, ST self, T model, Object property, String propertyName)
         throws STNoSuchPropertyException
     {
         if (model == null) {
@@ -95,40 +100,40 @@ public class ObjectModelAdaptor<T> implements ModelAdaptor<T> {
             throw new NullPointerException("memberName");
         }
 
-        synchronized (membersCache) {
-            Map<String, Member> members = membersCache.get(clazz);
-            Member member;
-            if (members != null) {
-                member = members.get(memberName);
-                if (member != null) {
-                    return member != INVALID_MEMBER ? member : null;
-                }
+        Map<String, Member> members = membersCache.get(clazz);
+        if (members != null) {
+            Member member = members.get(memberName);
+            if (member != null) {
+                return member != INVALID_MEMBER ? member : null;
             }
-            else {
-                members = new HashMap<String, Member>();
-                membersCache.put(clazz, members);
+        }
+        else {
+            members = new ConcurrentHashMap<String, Member>();
+            Map<String, Member> prev = membersCache.putIfAbsent(clazz, members);
+            if (prev != null) {
+                members = prev;
             }
+        }
 
-            // try getXXX and isXXX properties, look up using reflection
-            String methodSuffix = Character.toUpperCase(memberName.charAt(0)) +
-                memberName.substring(1, memberName.length());
-            
-            member = tryGetMethod(clazz, "get" + methodSuffix);
-            if (member == null) {
-                member = tryGetMethod(clazz, "is" + methodSuffix);
-                if (member == null) {
-                    member = tryGetMethod(clazz, "has" + methodSuffix);
-                }
-            }
+        // try getXXX and isXXX properties, look up using reflection
+        String methodSuffix = Character.toUpperCase(memberName.charAt(0)) +
+            memberName.substring(1, memberName.length());
 
+        Member member = tryGetMethod(clazz, "get" + methodSuffix);
+        if (member == null) {
+            member = tryGetMethod(clazz, "is" + methodSuffix);
             if (member == null) {
-                // try for a visible field
-                member = tryGetField(clazz, memberName);
+                member = tryGetMethod(clazz, "has" + methodSuffix);
             }
+        }
 
-            members.put(memberName, member != null ? member : INVALID_MEMBER);
-            return member;
+        if (member == null) {
+            // try for a visible field
+            member = tryGetField(clazz, memberName);
         }
+
+        members.put(memberName, member != null ? member : INVALID_MEMBER);
+        return member;
     }
 
     protected static Method tryGetMethod(Class<?> clazz, String methodName) {
@@ -160,6 +165,10 @@ public class ObjectModelAdaptor<T> implements ModelAdaptor<T> {
     }
 
     protected Object throwNoSuchProperty(Class<?> clazz, String propertyName, Exception cause) {
-        throw new STNoSuchPropertyException(cause, null, clazz.getName() + "." + propertyName);
+        String name = clazz.getName() + "." + propertyName;
+        if (cause == null) {
+            throw STNoSuchPropertyException.missing(null, name);
+        }
+        throw new STNoSuchPropertyException(cause, null, name);
     }
 }
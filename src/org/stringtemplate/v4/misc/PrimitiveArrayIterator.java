@@ -0,0 +1,177 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.misc;
+
+import java.lang.reflect.Array;
+import java.util.NoSuchElementException;
+
+/** An {@link ArrayIterator} over an array of primitives that reads elements
+ *  without reflection and can hand them out as strings without boxing, so
+ *  the interpreter can write {@code int[]} and friends directly when no
+ *  renderer applies to their element type. It can also iterate over a
+ *  {@link ListWindow} of such an array.
+ */
+public abstract class PrimitiveArrayIterator extends ArrayIterator {
+    /** Index of the first element iterated over, or the last if {@link #reversed}. */
+    protected final int offset;
+    protected final boolean reversed;
+
+    protected PrimitiveArrayIterator(Object array, int offset, int size, boolean reversed) {
+        super(array);
+        this.offset = offset;
+        this.reversed = reversed;
+        n = size;
+    }
+
+    /** Return an iterator specialized for {@code array}'s component type, or
+     *  {@code null} if it isn't an array of primitives.
+     */
+    public static PrimitiveArrayIterator create(Object array) {
+        if ( array==null || !array.getClass().isArray() || array instanceof Object[] ) return null;
+        return create(array, 0, Array.getLength(array), false);
+    }
+
+    /** Like {@link #create(Object)} but over the {@code size} elements
+     *  starting at {@code offset}, last to first if {@code reversed}.
+     */
+    public static PrimitiveArrayIterator create(Object array, int offset, int size, boolean reversed) {
+        if ( array instanceof int[] ) return new IntArrayIterator((int[])array, offset, size, reversed);
+        if ( array instanceof double[] ) return new DoubleArrayIterator((double[])array, offset, size, reversed);
+        if ( array instanceof long[] ) return new LongArrayIterator((long[])array, offset, size, reversed);
+        if ( array instanceof float[] ) return new FloatArrayIterator((float[])array, offset, size, reversed);
+        if ( array instanceof char[] ) return new CharArrayIterator((char[])array, offset, size, reversed);
+        if ( array instanceof boolean[] ) return new BooleanArrayIterator((boolean[])array, offset, size, reversed);
+        if ( array instanceof short[] ) return new ShortArrayIterator((short[])array, offset, size, reversed);
+        if ( array instanceof byte[] ) return new ByteArrayIterator((byte[])array, offset, size, reversed);
+        return null;
+    }
+
+    /** The wrapper class of the elements, such as {@link Integer} for
+     *  {@code int[]}; used to look up renderers.
+     */
+    public abstract Class<?> getElementType();
+
+    /** Like {@link #next} but returns the element's
+     *  {@link String#valueOf string value} without boxing it.
+     */
+    public abstract String nextString();
+
+    /** Advance and return the index in the array of the next element. */
+    protected final int advance() {
+        if ( ++i >= n ) throw new NoSuchElementException();
+        return reversed ? offset+n-1-i : offset+i;
+    }
+
+    static final class IntArrayIterator extends PrimitiveArrayIterator {
+        final int[] values;
+        IntArrayIterator(int[] values, int offset, int size, boolean reversed) {
+            super(values, offset, size, reversed);
+            this.values = values;
+        }
+        @Override public Object next() { return values[advance()]; }
+        @Override public String nextString() { return String.valueOf(values[advance()]); }
+        @Override public Class<?> getElementType() { return Integer.class; }
+    }
+
+    static final class LongArrayIterator extends PrimitiveArrayIterator {
+        final long[] values;
+        LongArrayIterator(long[] values, int offset, int size, boolean reversed) {
+            super(values, offset, size, reversed);
+            this.values = values;
+        }
+        @Override public Object next() { return values[advance()]; }
+        @Override public String nextString() { return String.valueOf(values[advance()]); }
+        @Override public Class<?> getElementType() { return Long.class; }
+    }
+
+    static final class DoubleArrayIterator extends PrimitiveArrayIterator {
+        final double[] values;
+        DoubleArrayIterator(double[] values, int offset, int size, boolean reversed) {
+            super(values, offset, size, reversed);
+            this.values = values;
+        }
+        @Override public Object next() { return values[advance()]; }
+        @Override public String nextString() { return String.valueOf(values[advance()]); }
+        @Override public Class<?> getElementType() { return Double.class; }
+    }
+
+    static final class FloatArrayIterator extends PrimitiveArrayIterator {
+        final float[] values;
+        FloatArrayIterator(float[] values, int offset, int size, boolean reversed) {
+            super(values, offset, size, reversed);
+            this.values = values;
+        }
+        @Override public Object next() { return values[advance()]; }
+        @Override public String nextString() { return String.valueOf(values[advance()]); }
+        @Override public Class<?> getElementType() { return Float.class; }
+    }
+
+    static final class ShortArrayIterator extends PrimitiveArrayIterator {
+        final short[] values;
+        ShortArrayIterator(short[] values, int offset, int size, boolean reversed) {
+            super(values, offset, size, reversed);
+            this.values = values;
+        }
+        @Override public Object next() { return values[advance()]; }
+        @Override public String nextString() { return String.valueOf(values[advance()]); }
+        @Override public Class<?> getElementType() { return Short.class; }
+    }
+
+    static final class ByteArrayIterator extends PrimitiveArrayIterator {
+        final byte[] values;
+        ByteArrayIterator(byte[] values, int offset, int size, boolean reversed) {
+            super(values, offset, size, reversed);
+            this.values = values;
+        }
+        @Override public Object next() { return values[advance()]; }
+        @Override public String nextString() { return String.valueOf(values[advance()]); }
+        @Override public Class<?> getElementType() { return Byte.class; }
+    }
+
+    static final class CharArrayIterator extends PrimitiveArrayIterator {
+        final char[] values;
+        CharArrayIterator(char[] values, int offset, int size, boolean reversed) {
+            super(values, offset, size, reversed);
+            this.values = values;
+        }
+        @Override public Object next() { return values[advance()]; }
+        @Override public String nextString() { return String.valueOf(values[advance()]); }
+        @Override public Class<?> getElementType() { return Character.class; }
+    }
+
+    static final class BooleanArrayIterator extends PrimitiveArrayIterator {
+        final boolean[] values;
+        BooleanArrayIterator(boolean[] values, int offset, int size, boolean reversed) {
+            super(values, offset, size, reversed);
+            this.values = values;
+        }
+        @Override public Object next() { return values[advance()]; }
+        @Override public String nextString() { return String.valueOf(values[advance()]); }
+        @Override public Class<?> getElementType() { return Boolean.class; }
+    }
+}
@@ -40,9 +40,26 @@ public class STNoSuchPropertyException extends STException {
         this.propertyName = propertyName;
     }
 
+    /** A plain miss, with nothing underneath. Its stack trace isn't filled
+     *  in, since it would only show the interpreter, so a template that
+     *  tests optional properties doesn't pay for one per miss.
+     */
+    public static STNoSuchPropertyException missing(Object o, String propertyName) {
+        return new Missing(o, propertyName);
+    }
+
     @Override
     public String getMessage() {
         if ( o!=null ) return "object "+o.getClass()+" has no "+propertyName+" property";
         else return "no such property: "+propertyName;
     }
+
+    static final class Missing extends STNoSuchPropertyException {
+        private static final long serialVersionUID = 1L;
+
+        Missing(Object o, String propertyName) { super(null, o, propertyName); }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() { return this; }
+    }
 }
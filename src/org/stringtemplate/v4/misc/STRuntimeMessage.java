@@ -68,7 +68,7 @@ public class STRuntimeMessage extends STMessage {
      */
     public String getSourceLocation() {
         if ( ip<0 || self==null || self.impl==null ) return null;
-        Interval I = self.impl.sourceMap[ip];
+        Interval I = self.impl.getSourceInterval(ip);
         if ( I==null ) return null;
         // get left edge and get line/col
         int i = I.a;
@@ -0,0 +1,92 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.misc;
+
+import java.io.StringWriter;
+import java.io.Writer;
+
+/** A {@link Writer} on top of a {@link StringBuilder}. Unlike
+ *  {@link StringWriter}, whose {@link StringBuffer} locks on every
+ *  {@code write}, nothing here is synchronized; use it from one thread. The
+ *  buffer can be {@linkplain #reset reset} and reused.
+ */
+public class StringBuilderWriter extends Writer {
+    protected final StringBuilder buf;
+
+    public StringBuilderWriter() { this(16); }
+
+    public StringBuilderWriter(int initialCapacity) {
+        buf = new StringBuilder(initialCapacity);
+    }
+
+    @Override
+    public void write(int c) { buf.append((char)c); }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) { buf.append(cbuf, off, len); }
+
+    @Override
+    public void write(String str) { buf.append(str); }
+
+    @Override
+    public void write(String str, int off, int len) { buf.append(str, off, off+len); }
+
+    @Override
+    public StringBuilderWriter append(CharSequence csq) {
+        buf.append(csq);
+        return this;
+    }
+
+    @Override
+    public StringBuilderWriter append(CharSequence csq, int start, int end) {
+        buf.append(csq, start, end);
+        return this;
+    }
+
+    @Override
+    public StringBuilderWriter append(char c) {
+        buf.append(c);
+        return this;
+    }
+
+    @Override
+    public void flush() { }
+
+    @Override
+    public void close() { }
+
+    /** Throw away everything written so far but keep the buffer's capacity. */
+    public void reset() { buf.setLength(0); }
+
+    public int length() { return buf.length(); }
+
+    public StringBuilder getBuffer() { return buf; }
+
+    @Override
+    public String toString() { return buf.toString(); }
+}
@@ -0,0 +1,220 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.misc;
+
+import org.stringtemplate.v4.InstanceScope;
+import org.stringtemplate.v4.STErrorListener;
+import org.stringtemplate.v4.compiler.CompiledST;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** An {@link ErrorManager} for production use, where one broken property on a
+ *  big table must not flood the listener. Runtime errors are deduplicated by
+ *  template, bytecode address and {@link ErrorType}: each such site reaches the
+ *  listener at most {@link #maxReportsPerSite} times and is only counted after
+ *  that. On top of that, no more than {@link #maxReportsPerSecond} runtime
+ *  errors a second reach the listener. A rejected error costs a hash lookup and
+ *  a counter increment; its message is never built.
+ *  <p>
+ *  At most {@link #maxSites} sites are tracked, so the table can't grow with
+ *  every template a long-running application ever compiles. Errors at sites
+ *  beyond that are only rate limited and counted in
+ *  {@link #getUntrackedCount}.</p>
+ *  <p>
+ *  Compile-time and IO errors are always reported. Internal errors are bugs,
+ *  so the first one at each site reaches the listener even past the rate
+ *  limit; after that they're deduplicated like any other runtime error, and
+ *  their stack traces are never printed for rejected ones.</p>
+ *  <p>
+ *  Install it with {@code group.errMgr = new ThrottledErrorManager(listener)};
+ *  {@link #getSites} and {@link #toString} show what was seen.</p>
+ */
+public class ThrottledErrorManager extends ErrorManager {
+    public static final int DEFAULT_MAX_REPORTS_PER_SITE = 1;
+    public static final int DEFAULT_MAX_REPORTS_PER_SECOND = 100;
+    public static final int DEFAULT_MAX_SITES = 1000;
+
+    /** Where a runtime error happened, with how often it happened there. */
+    public static class ErrorSite {
+        /** {@code null} for errors outside any template. */
+        public final CompiledST impl;
+        public final int ip;
+        public final ErrorType error;
+        protected final AtomicLong count = new AtomicLong();
+        protected final AtomicLong reported = new AtomicLong();
+
+        public ErrorSite(CompiledST impl, int ip, ErrorType error) {
+            this.impl = impl;
+            this.ip = ip;
+            this.error = error;
+        }
+
+        public long getCount() { return count.get(); }
+
+        /** How many of {@link #getCount} went to the listener. */
+        public long getReported() { return reported.get(); }
+
+        @Override
+        public boolean equals(Object o) {
+            if ( !(o instanceof ErrorSite) ) return false;
+            ErrorSite other = (ErrorSite)o;
+            return code()==other.code() && ip==other.ip && error==other.error;
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(code())*31 + ip)*31 + error.hashCode();
+        }
+
+        /** Instances get clones of a template's {@link CompiledST}, which all
+         *  share its code; that's what identifies the template.
+         */
+        protected Object code() { return impl!=null ? impl.instrs : null; }
+
+        @Override
+        public String toString() {
+            String where = "<no template>";
+            if ( impl!=null ) {
+                where = impl.name;
+                Interval I = impl.getSourceInterval(ip);
+                if ( I!=null ) where += " "+Misc.getLineCharPosition(impl.template, I.a);
+            }
+            return where+" "+error+": "+getCount()+" times, "+getReported()+" reported";
+        }
+    }
+
+    public final int maxReportsPerSite;
+    /** 0 for no limit. */
+    public final int maxReportsPerSecond;
+    public final int maxSites;
+
+    protected final ConcurrentMap<ErrorSite, ErrorSite> sites =
+        new ConcurrentHashMap<ErrorSite, ErrorSite>();
+    protected final AtomicLong suppressed = new AtomicLong();
+    protected final AtomicLong untracked = new AtomicLong();
+
+    /** Start of the current one-second window, from {@link System#nanoTime}. */
+    protected final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    protected final AtomicInteger windowReports = new AtomicInteger();
+
+    public ThrottledErrorManager(STErrorListener listener) {
+        this(listener, DEFAULT_MAX_REPORTS_PER_SITE, DEFAULT_MAX_REPORTS_PER_SECOND);
+    }
+
+    public ThrottledErrorManager(STErrorListener listener, int maxReportsPerSite, int maxReportsPerSecond) {
+        this(listener, maxReportsPerSite, maxReportsPerSecond, DEFAULT_MAX_SITES);
+    }
+
+    public ThrottledErrorManager(STErrorListener listener, int maxReportsPerSite, int maxReportsPerSecond,
+                                 int maxSites)
+    {
+        super(listener);
+        this.maxReportsPerSite = maxReportsPerSite;
+        this.maxReportsPerSecond = maxReportsPerSecond;
+        this.maxSites = maxSites;
+    }
+
+    @Override
+    protected boolean accept(InstanceScope scope, ErrorType error) {
+        ErrorSite key = new ErrorSite(scope!=null ? scope.st.impl : null,
+                                      scope!=null ? scope.ip : 0,
+                                      error);
+        ErrorSite site = sites.get(key);
+        if ( site==null ) {
+            if ( sites.size()>=maxSites ) {
+                untracked.incrementAndGet();
+                if ( withinRate() ) return true;
+                suppressed.incrementAndGet();
+                return false;
+            }
+            site = sites.putIfAbsent(key, key);
+            if ( site==null ) site = key;
+        }
+        long n = site.count.incrementAndGet();
+        boolean firstBug = n==1 && error==ErrorType.INTERNAL_ERROR;
+        if ( !firstBug && (n>maxReportsPerSite || !withinRate()) ) {
+            suppressed.incrementAndGet();
+            return false;
+        }
+        site.reported.incrementAndGet();
+        return true;
+    }
+
+    protected boolean withinRate() {
+        if ( maxReportsPerSecond<=0 ) return true;
+        long now = System.nanoTime();
+        long start = windowStart.get();
+        if ( now-start>=1000000000L && windowStart.compareAndSet(start, now) ) {
+            windowReports.set(0);
+        }
+        return windowReports.incrementAndGet()<=maxReportsPerSecond;
+    }
+
+    /** Runtime errors seen so far, most frequent first. */
+    public List<ErrorSite> getSites() {
+        List<ErrorSite> result = new ArrayList<ErrorSite>(sites.values());
+        Collections.sort(result, new Comparator<ErrorSite>() {
+            @Override
+            public int compare(ErrorSite a, ErrorSite b) {
+                long x = a.getCount();
+                long y = b.getCount();
+                return x<y ? 1 : (x==y ? 0 : -1);
+            }
+        });
+        return result;
+    }
+
+    /** Runtime errors that were counted but not sent to the listener. */
+    public long getSuppressedCount() { return suppressed.get(); }
+
+    /** Runtime errors at sites that didn't fit in the {@link #maxSites}
+     *  table, reported or not.
+     */
+    public long getUntrackedCount() { return untracked.get(); }
+
+    /** Forget all sites and counts, so each site gets reported again. */
+    public void reset() {
+        sites.clear();
+        suppressed.set(0);
+        untracked.set(0);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        for (ErrorSite site : getSites()) buf.append(site).append(Misc.newline);
+        return buf.toString();
+    }
+}
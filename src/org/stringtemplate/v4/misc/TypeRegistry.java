@@ -32,9 +32,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *
@@ -43,7 +45,8 @@ import java.util.Set;
 public class TypeRegistry<V> implements Map<Class<?>, V> {
 
     private final Map<Class<?>, V> backingStore = new HashMap<Class<?>, V>();
-    private final Map<Class<?>, Class<?>> cache = new HashMap<Class<?>, Class<?>>();
+    // concurrent so lookups in a registry that no longer changes need no lock
+    private final Map<Class<?>, Class<?>> cache = new ConcurrentHashMap<Class<?>, Class<?>>();
 
     public int size() {
         return backingStore.size();
@@ -54,14 +57,15 @@ public class TypeRegistry<V> implements Map<Class<?>, V> {
     }
 
     public boolean containsKey(Object key) {
-        if (cache.containsKey(key)) {
-            return true;
-        }
-
+        // the cache can't take null keys
         if (!(key instanceof Class)) {
             return false;
         }
 
+        if (cache.containsKey(key)) {
+            return true;
+        }
+
         return get(key) != null;
     }
 
@@ -82,6 +86,10 @@ public class TypeRegistry<V> implements Map<Class<?>, V> {
             return value;
         }
 
+        if (!(key instanceof Class)) {
+            return null;
+        }
+
         Class<?> redirect = cache.get(key);
         if (redirect != null) {
             if (redirect == Void.TYPE) {
@@ -92,10 +100,6 @@ public class TypeRegistry<V> implements Map<Class<?>, V> {
             }
         }
 
-        if (!(key instanceof Class)) {
-            return null;
-        }
-
         Class<?> keyClass = (Class<?>)key;
         List<Class<?>> candidates = new ArrayList<Class<?>>();
         for (Class<?> clazz : backingStore.keySet()) {
@@ -204,9 +208,9 @@ public class TypeRegistry<V> implements Map<Class<?>, V> {
     }
 
     protected void handleAlteration(Class<?> clazz) {
-        for (Map.Entry<Class<?>, ?> entry : cache.entrySet()) {
-            if (clazz.isAssignableFrom(entry.getKey())) {
-                entry.setValue(null);
+        for (Iterator<Class<?>> it = cache.keySet().iterator(); it.hasNext(); ) {
+            if (clazz.isAssignableFrom(it.next())) {
+                it.remove();
             }
         }
     }
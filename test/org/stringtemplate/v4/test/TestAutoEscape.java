@@ -0,0 +1,234 @@
+/*
+ [The "BSD license"]
+ Copyright (c) 2009 Terence Parr
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+ 1. Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+ 2. Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+ 3. The name of the author may not be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.stringtemplate.v4.test;
+
+import org.junit.Test;
+import org.stringtemplate.v4.*;
+import org.stringtemplate.v4.misc.ErrorBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestAutoEscape extends BaseTest {
+    static STGroup autoEscapeGroup() {
+        STGroup group = new STGroup('$', '$');
+        group.setAutoEscape(true);
+        return group;
+    }
+
+    @Test public void testOffByDefault() throws Exception {
+        ST st = new ST(new STGroup('$', '$'), "<p>$x$</p>");
+        st.add("x", "<b>&");
+        assertEquals("<p><b>&</p>", st.render());
+    }
+
+    @Test public void testText() throws Exception {
+        ST st = new ST(autoEscapeGroup(), "<p>$x$</p>");
+        st.add("x", "<b>&");
+        assertEquals("<p>&lt;b&gt;&amp;</p>", st.render());
+    }
+
+    @Test public void testAttributeValues() throws Exception {
+        ST st = new ST(autoEscapeGroup(), "<img alt=\"$x$\" title='$x$' id=$x$>$x$");
+        st.add("x", "\"a' <");
+        String expected =
+            "<img alt=\"&#34;a&#39; &lt;\" title='&#34;a&#39; &lt;' id=&#34;a&#39;&#32;&lt;>\"a' &lt;";
+        assertEquals(expected, st.render());
+    }
+
+    @Test public void testUrlQuery() throws Exception {
+        ST st = new ST(autoEscapeGroup(), "<a href=\"$base$?q=$q$&amp;n=$n$\">$q$</a>");
+        st.add("base", "/search");
+        st.add("q", "a b&c");
+        st.add("n", 10);
+        String expected = "<a href=\"/search?q=a+b%26c&amp;n=10\">a b&amp;c</a>";
+        assertEquals(expected, st.render());
+    }
+
+    @Test public void testScript() throws Exception {
+        ST st = new ST(autoEscapeGroup(),
+                       "<script>var s = \"$s$\";</script><button onclick=\"f('$s$')\">$s$</button>");
+        st.add("s", "\"</script>");
+        String expected =
+            "<script>var s = \"\\x22\\x3C\\/script\\x3E\";</script>" +
+            "<button onclick=\"f('\\x22\\x3C\\/script\\x3E')\">\"&lt;/script&gt;</button>";
+        assertEquals(expected, st.render());
+    }
+
+    @Test public void testUnquotedAttributeValue() throws Exception {
+        ST st = new ST(autoEscapeGroup(), "<input value=$x$ title=a$x$>");
+        st.add("x", "a onclick=`f()`");
+        String expected =
+            "<input value=a&#32;onclick&#61;&#96;f()&#96; title=aa&#32;onclick&#61;&#96;f()&#96;>";
+        assertEquals(expected, st.render());
+    }
+
+    @Test public void testScriptCode() throws Exception {
+        ST st = new ST(autoEscapeGroup(),
+                       "<script>var n = $n$; f($s$, '$s$'); var t = `$t$`;</script>");
+        st.add("n", 3);
+        st.add("s", "1);alert('x'");
+        st.add("t", "${alert(1)}");
+        String expected =
+            "<script>var n = \"3\"; f(\"1);alert(\\x27x\\x27\", '1);alert(\\x27x\\x27'); " +
+            "var t = `\\x24{alert(1)}`;</script>";
+        assertEquals(expected, st.render());
+    }
+
+    @Test public void testScriptCommentsAndRegularExpressions() throws Exception {
+        ST st = new ST(autoEscapeGroup(),
+                       "<script>// don't\nvar a = $x$; /* \" */ var b = /'[/]/.test(s) / 2 + $x$;</script>");
+        st.add("x", "f()");
+        String expected =
+            "<script>// don't\nvar a = \"f()\"; /* \" */ var b = /'[/]/.test(s) / 2 + \"f()\";</script>";
+        assertEquals(expected, st.render());
+    }
+
+    @Test public void testHandlerCode() throws Exception {
+        ST st = new ST(autoEscapeGroup(),
+                       "<a onclick=\"f($s$)\" onblur='g(&quot;$s$&quot;)' onfocus=h($s$)>");
+        st.add("s", "1) x(");
+        String expected =
+            "<a onclick=\"f(&#34;1) x(&#34;)\" onblur='g(&quot;1) x(&quot;)' " +
+            "onfocus=h(&#34;1)&#32;x(&#34;)>";
+        assertEquals(expected, st.render());
+    }
+
+    @Test public void testUrlScheme() throws Exception {
+        ST st = new ST(autoEscapeGroup(),
+                       "<a href=\"$u$\">x</a><img src=$u$><a href=\"java$u$\"><a href=\"/p/$u$\">");
+        st.add("u", "javascript:alert(1)");
+        String expected =
+            "<a href=\"about:invalid#unsafe-url\">x</a><img src=about:invalid#unsafe-url>" +
+            "<a href=\"javaabout:invalid#unsafe-url\"><a href=\"/p/javascript:alert(1)\">";
+        assertEquals(expected, st.render());
+        st.remove("u");
+        st.add("u", "HTTPS://example.com/?a=1&b=2");
+        expected =
+            "<a href=\"HTTPS://example.com/?a=1&amp;b=2\">x</a><img src=HTTPS://example.com/?a&#61;1&amp;b&#61;2>" +
+            "<a href=\"javaHTTPS://example.com/?a=1&amp;b=2\"><a href=\"/p/HTTPS://example.com/?a=1&amp;b=2\">";
+        assertEquals(expected, st.render());
+    }
+
+    @Test public void testUnsupportedContexts() throws Exception {
+        STGroup group = autoEscapeGroup();
+        ErrorBuffer errors = new ErrorBuffer();
+        group.setListener(errors);
+        group.defineTemplate("tag", "x", "<div $x$>");
+        group.defineTemplate("css", "x", "<style>p { color: $x$ }</style><p style=\"color: $x$\">");
+        group.defineTemplate("regex", "x", "<script>/$x$/</script>");
+        group.defineTemplate("ok", "x", "<p>$x$</p><style>p { color: $x; format=\"css\"$ }</style>");
+        String expected =
+            "tag 1:5: can't auto-escape an expression in a tag outside of an attribute value\n" +
+            "css 1:18: can't auto-escape an expression in a style block\n" +
+            "css 1:48: can't auto-escape an expression in a style attribute\n" +
+            "regex 1:9: can't auto-escape an expression in a JavaScript regular expression\n";
+        assertEquals(expected, errors.toString());
+        ST st = group.getInstanceOf("tag");
+        st.add("x", "a onclick=f()");
+        assertEquals("<div a&#32;onclick&#61;f()>", st.render());
+    }
+
+    @Test public void testCommentDoesNotHideTags() throws Exception {
+        ST st = new ST(autoEscapeGroup(), "<!-- <a href=\"?$x$ --><i title=\"$x$\">$x$</i>");
+        st.add("x", "' &");
+        assertEquals("<!-- <a href=\"?' &amp; --><i title=\"&#39; &amp;\">' &amp;</i>", st.render());
+    }
+
+    @Test public void testTemplatesAreNotEscapedTwice() throws Exception {
+        STGroup group = autoEscapeGroup();
+        group.defineTemplate("page", "body", "<div>$body$</div>");
+        group.defineTemplate("bold", "x", "<b title=\"$x$\">$x$</b>");
+        ST st = group.getInstanceOf("page");
+        ST body = group.getInstanceOf("bold");
+        body.add("x", "1<2");
+        st.add("body", body);
+        assertEquals("<div><b title=\"1&lt;2\">1&lt;2</b></div>", st.render());
+    }
+
+    @Test public void testIteration() throws Exception {
+        ST st = new ST(autoEscapeGroup(),
+                       "<ul>$xs:{x | <li title=\"$x$\">$x$</li>}$</ul> $xs; separator=\"<br>\"$");
+        st.add("xs", "a&b");
+        st.add("xs", "<c>");
+        String expected =
+            "<ul><li title=\"a&amp;b\">a&amp;b</li><li title=\"&lt;c&gt;\">&lt;c&gt;</li></ul> " +
+            "a&amp;b<br>&lt;c&gt;";
+        assertEquals(expected, st.render());
+    }
+
+    @Test public void testFormatOptionUsesRenderer() throws Exception {
+        STGroup group = autoEscapeGroup();
+        group.registerRenderer(String.class, new StringRenderer());
+        ST st = new ST(group, "<p>$x; format=\"upper\"$ $x; null=\"<i>none</i>\"$</p>");
+        st.add("x", "<b>");
+        assertEquals("<p>&lt;B&gt; &lt;b&gt;</p>", st.render());
+        st.remove("x");
+        assertEquals("<p> <i>none</i></p>", st.render());
+    }
+
+    @Test public void testFormattedValuesEscapedForContext() throws Exception {
+        STGroup group = autoEscapeGroup();
+        group.registerRenderer(String.class, new StringRenderer());
+        ST st = new ST(group,
+                       "<b title=\"$x; format=\"upper\"$\">$x; format=\"xml-encode\"$</b>" +
+                       "<a href=\"/?q=$x; format=\"url-encode\"$\" title=\"$x; format=\"xml-encode\"$\">" +
+                       "<script>var s = '$x; format=\"xml-encode\"$';</script>");
+        st.add("x", "\" onload=\"alert(1)<script>");
+        String expected =
+            "<b title=\"&#34; ONLOAD=&#34;ALERT(1)&lt;SCRIPT&gt;\">\" onload=\"alert(1)&lt;script&gt;</b>" +
+            "<a href=\"/?q=%22+onload%3D%22alert%281%29%3Cscript%3E\" " +
+            "title=\"&#34; onload=&#34;alert(1)&amp;lt;script&amp;gt;\">" +
+            "<script>var s = '\\x22 onload\\x3D\\x22alert(1)\\x26lt;script\\x26gt;';</script>";
+        assertEquals(expected, st.render());
+    }
+
+    @Test public void testTemplatesEscapedForContextOfCall() throws Exception {
+        STGroup group = autoEscapeGroup();
+        group.defineTemplate("t", "javascript:alert(1)\" onmouseover='x'");
+        group.defineTemplate("attr", "<a title=\"$t()$\">");
+        group.defineTemplate("url", "<a href=\"$t()$\">");
+        group.defineTemplate("js", "<script>var s = \"$t()$\";</script>");
+        group.defineTemplate("text", "<p>$t()$</p>");
+        assertEquals("<a title=\"javascript:alert(1)&#34; onmouseover=&#39;x&#39;\">",
+                     group.getInstanceOf("attr").render());
+        assertEquals("<a href=\"about:invalid#unsafe-url\">", group.getInstanceOf("url").render());
+        assertEquals("<script>var s = \"javascript:alert(1)\\x22 onmouseover\\x3D\\x27x\\x27\";</script>",
+                     group.getInstanceOf("js").render());
+        assertEquals("<p>javascript:alert(1)\" onmouseover='x'</p>", group.getInstanceOf("text").render());
+    }
+
+    @Test public void testCalledTemplateValuesEscapedOnce() throws Exception {
+        STGroup group = autoEscapeGroup();
+        group.defineTemplate("name", "x", "<i>$x$</i>");
+        group.defineTemplate("t", "x", "<a title=\"$name(x)$\">$name(x)$</a>");
+        ST st = group.getInstanceOf("t");
+        st.add("x", "1<2 & \"3\"");
+        assertEquals("<a title=\"&lt;i&gt;1&lt;2 &amp; &#34;3&#34;&lt;/i&gt;\"><i>1&lt;2 &amp; \"3\"</i></a>",
+                     st.render());
+    }
+}
@@ -402,6 +402,47 @@ public class TestCompiler extends BaseTest {
         assertEquals(stringsExpected, stringsResult);
     }
 
+    @Test public void testDecodedIfElse() throws Exception {
+        String template = "go: <if(name)>hi, foo<else>bye<endif>";
+        CompiledST code = new Compiler().compile(template);
+        DecodedCode decoded = code.getDecodedCode();
+        int[] addrs = new int[decoded.refs.length];
+        int[] opnds = new int[decoded.refs.length];
+        for (int i = 0; i < addrs.length; i++) {
+            addrs[i] = decoded.code[i*DecodedCode.SLOT+DecodedCode.ADDR];
+            opnds[i] = decoded.code[i*DecodedCode.SLOT+DecodedCode.OPND1];
+        }
+        assertEquals("[0, 3, 6, 9, 12, 15]", Arrays.toString(addrs));
+        // brf jumps to instruction 5, br to the end
+        assertEquals("[0, 1, 5, 2, 6, 3]", Arrays.toString(opnds));
+        assertEquals("[go: , name, null, hi, foo, null, bye]", Arrays.toString(decoded.refs));
+    }
+
+    @Test public void testMaxStackDepth() throws Exception {
+        assertEquals(0, new Compiler().compile("hi").maxStackDepth);
+        assertEquals(1, new Compiler().compile("<if(a)><a><endif>").maxStackDepth);
+        // list, then two elements: the list stays under each as it's added
+        assertEquals(2, new Compiler().compile("<[a,b]>").maxStackDepth);
+        // the mapped a, its options and then the separator
+        assertEquals(3, new Compiler().compile("<a:t(); separator=sep>").maxStackDepth);
+    }
+
+    @Test(expected=STException.class) public void testVerifierRejectsUnderflow() throws Exception {
+        CompiledST code = new CompiledST();
+        code.name = "bad";
+        code.instrs = new byte[] {Bytecode.INSTR_WRITE};
+        code.codeSize = 1;
+        BytecodeVerifier.verify(code);
+    }
+
+    @Test(expected=STException.class) public void testVerifierRejectsBranchIntoOperand() throws Exception {
+        CompiledST code = new CompiledST();
+        code.name = "bad";
+        code.instrs = new byte[] {Bytecode.INSTR_BR, 0, 1};
+        code.codeSize = 3;
+        BytecodeVerifier.verify(code);
+    }
+
     @Test public void testIfElse() throws Exception {
         String template = "go: <if(name)>hi, foo<else>bye<endif>";
         CompiledST code = new Compiler().compile(template);
@@ -463,12 +504,39 @@ public class TestCompiler extends BaseTest {
         String template = "hi <name; separator=\"x\">";
         CompiledST code = new Compiler().compile(template);
         String asmExpected =
-            "write_str 0, load_attr 1, options, load_str 2, store_option 3, write_opt";
+            "write_str 0, load_attr 1, write_const_opt 0";
         String asmResult = code.instrs();
         assertEquals(asmExpected, asmResult);
         String stringsExpected = "[hi , name, x]";
         String stringsResult = Arrays.toString(code.strings);
         assertEquals(stringsExpected, stringsResult);
+        String optionsExpected = "[null, null, null, x, null]";
+        String optionsResult = Arrays.toString(code.constantOptions[0]);
+        assertEquals(optionsExpected, optionsResult);
+    }
+
+    @Test public void testDefaultOptionsAreConstant() throws Exception {
+        String template = "<name; anchor, wrap>";
+        CompiledST code = new Compiler().compile(template);
+        String asmExpected =
+            "load_attr 0, write_const_opt 0";
+        String asmResult = code.instrs();
+        assertEquals(asmExpected, asmResult);
+        String optionsExpected = "[true, null, null, null, \\n]";
+        String optionsResult = Misc.replaceEscapes(Arrays.toString(code.constantOptions[0]));
+        assertEquals(optionsExpected, optionsResult);
+    }
+
+    @Test public void testAutoEscape() throws Exception {
+        STGroup group = new STGroup('$', '$');
+        group.setAutoEscape(true);
+        String template = "<a href=\"/?q=$q$\" title=$t$>$name; separator=\", \"$</a>";
+        CompiledST code = new Compiler(group).compile(template);
+        String asmExpected =
+            "write_str 0, load_attr 1, write_esc 1, write_str 2, load_attr 3, write_esc 4, " +
+            "write_str 4, load_attr 5, escape 0, write_const_opt 0, write_str 7";
+        String asmResult = code.instrs();
+        assertEquals(asmExpected, asmResult);
     }
 
     @Test public void testOptionAsTemplate() throws Exception {
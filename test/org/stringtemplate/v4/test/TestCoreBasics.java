@@ -29,11 +29,16 @@ package org.stringtemplate.v4.test;
 
 import org.junit.Test;
 import org.stringtemplate.v4.AutoIndentWriter;
+import org.stringtemplate.v4.Interpreter;
 import org.stringtemplate.v4.NoIndentWriter;
+import org.stringtemplate.v4.NumberRenderer;
 import org.stringtemplate.v4.ST;
 import org.stringtemplate.v4.STGroup;
 import org.stringtemplate.v4.STGroupFile;
 import org.stringtemplate.v4.STGroupString;
+import org.stringtemplate.v4.compiler.CompiledST;
+import org.stringtemplate.v4.compiler.CompiledSTCache;
+import org.stringtemplate.v4.compiler.STException;
 import org.stringtemplate.v4.misc.ErrorBuffer;
 import org.stringtemplate.v4.misc.STNoSuchPropertyException;
 import org.stringtemplate.v4.misc.STRuntimeMessage;
@@ -46,6 +51,7 @@ import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 public class TestCoreBasics extends BaseTest {
     @Test public void testNullAttr() throws Exception {
@@ -66,6 +72,23 @@ public class TestCoreBasics extends BaseTest {
         assertEquals(expected, result);
     }
 
+    @Test public void testMoreArgsThanDefaultOperandStack() throws Exception {
+        int n = Interpreter.DEFAULT_OPERAND_STACK_SIZE*8;
+        StringBuilder params = new StringBuilder();
+        StringBuilder args = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            if ( i>0 ) { params.append(','); args.append(','); }
+            params.append('p').append(i);
+            args.append('x');
+        }
+        STGroup group = new STGroupString(
+            "t(x) ::= \"<u("+args+")>\"\n" +
+            "u("+params+") ::= \"<p0><p"+(n-1)+">\"\n");
+        ST st = group.getInstanceOf("t");
+        st.add("x", "y");
+        assertEquals("yy", st.render());
+    }
+
     @Test public void testChainAttr() throws Exception {
         String template = "<x>:<names>!";
         ST st = new ST(template);
@@ -953,6 +976,26 @@ public class TestCoreBasics extends BaseTest {
         assertEquals(expected, result);
     }
 
+    @Test public void testWritePrimitiveArrays() throws Exception {
+        ST st = new ST("<a; separator=\",\"> <b; separator=\",\"> <c><d><e>");
+        st.add("a", new int[] { -1, 2, Integer.MAX_VALUE });
+        st.add("b", new double[] { 0.5, -2.0, 1e20 });
+        st.add("c", new long[] { 3, 4 });
+        st.add("d", new char[] { 'x', 'y' });
+        st.add("e", new boolean[] { true, false });
+        String expected = "-1,2,2147483647 0.5,-2.0,1.0E20 34xytruefalse";
+        assertEquals(expected, st.render());
+    }
+
+    @Test public void testWritePrimitiveArrayWithRenderer() throws Exception {
+        STGroup group = new STGroup();
+        group.registerRenderer(Number.class, new NumberRenderer());
+        group.defineTemplate("test", "xs", "<xs; format=\"%.1f\", separator=\" \"> <xs:{x | [<x>]}>");
+        ST st = group.getInstanceOf("test");
+        st.add("xs", new double[] { 1, 2.25 });
+        assertEquals("1.0 2.3 [1.0][2.25]", st.render());
+    }
+
     /** (...) forces early eval to string. early eval {@code <(x)>} using new
      *  STWriter derived from type of current STWriter. e.g., AutoIndentWriter.
      */
@@ -1072,4 +1115,100 @@ public class TestCoreBasics extends BaseTest {
         String actual = ST.format("<%1>:<%2>", n, p);
         assertEquals(expected, actual);
     }
+
+    @Test public void testRenderTracksAverageOutputSize() {
+        STGroup group = new STGroup();
+        ST st = new ST(group, "<x>");
+        assertEquals(0, st.impl.getAverageRenderSize());
+        st.add("x", "0123456789");
+        assertEquals("0123456789", st.render());
+        assertEquals(10, st.impl.getAverageRenderSize());
+        st.remove("x");
+        st.add("x", "012345678901234567890123456789012345678901234567890123456789012345678901234567890123456789");
+        st.render();
+        assertEquals(10 + (90 - 10) / 8, st.impl.getAverageRenderSize());
+        assertEquals(20 + 20 / 8, st.impl.getRenderSizeHint());
+        // later instances of the same ad hoc template start from there
+        ST st2 = new ST(group, "<x>");
+        assertEquals(20 + 20 / 8, st2.impl.getRenderSizeHint());
+        st2.add("x", "y");
+        assertEquals(20 + 20 / 8, st2.impl.getRenderSizeHint());
+    }
+
+    @Test public void testAdHocTemplatesAreCompiledOnce() {
+        STGroup group = new STGroup();
+        ST a = new ST(group, "hi <name>!");
+        a.add("name", "Ter");
+        ST b = new ST(group, "hi <name>!");
+        b.add("name", "Tom");
+        b.add("extra", "x"); // must not leak into a or later instances
+        ST c = new ST(group, "hi <name>!");
+        assertEquals(1, group.adHocTemplateCache.getMisses());
+        assertEquals(2, group.adHocTemplateCache.getHits());
+        assertEquals("hi Ter!", a.render());
+        assertEquals("hi Tom!", b.render());
+        assertEquals("hi !", c.render());
+        assertEquals(1, a.impl.formalArguments.size());
+        assertEquals(null, c.impl.formalArguments);
+        // instances that don't define arguments share the cached code
+        assertSame(c.impl, new ST(group, "hi <name>!").impl);
+    }
+
+    @Test public void testAdHocCacheHonorsDelimiters() {
+        STGroup group = new STGroup();
+        ST a = new ST(group, "<x> $x$");
+        a.add("x", "1");
+        group.delimiterStartChar = '$';
+        group.delimiterStopChar = '$';
+        ST b = new ST(group, "<x> $x$");
+        b.add("x", "1");
+        assertEquals(2, group.adHocTemplateCache.getMisses());
+        assertEquals("1 $x$", a.render());
+        assertEquals("<x> 1", b.render());
+    }
+
+    @Test public void testAdHocTemplateWithSubtemplateAfterUnload() {
+        STGroup group = new STGroup();
+        ST a = new ST(group, "<names:{n | [<n>]}>");
+        a.add("names", new String[] {"a", "b"});
+        assertEquals("[a][b]", a.render());
+        group.unload();
+        ST b = new ST(group, "<names:{n | [<n>]}>");
+        b.add("names", new String[] {"c"});
+        assertEquals("[c]", b.render());
+        assertEquals(2, group.adHocTemplateCache.getMisses());
+    }
+
+    @Test public void testAdHocTemplateWithSyntaxErrorNotCached() {
+        STGroup group = new STGroup();
+        ErrorBuffer errors = new ErrorBuffer();
+        group.setListener(errors);
+        for (int i = 0; i < 2; i++) {
+            try {
+                new ST(group, "hi <> ");
+            }
+            catch (STException se) {
+                // expected
+            }
+        }
+        assertEquals(0, group.adHocTemplateCache.size());
+        assertEquals(2, errors.errors.size());
+    }
+
+    @Test public void testFormatCachesCodeWithArguments() {
+        CompiledSTCache cache = STGroup.defaultGroup.adHocTemplateCache;
+        String template = "<%1>-<%2> testFormatCachesCodeWithArguments";
+        assertEquals("1-2 testFormatCachesCodeWithArguments", ST.format(template, 1, 2));
+        long hits = cache.getHits();
+        long misses = cache.getMisses();
+        assertEquals("3-4 testFormatCachesCodeWithArguments", ST.format(template, 3, 4));
+        assertEquals(hits+1, cache.getHits()); // the code, with arg1 and arg2 defined
+        assertEquals(misses, cache.getMisses());
+        CompiledST code = cache.get('<', '>', "<arg1>-<arg2> testFormatCachesCodeWithArguments", 2);
+        assertEquals(2, code.formalArguments.size());
+        // another number of arguments gets its own code
+        assertEquals("5-6 testFormatCachesCodeWithArguments", ST.format(template, 5, 6, 7));
+        assertEquals(3, cache.get('<', '>', "<arg1>-<arg2> testFormatCachesCodeWithArguments", 3)
+                          .formalArguments.size());
+    }
 }
@@ -113,6 +113,25 @@ public class TestDollarDelimiters extends BaseTest {
         assertEquals(expecting, result);
     }
 
+    @Test public void testDefaultArgumentInParensToEvalEarly() throws Exception {
+        class Counter {
+            int n = 0;
+            @Override
+            public String toString() {
+                return String.valueOf(n++);
+            }
+        }
+        String templates =
+                "delimiters \"$\", \"$\""+newline+
+                "A(x) ::= \"$B()$\""+newline+
+                "B(y={$(x)$}) ::= \"$y$ $x$ $x$ $y$\""+newline
+                ;
+        STGroup group = new STGroupString(templates);
+        ST a = group.getInstanceOf("A");
+        a.add("x", new Counter());
+        assertEquals("0 1 2 0", a.render());
+    }
+
     /**
      * This is part of a regression test for antlr/stringtemplate4#46.
      * https://github.com/antlr/stringtemplate4/issues/46
@@ -0,0 +1,133 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.test;
+
+import org.junit.Test;
+import org.stringtemplate.v4.NumberRenderer;
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.STGroupDir;
+import org.stringtemplate.v4.STGroupFile;
+import org.stringtemplate.v4.misc.ObjectModelAdaptor;
+
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestFrozenGroups extends BaseTest {
+    STGroup loadGroups() {
+        writeFile(tmpdir, "base.stg",
+                  "a(x, names) ::= \"base <x> <b()>\"\n" +
+                  "b() ::= \"base b <m.k>\"\n" +
+                  "m ::= [\"k\":\"v\"]\n");
+        writeFile(tmpdir, "main.stg",
+                  "import \"base.stg\"\n" +
+                  "b() ::= \"main b <m.k> <names:{n | <n>}; separator=\\\",\\\">\"\n");
+        STGroup group = new STGroupFile(tmpdir+"/main.stg");
+        group.registerRenderer(Integer.class, new NumberRenderer());
+        return group;
+    }
+
+    @Test public void testFrozenGroupRendersTheSame() throws Exception {
+        STGroup group = loadGroups();
+        group.freeze();
+        assertTrue(group.isFrozen());
+        assertTrue(group.getImportedGroups().get(0).isFrozen());
+        ST st = group.getInstanceOf("a");
+        st.add("x", 3);
+        st.add("names", new String[] {"p", "q"});
+        assertEquals("base 3 main b v p,q", st.render());
+        assertNull(group.getInstanceOf("missing"));
+        assertNull(group.getInstanceOf("missing"));
+    }
+
+    @Test public void testMutatingFrozenGroupFails() throws Exception {
+        final STGroup group = loadGroups();
+        group.freeze();
+        Runnable[] mutations = {
+            new Runnable() { public void run() { group.defineTemplate("c", "c"); } },
+            new Runnable() { public void run() { group.defineDictionary("d", new HashMap<String, Object>()); } },
+            new Runnable() { public void run() { group.importTemplates(new STGroup()); } },
+            new Runnable() { public void run() { group.registerRenderer(Long.class, new NumberRenderer()); } },
+            new Runnable() { public void run() { group.registerModelAdaptor(Long.class, new ObjectModelAdaptor<Long>()); } },
+            new Runnable() { public void run() { group.undefineTemplate("/b"); } },
+            new Runnable() { public void run() { group.unload(); } },
+            new Runnable() { public void run() { group.getImportedGroups().get(0).defineTemplate("c", "c"); } },
+        };
+        for (Runnable mutation : mutations) {
+            try {
+                mutation.run();
+                fail("expected IllegalStateException");
+            }
+            catch (IllegalStateException expected) {
+            }
+        }
+        assertEquals("main b v ", group.getInstanceOf("b").render());
+    }
+
+    @Test public void testFreezeCompilesLazyTemplates() throws Exception {
+        writeFile(tmpdir, "lazy.stg", "a() ::= \"<b()>\"\nb() ::= \"b\"\n");
+        STGroupFile group = new STGroupFile(tmpdir+"/lazy.stg");
+        group.setLazyLoading(true);
+        group.freeze();
+        assertNotNull(group.rawGetTemplate("/a"));
+        assertNotNull(group.rawGetTemplate("/b"));
+        assertEquals("b", group.getInstanceOf("a").render());
+    }
+
+    @Test public void testFreezeLoadsGroupDir() throws Exception {
+        String dir = tmpdir+"/frozen";
+        writeFile(dir, "a.st", "a() ::= <<a <sub/b()> <g/c()> >>\n");
+        writeFile(dir+"/sub", "b.st", "b() ::= <<b>>\n");
+        writeFile(dir, "g.stg", "c() ::= \"c\"\nd() ::= \"d\"\n");
+        STGroup group = new STGroupDir(dir);
+        assertNotNull(group.lookupTemplate("/g/d")); // loads g.stg before freezing
+        group.freeze();
+        assertNotNull(group.rawGetTemplate("/sub/b"));
+        assertNotNull(group.rawGetTemplate("/g/c"));
+        assertEquals("a b c ", group.getInstanceOf("a").render());
+    }
+
+    @Test public void testAdHocTemplateOnFrozenGroup() throws Exception {
+        STGroup group = loadGroups();
+        group.freeze();
+        ST st = new ST(group, "<b()>!");
+        st.add("names", "n");
+        assertEquals("main b v n!", st.render());
+        try {
+            new ST(group, "<names:{n | <n>}>");
+            fail("expected IllegalStateException");
+        }
+        catch (IllegalStateException expected) {
+        }
+    }
+}
@@ -32,14 +32,19 @@ import org.junit.*;
 import org.stringtemplate.v4.ST;
 import org.stringtemplate.v4.STGroup;
 import org.stringtemplate.v4.STGroupFile;
+import org.stringtemplate.v4.misc.ListWindow;
+import org.stringtemplate.v4.misc.PrimitiveArrayIterator;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class TestFunctions extends BaseTest {
     @Test public void testFirst() throws Exception {
@@ -219,6 +224,46 @@ public class TestFunctions extends BaseTest {
         assertEquals(expecting, e.render());
     }
 
+    @Test public void testRecursiveRestOfArray() throws Exception {
+        STGroup group = new STGroup();
+        group.defineTemplate("list", "xs", "<if(xs)><first(xs)> <list(rest(xs))><endif>");
+        ST e = group.getInstanceOf("list");
+        e.add("xs", new int[] { 1, 2, 3, 4, 5 });
+        String expecting = "1 2 3 4 5 ";
+        assertEquals(expecting, e.render());
+    }
+
+    @Test public void testReverseOfRestAndTrunc() throws Exception {
+        ST e = new ST(
+                "<reverse(rest(trunc(names))); separator=\",\"> <length(rest(names))> <last(reverse(names))>"
+            );
+        e.add("names", new String[] { "a", "b", "c", "d" });
+        String expecting = "c,b 3 a";
+        assertEquals(expecting, e.render());
+    }
+
+    @Test public void testWindowsOfPrimitiveArrays() throws Exception {
+        ST e = new ST("<reverse(rest(trunc(xs))); separator=\",\"> <strip(reverse(xs))>");
+        e.add("xs", new int[] { 1, 2, 3, 4 });
+        assertEquals("3,2 4321", e.render());
+        // iterated without boxing so the interpreter can write them directly
+        Iterator<Object> it = ListWindow.over(new int[] { 1, 2, 3, 4 }).window(1, 3).reverse().iterator();
+        assertTrue(it instanceof PrimitiveArrayIterator);
+        assertEquals("3", ((PrimitiveArrayIterator)it).nextString());
+        assertEquals(2, it.next());
+        assertFalse(it.hasNext());
+    }
+
+    @Test public void testReUseOfStripResult() throws Exception {
+        STGroup group = new STGroup();
+        group.defineTemplate("a", "names", "<b(strip(names))> <length(strip(names))>");
+        group.defineTemplate("b", "x", "<x>, <x>");
+        ST e = group.getInstanceOf("a");
+        e.add("names", new String[] { "a", null, "b" });
+        String expecting = "ab, ab 2";
+        assertEquals(expecting, e.render());
+    }
+
     @Test public void testReUseOfRestResult() throws Exception {
         String templates =
             "a(names) ::= \"<b(rest(names))>\""+newline+
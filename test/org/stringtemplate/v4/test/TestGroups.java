@@ -35,6 +35,7 @@ import org.stringtemplate.v4.STGroup;
 import org.stringtemplate.v4.STGroupDir;
 import org.stringtemplate.v4.STGroupFile;
 import org.stringtemplate.v4.STGroupString;
+import org.stringtemplate.v4.compiler.FormalArgument;
 import org.stringtemplate.v4.misc.ErrorBuffer;
 
 import java.io.File;
@@ -335,6 +336,24 @@ public class TestGroups extends BaseTest {
         assertEquals(expecting, result);
     }
 
+    @Test public void testDefaultArgumentKinds() throws Exception {
+        String templates =
+            "t(a,b=\"s\",c={<a>},d={<(a)>},e=[],f=true) ::= \"<a><b><c><d><e><f>\"\n";
+        STGroup group = new STGroupString(templates);
+        ST st = group.getInstanceOf("t");
+        st.add("a", "x");
+        assertEquals("xsxxtrue", st.render());
+        FormalArgument[] defaults = st.impl.defaultArguments;
+        assertEquals(5, defaults.length);
+        assertEquals("b", defaults[0].name);
+        assertEquals(FormalArgument.CONSTANT_DEFAULT, defaults[0].defaultKind);
+        assertEquals(FormalArgument.TEMPLATE_DEFAULT, defaults[1].defaultKind);
+        assertEquals(FormalArgument.EVALUATED_DEFAULT, defaults[2].defaultKind);
+        assertEquals(FormalArgument.CONSTANT_DEFAULT, defaults[3].defaultKind);
+        assertEquals(FormalArgument.CONSTANT_DEFAULT, defaults[4].defaultKind);
+        assertEquals(st.impl.numberOfArgsWithDefaultValues, defaults.length);
+    }
+
     @Test public void testDefaultArgumentAsSimpleTemplate() throws Exception {
         String templates =
                 "stat(name,value={99}) ::= \"x=<value>; // <name>\""+newline
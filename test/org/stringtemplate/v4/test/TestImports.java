@@ -38,6 +38,7 @@ import org.stringtemplate.v4.misc.ErrorBuffer;
 import java.io.File;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.Collections;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -747,4 +748,96 @@ public class TestImports extends BaseTest {
         String result = st.render();
         assertEquals(expected, result);
     }
+
+    @Test public void testImportResolutionFollowsChanges() throws Exception {
+        STGroup top = new STGroup();
+        STGroup middle = new STGroup();
+        STGroup bottom = new STGroup();
+        bottom.defineTemplate("t", "bottom");
+        middle.importTemplates(bottom);
+        top.importTemplates(middle);
+        assertEquals("bottom", top.getInstanceOf("t").render());
+        assertEquals(null, top.getInstanceOf("u"));
+
+        middle.defineTemplate("t", "middle"); // shadows bottom's t
+        assertEquals("middle", top.getInstanceOf("t").render());
+
+        STGroup other = new STGroup();
+        other.defineTemplate("u", "other");
+        bottom.importTemplates(other); // u was a miss; now it resolves
+        assertEquals("other", top.getInstanceOf("u").render());
+
+        middle.undefineTemplate("/t");
+        assertEquals("bottom", top.getInstanceOf("t").render());
+    }
+
+    @Test public void testTemplateDefinedInImportAfterMiss() throws Exception {
+        STGroup top = new STGroup();
+        STGroup middle = new STGroup();
+        STGroup bottom = new STGroup();
+        middle.importTemplates(bottom);
+        top.importTemplates(middle);
+        assertEquals(null, top.getInstanceOf("t"));
+        assertEquals(false, top.isDefined("t"));
+
+        bottom.defineTemplate("t", "bottom"); // was recorded as not found in top
+        assertEquals("bottom", top.getInstanceOf("t").render());
+        assertEquals("bottom", middle.getInstanceOf("t").render());
+    }
+
+    @Test public void testImportResolutionSearchesClosureDirectly() throws Exception {
+        STGroup top = new STGroup();
+        STGroup middle = new STGroup();
+        STGroup bottom = new STGroup();
+        bottom.defineTemplate("t", "bottom");
+        middle.importTemplates(bottom);
+        top.importTemplates(middle);
+        assertEquals("bottom", top.getInstanceOf("t").render());
+        assertEquals(null, top.getInstanceOf("u"));
+        assertEquals(null, middle.rawGetTemplate("/t"));
+        assertEquals(null, middle.rawGetTemplate("/u"));
+        assertEquals(null, middle.findResolvedTemplate("/t"));
+    }
+
+    @Test public void testImportDeeperInClosureShadowsCachedHit() throws Exception {
+        STGroup g = new STGroup();
+        STGroup h = new STGroup();
+        STGroup k = new STGroup();
+        STGroup x = new STGroup();
+        k.defineTemplate("t", "k");
+        x.defineTemplate("t", "x");
+        g.importTemplates(h);
+        g.importTemplates(k);
+        assertEquals("k", g.getInstanceOf("t").render());
+
+        h.importTemplates(x); // x now comes before k depth first
+        assertEquals("x", g.getInstanceOf("t").render());
+    }
+
+    @Test public void testImportedDictionaryResolutionFollowsChanges() throws Exception {
+        STGroup top = new STGroup();
+        STGroup middle = new STGroup();
+        STGroup bottom = new STGroup();
+        bottom.defineDictionary("d", Collections.<String,Object>singletonMap("k", "bottom"));
+        middle.importTemplates(bottom);
+        top.importTemplates(middle);
+        top.defineTemplate("t", "<d.k><e.k>");
+        assertEquals("bottom", top.getInstanceOf("t").render());
+
+        middle.defineDictionary("d", Collections.<String,Object>singletonMap("k", "middle"));
+        bottom.defineDictionary("e", Collections.<String,Object>singletonMap("k", "!"));
+        assertEquals("middle!", top.getInstanceOf("t").render());
+    }
+
+    @Test public void testUnloadForgetsImportedTemplates() throws Exception {
+        String dir = getRandomDir();
+        writeFile(dir, "main.stg", "import \"lib.stg\"\na() ::= \"<b()>\"\n");
+        writeFile(dir, "lib.stg", "b() ::= \"lib b\"\n");
+        STGroup group = new STGroupFile(dir+"/main.stg");
+        assertEquals("lib b", group.getInstanceOf("a").render());
+
+        writeFile(dir, "lib.stg", "b() ::= \"new lib b\"\n");
+        group.unload();
+        assertEquals("new lib b", group.getInstanceOf("a").render());
+    }
 }
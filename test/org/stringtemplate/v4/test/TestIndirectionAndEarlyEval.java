@@ -28,12 +28,19 @@
 package org.stringtemplate.v4.test;
 
 import org.junit.Test;
+import org.stringtemplate.v4.AutoIndentWriter;
 import org.stringtemplate.v4.ST;
 import org.stringtemplate.v4.STGroup;
 import org.stringtemplate.v4.STGroupFile;
+import org.stringtemplate.v4.STWriter;
 import org.stringtemplate.v4.misc.ErrorBuffer;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.*;
@@ -137,4 +144,42 @@ public class TestIndirectionAndEarlyEval extends BaseTest {
         String result = st.render();
         assertEquals(expected, result);
     }
+
+    public static class BracketWriter extends AutoIndentWriter {
+        public BracketWriter(Writer out) { super(out); }
+        @Override
+        public int write(String str) throws IOException {
+            return super.write("["+str+"]");
+        }
+    }
+
+    @Test public void testEarlyEvalUsesSameWriterSubclass() throws Exception {
+        STGroup group = new STGroup();
+        group.defineTemplate("foo", "hi");
+        group.defineTemplate("test", "<(foo())>");
+        ST st = group.getInstanceOf("test");
+        StringWriter sw = new StringWriter();
+        st.write(new BracketWriter(sw));
+        String expected = "[[hi]]"; // nested writer brackets too
+        assertEquals(expected, sw.toString());
+    }
+
+    @Test public void testEarlyEvalAsksWriterForNestedWriter() throws Exception {
+        STGroup group = new STGroup();
+        group.defineTemplate("foo", "hi");
+        group.defineTemplate("test", "<foo(); separator=foo()> <(foo())>");
+        ST st = group.getInstanceOf("test");
+        final List<Writer> nested = new ArrayList<Writer>();
+        StringWriter sw = new StringWriter();
+        st.write(new AutoIndentWriter(sw) {
+            @Override
+            public STWriter newNestedWriter(Writer out) {
+                nested.add(out);
+                return new AutoIndentWriter(out);
+            }
+        });
+        assertEquals("hi hi", sw.toString());
+        assertEquals(2, nested.size());
+        assertSame(nested.get(0), nested.get(1)); // buffer is reused
+    }
 }
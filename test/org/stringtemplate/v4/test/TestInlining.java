@@ -0,0 +1,164 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.test;
+
+import org.junit.Test;
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.STGroupString;
+import org.stringtemplate.v4.compiler.Bytecode;
+import org.stringtemplate.v4.compiler.CompiledST;
+import org.stringtemplate.v4.compiler.DecodedCode;
+import org.stringtemplate.v4.misc.ErrorBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestInlining extends BaseTest {
+    /** Does {@code name}'s linked code still call {@code callee}? */
+    static boolean calls(STGroup group, String name, String callee) {
+        DecodedCode code = group.rawGetTemplate(name).getLinkedCode();
+        for (int i = 0; i < code.refs.length; i++) {
+            if ( code.code[i*DecodedCode.SLOT]==Bytecode.INSTR_NEW &&
+                 code.refs[i].equals(callee) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Render t(x) with and without inlining; they must agree. */
+    static String render(String templates, Object x) {
+        STGroup plain = new STGroupString(templates);
+        plain.setMaxInlineSize(0);
+        ST st = plain.getInstanceOf("t");
+        st.add("x", x);
+        String expected = st.render();
+
+        STGroup group = new STGroupString(templates);
+        st = group.getInstanceOf("t");
+        st.add("x", x);
+        String result = st.render();
+        assertEquals(expected, result);
+        result = st.render(); // once more after linking
+        assertEquals(expected, result);
+        return result;
+    }
+
+    @Test public void testInlineTextAndArgs() throws Exception {
+        String templates =
+            "t(x) ::= <<\n" +
+            "<x><sep()><icon(x)>\n" +
+            "<sep()>\n" +
+            ">>\n" +
+            "sep() ::= \", \"\n" +
+            "icon(name) ::= <<\\<img src=\"<name>.png\"> >>\n";
+        assertEquals("a, <img src=\"a.png\"> \n, ", render(templates, "a"));
+        STGroup group = new STGroupString(templates);
+        group.getInstanceOf("t").render();
+        assertFalse(calls(group, "/t", "sep"));
+        assertFalse(calls(group, "/t", "icon"));
+    }
+
+    @Test public void testTemplateArgSeesCalleeArgs() throws Exception {
+        String templates =
+            "t(x) ::= \"<wrap(inner(), x)>\"\n" +
+            "wrap(a, y) ::= \"[<a>]\"\n" +
+            "inner() ::= \"<y>\"\n";
+        assertEquals("[Y]", render(templates, "Y"));
+    }
+
+    @Test public void testNullAndListArgs() throws Exception {
+        String templates =
+            "t(x) ::= \"<p(x)><p(\\\"s\\\")><p(false)>.\"\n" +
+            "p(v) ::= \"(<v>)\"\n";
+        assertEquals("()(s)(false).", render(templates, null));
+        assertEquals("(123)(s)(false).", render(templates, new int[] {1,2,3}));
+    }
+
+    @Test public void testBlankLinesAroundEmptyCallee() throws Exception {
+        String templates =
+            "t(x) ::= <<\n" +
+            "a\n" +
+            "<e()>\n" +
+            "b<e()>\n" +
+            "c\n" +
+            ">>\n" +
+            "e() ::= \"\"\n";
+        render(templates, null);
+    }
+
+    @Test public void testNotInlined() throws Exception {
+        String templates =
+            "t(x) ::= \"<big(x)><dflt()><attr()><nl(x)><x:sep()>\"\n" +
+            "big(a) ::= \"<a>,<a>,<a>,<a>,<a>\"\n" +
+            "dflt(v=\"d\") ::= \"<v>\"\n" +
+            "attr() ::= \"<x>\"\n" +
+            "nl(v) ::= <<\n" +
+            "<v>\n" +
+            "b\n" +
+            ">>\n" +
+            "sep() ::= \",\"\n";
+        render(templates, "x");
+        STGroup group = new STGroupString(templates);
+        group.getInstanceOf("t").render();
+        assertTrue(calls(group, "/t", "big"));
+        assertTrue(calls(group, "/t", "dflt"));
+        assertTrue(calls(group, "/t", "attr"));
+        assertTrue(calls(group, "/t", "nl"));
+    }
+
+    @Test public void testRedefinedCalleeIsRelinked() throws Exception {
+        STGroup group = new STGroupString("t() ::= \"a<sep()>b\"\n" + "sep() ::= \",\"\n");
+        assertEquals("a,b", group.getInstanceOf("t").render());
+        group.undefineTemplate("/sep");
+        group.defineTemplate("sep", ";");
+        assertEquals("a;b", group.getInstanceOf("t").render());
+        group.undefineTemplate("/sep");
+        ErrorBuffer errors = new ErrorBuffer();
+        group.setListener(errors);
+        assertEquals("ab", group.getInstanceOf("t").render());
+        assertEquals("context [/t] 1:2 no such template: /sep"+newline, errors.toString());
+    }
+
+    @Test public void testImportedCallee() throws Exception {
+        STGroup lib = new STGroupString("sep() ::= \",\"\n");
+        STGroup group = new STGroupString("t() ::= \"a<sep()>b\"\n");
+        group.importTemplates(lib);
+        assertEquals("a,b", group.getInstanceOf("t").render());
+        assertEquals("a,b", group.getInstanceOf("t").render());
+        assertFalse(calls(group, "/t", "sep"));
+        lib.undefineTemplate("/sep");
+        lib.defineTemplate("sep", ";");
+        assertEquals("a;b", group.getInstanceOf("t").render());
+        CompiledST t = group.rawGetTemplate("/t");
+        assertEquals(group.getLinkEpoch(), t.getLinkedCode().linkEpoch);
+    }
+}
@@ -188,6 +188,22 @@ public class TestInterptimeErrors extends BaseTest {
         assertEquals(expected, result);
     }
 
+    @Test public void testUndefinedPassThroughAttrWithDefaultNotError() throws Exception {
+        ErrorBuffer errors = new ErrorBuffer();
+
+        String templates =
+            "t() ::= \"<u(...)>\"\n"+
+            "u(y, x=\"dflt\") ::= \"<x><y>\"\n";
+
+        writeFile(tmpdir, "t.stg", templates);
+        STGroup group = new STGroupFile(tmpdir+"/"+"t.stg");
+        group.setListener(errors);
+        ST st = group.getInstanceOf("t");
+        assertEquals("dflt", st.render());
+        String expected = "context [/t] 1:1 could not pass through undefined attribute y"+newline;
+        assertEquals(expected, errors.toString());
+    }
+
     @Test public void testParallelAttributeIterationWithMissingArgs() throws Exception {
         ErrorBuffer errors = new ErrorBuffer();
         STGroup group = new STGroup();
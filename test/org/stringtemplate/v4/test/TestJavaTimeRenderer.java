@@ -0,0 +1,115 @@
+/*
+ [The "BSD license"]
+ Copyright (c) 2009 Terence Parr
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+ 1. Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+ 2. Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+ 3. The name of the author may not be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.stringtemplate.v4.test;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.stringtemplate.v4.DateRenderer;
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STGroup;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAccessor;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+/** java.time rendering; excluded from the test build on JDKs before 1.8. */
+public class TestJavaTimeRenderer extends BaseTest {
+
+    String javaVersion = System.getProperty("java.version");
+
+    // Make sure to use the US Locale during the tests
+    private Locale origLocale;
+
+    @Before
+    @Override
+    public void setUp() {
+        super.setUp();
+        origLocale = Locale.getDefault();
+        Locale.setDefault(Locale.US);
+    }
+
+    @After
+    public void tearDown() {
+        Locale.setDefault(origLocale);
+    }
+
+    @Test public void testDateRendererWithJavaTimeTypes() {
+        STGroup group = new STGroup();
+        group.registerRenderer(TemporalAccessor.class, new DateRenderer());
+        ST st = new ST(group,
+            "<d; format=\"yyyy.MM.dd\"> <d; format=\"date:medium\"> <d> " +
+            "<dt; format=\"yyyy.MM.dd HH:mm\"> <dt; format=\"time:short\"> " +
+            "<z; format=\"yyyy.MM.dd HH:mm VV\"> <o; format=\"yyyy.MM.dd HH:mm xxx\">");
+        st.add("d", LocalDate.of(2005, 7, 5));
+        st.add("dt", LocalDateTime.of(2005, 7, 5, 13, 30));
+        st.add("z", ZonedDateTime.of(2005, 7, 5, 13, 30, 0, 0, ZoneId.of("Europe/Paris")));
+        st.add("o", OffsetDateTime.of(2005, 7, 5, 13, 30, 0, 0, ZoneOffset.ofHours(-7)));
+        String expecting =
+            "2005.07.05 Jul 5, 2005 7/5/05 2005.07.05 13:30 1:30 PM " +
+            "2005.07.05 13:30 Europe/Paris 2005.07.05 13:30 -07:00";
+        assertEquals(expecting, st.render());
+    }
+
+    @Test public void testDateRendererWithInstantUsesDefaultTimeZone() {
+        STGroup group = new STGroup();
+        group.registerRenderer(Instant.class, new DateRenderer());
+        ST st = new ST(group, "<t; format=\"yyyy-MM-dd HH:mm\">");
+        st.add("t", Instant.ofEpochSecond(0));
+        TimeZone origTimeZone = TimeZone.getDefault();
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("Asia/Tokyo"));
+            assertEquals("1970-01-01 09:00", st.render());
+        }
+        finally {
+            TimeZone.setDefault(origTimeZone);
+        }
+    }
+
+    @Test public void testDateRendererWithJavaTimeAndLocale() {
+        STGroup group = new STGroup();
+        group.registerRenderer(LocalDate.class, new DateRenderer());
+        ST st = new ST(group, "<date; format=\"dd 'de' MMMM 'de' yyyy\">");
+        st.add("date", LocalDate.of(2012, 6, 12));
+        String expected = "12 de junho de 2012";
+        if ( javaVersion.startsWith("1.8") ) {
+            expected = "12 de Junho de 2012";
+        }
+        assertEquals(expected, st.render(new Locale("pt")));
+        assertEquals("12 de June de 2012", st.render(Locale.US));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ [The "BSD license"]
+ Copyright (c) 2009 Terence Parr
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+ 1. Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+ 2. Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+ 3. The name of the author may not be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.stringtemplate.v4.test;
+
+import org.junit.Test;
+import org.stringtemplate.v4.STGroupFile;
+import org.stringtemplate.v4.misc.ErrorBuffer;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestLazyLoading extends BaseTest {
+    @Test public void testLazyLoading() throws Exception {
+        String templates =
+            "a(x=\"1\") ::= \"a<x> <@r()> <m.k>\"\n" +
+            "@a.r() ::= \"region\"\n" +
+            "b() ::= \"<oops(>\"\n" +
+            "c ::= a\n" +
+            "m ::= [\"k\":{v}]\n";
+        writeFile(tmpdir, "t.stg", templates);
+        ErrorBuffer errors = new ErrorBuffer();
+        STGroupFile group = new STGroupFile(tmpdir+"/t.stg");
+        group.setListener(errors);
+        group.setLazyLoading(true);
+        assertEquals("a1 region v", group.getInstanceOf("a").render());
+        assertEquals(null, group.rawGetTemplate("/b"));
+        assertEquals("a1 region v", group.getInstanceOf("c").render());
+        assertEquals("", errors.toString());
+        group.getInstanceOf("b");
+        assertEquals("t.stg 3:15: '>' came as a complete surprise to me"+newline, errors.toString());
+
+        STGroupFile eager = new STGroupFile(tmpdir+"/t.stg");
+        eager.setListener(new ErrorBuffer());
+        group.unload();
+        assertEquals(eager.show(), group.show());
+        assertEquals(eager.getTemplateNames(), group.getTemplateNames());
+    }
+
+    @Test public void testTemplateNamesWithoutCompiling() throws Exception {
+        writeFile(tmpdir, "t.stg", "a() ::= \"<b()>\"\nb() ::= \"b\"\nc ::= b\n");
+        STGroupFile group = new STGroupFile(tmpdir+"/t.stg");
+        group.setLazyLoading(true);
+        assertEquals(new HashSet<String>(Arrays.asList("/a", "/b", "/c")), group.getTemplateNames());
+        assertEquals(null, group.rawGetTemplate("/a"));
+        assertEquals("b", group.getInstanceOf("c").render());
+        assertEquals(new HashSet<String>(Arrays.asList("/a", "/b", "/c")), group.getTemplateNames());
+    }
+
+    @Test public void testSyntaxErrorsReportedOnLoad() throws Exception {
+        writeFile(tmpdir, "t.stg", "a() ::= \"a\"\nb( ::= \"b\"\n");
+        ErrorBuffer errors = new ErrorBuffer();
+        STGroupFile group = new STGroupFile(tmpdir+"/t.stg");
+        group.setListener(errors);
+        group.setLazyLoading(true);
+        group.load();
+        STGroupFile eager = new STGroupFile(tmpdir+"/t.stg");
+        ErrorBuffer eagerErrors = new ErrorBuffer();
+        eager.setListener(eagerErrors);
+        eager.load();
+        assertEquals(eagerErrors.toString(), errors.toString());
+        assertEquals("a", group.getInstanceOf("a").render());
+    }
+}
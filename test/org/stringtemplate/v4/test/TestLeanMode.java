@@ -0,0 +1,118 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.test;
+
+import org.junit.Test;
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.STGroupFile;
+import org.stringtemplate.v4.compiler.CompiledST;
+import org.stringtemplate.v4.compiler.RetainedSizeReport;
+import org.stringtemplate.v4.misc.ErrorBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestLeanMode extends BaseTest {
+    static final String templates =
+        "t(names, sep={, }) ::= <<\n" +
+        "[<names:{n | <n><if(n)>!<endif>}; separator=sep>]<@r()>\n" +
+        ">>\n" +
+        "@t.r() ::= \"<u()>\"\n" +
+        "u() ::= \"<x>\"\n";
+
+    STGroup load(boolean lean, ErrorBuffer errors) throws Exception {
+        writeFile(tmpdir, "t.stg", templates);
+        STGroup group = new STGroupFile(tmpdir+"/t.stg");
+        group.setListener(errors);
+        group.setLean(lean);
+        return group;
+    }
+
+    String render(STGroup group) {
+        ST st = group.getInstanceOf("t");
+        st.add("names", "a");
+        st.add("names", "b");
+        return st.render();
+    }
+
+    @Test public void testLeanRendersTheSame() throws Exception {
+        ErrorBuffer errors = new ErrorBuffer();
+        ErrorBuffer leanErrors = new ErrorBuffer();
+        String expected = render(load(false, errors));
+        assertEquals("[a!, b!]", expected);
+        assertEquals(expected, render(load(true, leanErrors)));
+        assertEquals("context [/t /region__/t__r /u] 1:1 attribute x isn't defined"+newline,
+                     leanErrors.toString());
+        assertEquals(errors.toString(), leanErrors.toString());
+    }
+
+    @Test public void testLeanTemplatesDropDebugInfo() throws Exception {
+        STGroup group = load(true, new ErrorBuffer());
+        group.getInstanceOf("t");
+        CompiledST code = group.lookupTemplate("/t");
+        assertNull(code.ast);
+        assertNull(code.tokens);
+        assertNull(code.sourceMap);
+        assertEquals(code.codeSize, code.instrs.length);
+        for (CompiledST sub : code.implicitlyDefinedTemplates) {
+            assertNull(sub.ast);
+            assertEquals(sub.codeSize, sub.instrs.length);
+        }
+        // disassembly still maps code back to the template
+        assertTrue(code.disasm().contains("\"<names:{n | <n><if(n)>!<endif>}; separator=sep>\""));
+    }
+
+    @Test public void testSourceIntervalsSurvivePacking() throws Exception {
+        STGroup group = new STGroup();
+        CompiledST code = group.compile(null, "t", null, "hi <name> and <names:{n | <n>}>", null);
+        String before = code.disasm();
+        code.makeLean();
+        assertEquals(before, code.disasm());
+        assertNull(code.getSourceInterval(code.codeSize));
+    }
+
+    @Test public void testRetainedSizeReport() throws Exception {
+        STGroup group = load(false, new ErrorBuffer());
+        render(group);
+        RetainedSizeReport full = group.getRetainedSizeReport();
+        STGroup leanGroup = load(true, new ErrorBuffer());
+        render(leanGroup);
+        RetainedSizeReport lean = leanGroup.getRetainedSizeReport();
+
+        assertEquals(full.templates, lean.templates);
+        assertTrue(full.astBytes>0 && full.tokenBytes>0 && full.unusedCodeBytes>0);
+        assertEquals(0, lean.astBytes + lean.tokenBytes + lean.unusedCodeBytes);
+        assertEquals(0, lean.getLeanSavings());
+        assertTrue(full.decodedCodeBytes>0);
+        assertEquals(full.decodedCodeBytes, lean.decodedCodeBytes); // lean mode keeps it
+        assertEquals(full.getTotalBytes() - full.getLeanSavings(), lean.getTotalBytes());
+        assertTrue(full.toString().startsWith("t: "+full.templates+" templates"));
+    }
+}
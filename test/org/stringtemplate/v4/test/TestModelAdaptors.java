@@ -3,6 +3,8 @@ package org.stringtemplate.v4.test;
 import org.junit.*;
 
 import org.stringtemplate.v4.*;
+import org.stringtemplate.v4.misc.ErrorType;
+import org.stringtemplate.v4.misc.ObjectModelAdaptor;
 import org.stringtemplate.v4.misc.STNoSuchPropertyException;
 import org.stringtemplate.v4.misc.STRuntimeMessage;
 
@@ -33,6 +35,28 @@ public class TestModelAdaptors extends BaseTest {
         }
     }
 
+    static class UserAdaptorNoThrow implements ModelAdaptor<User> {
+        @Override
+        public Object getProperty(Interpreter interp, ST self, User model, Object property, String propertyName) {
+            if ( propertyName.equals("id") ) return model.id;
+            return NO_SUCH_PROPERTY;
+        }
+    }
+
+    static class FallbackAdaptor extends ObjectModelAdaptor<User> {
+        @Override
+        public Object getProperty(Interpreter interp, ST self, User model, Object property, String propertyName)
+            throws STNoSuchPropertyException
+        {
+            try {
+                return super.getProperty(interp, self, model, property, propertyName);
+            }
+            catch (STNoSuchPropertyException e) {
+                return "fallback "+propertyName;
+            }
+        }
+    }
+
     static class SuperUser extends User {
         int bitmask;
         public SuperUser(int id, String name) {
@@ -158,4 +182,63 @@ public class TestModelAdaptors extends BaseTest {
         String result = st.render();
         assertEquals(expecting, result);
     }
+
+    @Test public void testAdaptorReturningNoSuchProperty() throws Exception {
+        ErrorBufferAllErrors errors = new ErrorBufferAllErrors();
+        String templates =
+                "foo(x) ::= \"<x.id><x.qqq>\"\n";
+        writeFile(tmpdir, "foo.stg", templates);
+        STGroup group = new STGroupFile(tmpdir+"/foo.stg");
+        group.setListener(errors);
+        group.registerModelAdaptor(User.class, new UserAdaptorNoThrow());
+        ST st = group.getInstanceOf("foo");
+        st.add("x", new User(100, "parrt"));
+        assertEquals("100", st.render());
+
+        assertEquals(1, errors.errors.size());
+        STRuntimeMessage msg = (STRuntimeMessage)errors.errors.get(0);
+        assertEquals(ErrorType.NO_SUCH_PROPERTY, msg.error);
+        assertEquals(User.class.getName()+".qqq", msg.arg);
+        STNoSuchPropertyException e = (STNoSuchPropertyException)msg.cause;
+        assertEquals(User.class.getName()+".qqq", e.propertyName);
+    }
+
+    @Test public void testObjectAdaptorMissReportsSameError() throws Exception {
+        ErrorBufferAllErrors errors = new ErrorBufferAllErrors();
+        STGroup group = new STGroup();
+        group.setListener(errors);
+        group.defineTemplate("foo", "x", "<x.qqq>");
+        ST st = group.getInstanceOf("foo");
+        st.add("x", new User(100, "parrt"));
+        assertEquals("", st.render());
+
+        STRuntimeMessage msg = (STRuntimeMessage)errors.errors.get(0);
+        assertEquals("context [/foo] 1:1 no such property or can't access: "+
+                     User.class.getName()+".qqq", msg.toString().split("\n")[0].trim());
+        STNoSuchPropertyException e = (STNoSuchPropertyException)msg.cause;
+        assertEquals(User.class.getName()+".qqq", e.propertyName);
+    }
+
+    @Test public void testObjectAdaptorSubclassCatchesMiss() throws Exception {
+        ErrorBufferAllErrors errors = new ErrorBufferAllErrors();
+        STGroup group = new STGroup();
+        group.setListener(errors);
+        group.registerModelAdaptor(User.class, new FallbackAdaptor());
+        group.defineTemplate("foo", "x", "<x.id>, <x.qqq>");
+        ST st = group.getInstanceOf("foo");
+        st.add("x", new User(100, "parrt"));
+        assertEquals("100, fallback qqq", st.render());
+        assertEquals(0, errors.errors.size());
+    }
+
+    @Test public void testObjectAdaptorMissHasNoStackTrace() throws Exception {
+        try {
+            new ObjectModelAdaptor<User>().getProperty(null, null, new User(100, "parrt"), "qqq", "qqq");
+            Assert.fail("expected a miss");
+        }
+        catch (STNoSuchPropertyException e) {
+            assertEquals(User.class.getName()+".qqq", e.propertyName);
+            assertEquals(0, e.getStackTrace().length);
+        }
+    }
 }
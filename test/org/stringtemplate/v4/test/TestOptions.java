@@ -33,6 +33,10 @@ import org.stringtemplate.v4.ST;
 import org.stringtemplate.v4.STGroup;
 import org.stringtemplate.v4.misc.ErrorBuffer;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
 import static org.junit.Assert.assertEquals;
 
 public class TestOptions extends BaseTest {
@@ -196,4 +200,20 @@ public class TestOptions extends BaseTest {
         expected = "[test 1:7: no such option: bad]";
         assertEquals(expected, errors.errors.toString());
     }
+
+    @Test public void testNestedOptionsWithConstantAndComputedValues() throws Exception {
+        STGroup group = new STGroup();
+        group.defineTemplate("item", "x,sep", "[<x; separator=sep>]");
+        group.defineTemplate("test", "names", "<names:{n | <item(x=n.kids, sep=\"/\")>}; separator=\", \">");
+        ST st = group.getInstanceOf("test");
+        Map<String, Object> a = new HashMap<String, Object>();
+        a.put("kids", Arrays.asList("x", "y"));
+        Map<String, Object> b = new HashMap<String, Object>();
+        b.put("kids", Arrays.asList("z"));
+        st.add("names", a);
+        st.add("names", b);
+        String expected = "[x/y], [z]";
+        assertEquals(expected, st.render());
+        assertEquals(expected, st.render()); // reused frames render the same
+    }
 }
@@ -0,0 +1,165 @@
+/*
+ [The "BSD license"]
+ Copyright (c) 2009 Terence Parr
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+ 1. Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+ 2. Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+ 3. The name of the author may not be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.stringtemplate.v4.test;
+
+import org.junit.Test;
+import org.stringtemplate.v4.*;
+import org.stringtemplate.v4.misc.*;
+
+import java.io.StringWriter;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestRenderLimits extends BaseTest {
+    /** A huge list that never materializes its elements. */
+    static List<Integer> range(final int n) {
+        return new AbstractList<Integer>() {
+            @Override public Integer get(int i) { return i; }
+            @Override public int size() { return n; }
+        };
+    }
+
+    @Test public void testNoLimitsRendersEverything() throws Exception {
+        ST st = new ST("<xs; separator=\",\">");
+        st.add("xs", Arrays.asList(1, 2, 3));
+        assertEquals("1,2,3", st.render(new RenderOptions()));
+    }
+
+    @Test public void testMaxInstructions() throws Exception {
+        STGroup group = new STGroup();
+        ErrorBuffer errors = new ErrorBuffer();
+        group.setListener(errors);
+        ST st = new ST(group, "<xs>");
+        st.add("xs", range(Integer.MAX_VALUE));
+        RenderOptions options = new RenderOptions();
+        options.setMaxInstructions(3);
+        assertEquals("0", st.render(options)); // load_attr, write, 1st element
+        String expected =
+            "context [anonymous] 1:0 render aborted: more than 3 instructions executed"+newline;
+        assertEquals(expected, errors.toString());
+    }
+
+    @Test public void testMaxInstructionsInIteration() throws Exception {
+        STGroup group = new STGroup();
+        ErrorBuffer errors = new ErrorBuffer();
+        group.setListener(errors);
+        ST st = new ST(group, "<xs:{x | <x>}>");
+        st.add("xs", range(Integer.MAX_VALUE));
+        RenderOptions options = new RenderOptions();
+        options.setMaxInstructions(1000);
+        String result = st.render(options);
+        assertEquals("", result); // stopped while mapping, before any output
+        assertEquals(1, errors.errors.size());
+        assertTrue(errors.toString().contains("render aborted: more than 1000 instructions executed"));
+    }
+
+    @Test public void testMaxOutputChars() throws Exception {
+        STGroup group = new STGroup();
+        ErrorBuffer errors = new ErrorBuffer();
+        group.setListener(errors);
+        group.defineTemplate("item", "x", "[<x>]");
+        ST st = new ST(group, "<xs:item()>");
+        st.add("xs", range(1000));
+        RenderOptions options = new RenderOptions();
+        options.setMaxOutputChars(100);
+        options.setCheckInterval(1);
+        String result = st.render(options);
+        assertEquals(101, result.length());
+        assertEquals(1, errors.errors.size());
+        assertTrue(errors.toString().contains("render aborted: more than 100 chars written"));
+    }
+
+    @Test public void testMaxNestingDepth() throws Exception {
+        STGroup group = new STGroup();
+        ErrorBuffer errors = new ErrorBuffer();
+        group.setListener(errors);
+        group.defineTemplate("f", "n", "(<f(n)>)");
+        ST st = group.getInstanceOf("f");
+        st.add("n", 1);
+        RenderOptions options = new RenderOptions();
+        options.setMaxNestingDepth(3);
+        assertEquals("(((", st.render(options));
+        String expected =
+            "context [/f /f /f /f] 1:0 render aborted: template nesting depth exceeds 3"+newline;
+        assertEquals(expected, errors.toString());
+    }
+
+    @Test public void testDeadline() throws Exception {
+        STGroup group = new STGroup();
+        ErrorBuffer errors = new ErrorBuffer();
+        group.setListener(errors);
+        ST st = new ST(group, "<xs>");
+        st.add("xs", range(Integer.MAX_VALUE));
+        RenderOptions options = new RenderOptions();
+        options.setDeadline(System.currentTimeMillis() - 1);
+        options.setCheckInterval(1);
+        st.render(options);
+        assertTrue(errors.toString().contains("render aborted: deadline passed"));
+    }
+
+    @Test public void testCancel() throws Exception {
+        STGroup group = new STGroup();
+        ErrorBuffer errors = new ErrorBuffer();
+        group.setListener(errors);
+        final RenderOptions options = new RenderOptions();
+        options.setCheckInterval(1);
+        ST st = new ST(group, "<xs>");
+        // stands in for another thread calling cancel() mid-render
+        st.add("xs", new AbstractList<Integer>() {
+            @Override public Integer get(int i) {
+                if ( i==3 ) options.cancel();
+                return i;
+            }
+            @Override public int size() { return Integer.MAX_VALUE; }
+        });
+        assertEquals("012", st.render(options));
+        String expected = "context [anonymous] 1:0 render aborted: cancelled"+newline;
+        assertEquals(expected, errors.toString());
+    }
+
+    @Test public void testInterpreterReusableAfterAbort() throws Exception {
+        STGroup group = new STGroup();
+        ErrorBuffer errors = new ErrorBuffer();
+        group.setListener(errors);
+        group.defineTemplate("f", "n", "(<f(n)>)");
+        RenderOptions options = new RenderOptions();
+        options.setMaxNestingDepth(2);
+        Interpreter interp = new Interpreter(group, false);
+        interp.setRenderOptions(options);
+        for (int i = 0; i < 2; i++) {
+            StringWriter sw = new StringWriter();
+            interp.exec(new AutoIndentWriter(sw), new InstanceScope(null, group.getInstanceOf("f")));
+            assertEquals("((", sw.toString());
+        }
+        assertEquals(2, errors.errors.size());
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.test;
+
+import org.junit.Test;
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.STGroupString;
+import org.stringtemplate.v4.debug.EvalTemplateEvent;
+import org.stringtemplate.v4.debug.InterpEvent;
+import org.stringtemplate.v4.debug.RenderTrace;
+import org.stringtemplate.v4.debug.RenderTracer;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestRenderTracer extends BaseTest {
+    @Test public void testSamplesOneInN() throws Exception {
+        STGroup group = new STGroupString("t(x) ::= <<[<x>]>>\n");
+        RenderTracer tracer = new RenderTracer(3, 10);
+        group.setTracer(tracer);
+        for (int i = 0; i<7; i++) {
+            ST st = group.getInstanceOf("t");
+            st.add("x", i);
+            st.render();
+        }
+        assertEquals(7, tracer.getRenderCount());
+        assertEquals(3, tracer.getTraceCount()); // renders 0, 3 and 6
+    }
+
+    @Test public void testRingBufferKeepsNewest() throws Exception {
+        STGroup group = new STGroupString("t(x) ::= <<[<x>]>>\n");
+        RenderTracer tracer = new RenderTracer(1, 2);
+        group.setTracer(tracer);
+        for (int i = 0; i<5; i++) {
+            ST st = group.getInstanceOf("t");
+            st.add("x", i);
+            st.render();
+        }
+        List<RenderTrace> traces = tracer.getTraces();
+        assertEquals(2, traces.size());
+        // each trace: '[', '<x>', ']' then t itself
+        assertEquals(4, traces.get(1).size());
+        assertEquals(RenderTrace.TEMPLATE, traces.get(1).getKind(3));
+        assertEquals(0, traces.get(1).getOutputStartChar(3));
+        assertEquals(2, traces.get(1).getOutputStopChar(3));
+    }
+
+    @Test public void testNestedTemplatesMatchDebugEvents() throws Exception {
+        String templates =
+            "t(x) ::= <<[<u()>]>>\n" +
+            "u() ::= <<(<x>)>>\n";
+        STGroup group = new STGroupString(templates);
+        RenderTracer tracer = new RenderTracer(1, 4);
+        group.setTracer(tracer);
+        ST st = group.getInstanceOf("t");
+        st.add("x", "hi");
+        assertEquals("[(hi)]", st.render());
+
+        RenderTrace trace = tracer.getTraces().get(0);
+        assertEquals("/t", trace.name);
+        List<InterpEvent> events = trace.toEvents(group);
+        String expected =
+            "[EvalExprEvent{self=/t(), expr='[', exprStartChar=0, exprStopChar=0, start=0, stop=0}," +
+            " EvalExprEvent{self=/u(), expr='(', exprStartChar=0, exprStopChar=0, start=1, stop=1}," +
+            " EvalExprEvent{self=/u(), expr='<x>', exprStartChar=1, exprStopChar=3, start=2, stop=3}," +
+            " EvalExprEvent{self=/u(), expr=')', exprStartChar=4, exprStopChar=4, start=4, stop=4}," +
+            " EvalTemplateEvent{self=/u(), start=1, stop=4}," +
+            " EvalExprEvent{self=/t(), expr='<u()>', exprStartChar=1, exprStopChar=5, start=1, stop=4}," +
+            " EvalExprEvent{self=/t(), expr=']', exprStartChar=6, exprStopChar=6, start=5, stop=5}," +
+            " EvalTemplateEvent{self=/t(), start=0, stop=5}]";
+        assertEquals(expected, events.toString());
+        assertEquals(st.getEvents().toString(), events.toString()); // same as debug mode
+        EvalTemplateEvent root = (EvalTemplateEvent)events.get(events.size()-1);
+        assertEquals(1, root.scope.childEvalTemplateEvents.size());
+        assertTrue(trace.toString().startsWith("render /t "));
+    }
+
+    @Test public void testMaxEventsPerTrace() throws Exception {
+        STGroup group = new STGroupString("t(x) ::= <<[<x>]>>\n");
+        RenderTracer tracer = new RenderTracer(1, 1, 2);
+        group.setTracer(tracer);
+        group.getInstanceOf("t").render();
+        RenderTrace trace = tracer.getTraces().get(0);
+        assertEquals(2, trace.size());
+        assertEquals(2, trace.getDroppedEvents());
+    }
+}
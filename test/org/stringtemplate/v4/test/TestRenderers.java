@@ -30,21 +30,31 @@ package org.stringtemplate.v4.test;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.stringtemplate.v4.AutoIndentWriter;
 import org.stringtemplate.v4.DateRenderer;
+import org.stringtemplate.v4.NoIndentWriter;
 import org.stringtemplate.v4.NumberRenderer;
 import org.stringtemplate.v4.ST;
 import org.stringtemplate.v4.STGroup;
 import org.stringtemplate.v4.STGroupFile;
 import org.stringtemplate.v4.StringRenderer;
 
+import java.io.StringWriter;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class TestRenderers extends BaseTest {
 
@@ -265,6 +275,44 @@ public class TestRenderers extends BaseTest {
         assertEquals(expecting, result);
     }
 
+    @Test public void testEscapingFormatsStreamIntoIndentedOutput() throws Exception {
+        String template =
+                "<ul>\n" +
+                "  $items:{it | <li>$it; format=\"xml-encode\"$</li>}; separator=\"\n\"$\n" +
+                "</ul> $q; format=\"url-encode\"$";
+        STGroup group = new STGroup('$', '$');
+        group.registerRenderer(String.class, new StringRenderer());
+        ST st = new ST(group, template);
+        st.add("items", "a<b");
+        st.add("items", "x &\ny");
+        st.add("q", "caf\u00e9 & co/\uD83D\uDE00");
+        String expecting =
+                "<ul>\n" +
+                "  <li>a&lt;b</li>\n" +
+                "  <li>x &amp;\n" +
+                "  y</li>\n" +
+                "</ul> caf%C3%A9+%26+co%2F%F0%9F%98%80";
+        StringWriter sw = new StringWriter();
+        st.write(new AutoIndentWriter(sw, "\n"));
+        assertEquals(expecting, sw.toString());
+        sw = new StringWriter();
+        st.write(new NoIndentWriter(sw));
+        assertEquals(expecting.replace("\n  ", "\n"), sw.toString().replace("\n  ", "\n"));
+    }
+
+    @Test public void testEscapingFormatsUseSubclassedStringRenderer() throws Exception {
+        STGroup group = new STGroup();
+        group.registerRenderer(String.class, new StringRenderer() {
+            @Override
+            public String toString(String value, String formatString, Locale locale) {
+                return "[" + super.toString(value, formatString, locale) + "]";
+            }
+        });
+        ST st = new ST(group, "<x; format=\"xml-encode\">");
+        st.add("x", "<");
+        assertEquals("[&lt;]", st.render());
+    }
+
     @Test public void testStringRendererWithPrintfFormat() throws Exception {
         String templates =
                 "foo(x) ::= << <x; format=\"%6s\"> >>\n";
@@ -329,6 +377,37 @@ public class TestRenderers extends BaseTest {
         assertEquals(expecting, result);
     }
 
+    @Test public void testNumberRendererCommonFormats() throws Exception {
+        String template =
+                "<x; format=\"%d\">|<x; format=\"%,d\">|<x; format=\"%8d\">|" +
+                "<y; format=\"%.2f\">|<y; format=\"%,.2f\">|<z; format=\"$%.2f each\">|" +
+                "<w; format=\"%.2f\">|<big; format=\"%,.1f\">";
+        STGroup group = new STGroup();
+        group.registerRenderer(Number.class, new NumberRenderer());
+        ST st = new ST(group, template);
+        st.add("x", -1234567L);
+        st.add("y", 9876.125);
+        st.add("z", 2.5f);
+        st.add("w", -0.001);
+        st.add("big", new BigDecimal("1234567.25"));
+        String expecting = "-1234567|-1,234,567|-1234567|9876.13|9,876.13|$2.50 each|-0.00|1,234,567.3";
+        assertEquals(expecting, st.render());
+        expecting = "-1234567|-1.234.567|-1234567|9876,13|9.876,13|$2,50 each|-0,00|1.234.567,3";
+        assertEquals(expecting, st.render(Locale.GERMANY));
+    }
+
+    @Test public void testNumberRendererFallsBackToFormatter() throws Exception {
+        String template = "<x; format=\"%+d\"> <x; format=\"%05d\"> <x; format=\"%x\"> " +
+                          "<y; format=\"%e\"> <y; format=\"%.2f%%\"> <n; format=\"%.1f\">";
+        STGroup group = new STGroup();
+        group.registerRenderer(Number.class, new NumberRenderer());
+        ST st = new ST(group, template);
+        st.add("x", 42);
+        st.add("y", 12.5);
+        st.add("n", Double.NaN);
+        assertEquals("+42 00042 2a 1.250000e+01 12.50% NaN", st.render());
+    }
+
     @Test public void testRendererWithFormatAndList() throws Exception {
         String template =
                 "The names: <names; format=\"upper\">";
@@ -389,4 +468,47 @@ public class TestRenderers extends BaseTest {
         }
         assertEquals(expected, st.render(new Locale("pt")));
     }
+
+    @Test public void testDateRendererReusesFormatAcrossTimeZones() {
+        STGroup group = new STGroup();
+        group.registerRenderer(Date.class, new DateRenderer());
+        ST st = new ST(group, "<d; format=\"HH:mm z\">");
+        st.add("d", new Date(0));
+        TimeZone origTimeZone = TimeZone.getDefault();
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+            assertEquals("00:00 UTC", st.render());
+            TimeZone.setDefault(TimeZone.getTimeZone("Asia/Tokyo"));
+            assertEquals("09:00 JST", st.render());
+        }
+        finally {
+            TimeZone.setDefault(origTimeZone);
+        }
+    }
+
+    @Test public void testDateRendererSharedByThreads() throws Exception {
+        final DateRenderer renderer = new DateRenderer();
+        List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+        for (int t = 0; t < 8; t++) {
+            final int day = t+1;
+            tasks.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    Calendar c = new GregorianCalendar(2005, 6, day);
+                    String expected = String.format("%02d.07.2005", day);
+                    for (int i = 0; i < 1000; i++) {
+                        if ( !expected.equals(renderer.toString(c, "dd.MM.yyyy", Locale.US)) ) return false;
+                    }
+                    return true;
+                }
+            });
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            for (Future<Boolean> f : pool.invokeAll(tasks)) assertTrue(f.get());
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
 }
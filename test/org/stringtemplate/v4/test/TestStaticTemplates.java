@@ -0,0 +1,203 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.test;
+
+import org.junit.Test;
+import org.stringtemplate.v4.AttributeRenderer;
+import org.stringtemplate.v4.AutoIndentWriter;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.STGroupString;
+import org.stringtemplate.v4.compiler.DecodedCode;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TestStaticTemplates extends BaseTest {
+    /** Can't take static text, so templates run as compiled. */
+    public static class CallingWriter extends AutoIndentWriter {
+        public CallingWriter(Writer out) { super(out, "\n"); }
+    }
+
+    /** Render {@code name} both ways; they must agree. */
+    static String render(STGroup group, String name) throws IOException {
+        StringWriter expected = new StringWriter();
+        group.getInstanceOf(name).write(new CallingWriter(expected));
+        for (int i = 0; i < 2; i++) { // first render fills in the text
+            StringWriter sw = new StringWriter();
+            group.getInstanceOf(name).write(new AutoIndentWriter(sw, "\n"));
+            assertEquals(expected.toString(), sw.toString());
+        }
+        return expected.toString();
+    }
+
+    /** Like {@link #render} with {@code x} set and a line width. */
+    static String render(STGroup group, String name, Object x, int lineWidth) throws IOException {
+        StringWriter expected = new StringWriter();
+        CallingWriter cw = new CallingWriter(expected);
+        cw.setLineWidth(lineWidth);
+        group.getInstanceOf(name).add("x", x).write(cw);
+        for (int i = 0; i < 2; i++) {
+            StringWriter sw = new StringWriter();
+            AutoIndentWriter w = new AutoIndentWriter(sw, "\n");
+            w.setLineWidth(lineWidth);
+            group.getInstanceOf(name).add("x", x).write(w);
+            assertEquals(expected.toString(), sw.toString());
+        }
+        return expected.toString();
+    }
+
+    static DecodedCode.StaticText staticText(STGroup group, String name) {
+        return group.getInstanceOf(name).impl.getLinkedCode().staticText;
+    }
+
+    @Test public void testStaticCallsIndented() throws Exception {
+        STGroup group = new STGroupString(
+            "t(x) ::= <<\n" +
+            "<x>\n" +
+            "  <footer()>\n" +
+            "end\n" +
+            ">>\n" +
+            "footer() ::= <<\n" +
+            "--\n" +
+            "  <legal()>\n" +
+            ">>\n" +
+            "legal() ::= <<\n" +
+            "line 1\n" +
+            "line 2\n" +
+            ">>\n");
+        assertEquals("  --\n" +
+                     "    line 1\n" +
+                     "    line 2\n" +
+                     "end", render(group, "t"));
+        assertNull(staticText(group, "t"));
+        assertNotNull(staticText(group, "footer"));
+        assertNotNull(staticText(group, "legal"));
+        assertEquals("--\n" +
+                     "  line 1\n" +
+                     "  line 2", render(group, "footer"));
+    }
+
+    @Test public void testIndentedFirstLineMidLine() throws Exception {
+        STGroup group = new STGroupString(
+            "t(x) ::= <<\n" +
+            "x<f()>\n" +
+            "<x><f()>\n" +
+            ">>\n" +
+            "f() ::= <<\n" +
+            "  <g()>\n" +
+            "  <g()>\n" +
+            ">>\n" +
+            "g() ::= \"g\"\n");
+        assertEquals("xg\n" +
+                     "  g\n" +
+                     "  g\n" +
+                     "  g", render(group, "t"));
+    }
+
+    @Test public void testEmptyLinesDropped() throws Exception {
+        STGroup group = new STGroupString(
+            "t(x) ::= <<\n" +
+            "a<x>\n" +
+            "<e()>\n" +
+            "b<e()>\n" +
+            "<nl()>\n" +
+            "c<nl()>\n" +
+            "d\n" +
+            ">>\n" +
+            "e() ::= \"\"\n" +
+            "nl() ::= <<\n" +
+            "<e()>\n" +
+            "\n" +
+            ">>\n");
+        assertEquals("a\n" +
+                     "b\n" +
+                     "c\n" +
+                     "d", render(group, "t"));
+    }
+
+    @Test public void testNotStatic() throws Exception {
+        STGroup group = new STGroupString(
+            "attr() ::= \"<x>\"\n" +
+            "arg(y) ::= \"y\"\n" +
+            "callsArg() ::= \"<arg(1)>\"\n" +
+            "loop() ::= \"<loop()>\"\n" +
+            "opts() ::= \"<e(); null=\\\"n\\\">\"\n" +
+            "e() ::= \"\"\n");
+        assertNull(staticText(group, "attr"));
+        assertNull(staticText(group, "arg"));
+        assertNull(staticText(group, "callsArg"));
+        assertNull(staticText(group, "loop"));
+        assertNull(staticText(group, "opts"));
+        assertNotNull(staticText(group, "e"));
+    }
+
+    @Test public void testRendererStopsStaticText() throws Exception {
+        STGroup group = new STGroupString("t() ::= \"a<u()>\"\n" + "u() ::= \"b\"\n");
+        assertEquals("ab", render(group, "t"));
+        group.registerRenderer(String.class, new AttributeRenderer<String>() {
+            @Override
+            public String toString(String value, String formatString, Locale locale) {
+                return value.toUpperCase();
+            }
+        });
+        assertNull(staticText(group, "t"));
+        assertEquals("AB", render(group, "t"));
+    }
+
+    @Test public void testRedefinedCallee() throws Exception {
+        STGroup group = new STGroupString("t() ::= \"<u()>!\"\n" + "u() ::= \"b\"\n");
+        assertEquals("b!", group.getInstanceOf("t").render());
+        group.undefineTemplate("/u");
+        group.defineTemplate("u", "c");
+        assertEquals("c!", group.getInstanceOf("t").render());
+    }
+
+    @Test public void testWrapAfterStaticTextWithNewlines() throws Exception {
+        STGroup group = new STGroupString(
+            "hdr() ::= <<\nHeader\n\n>>\n" +
+            "t(x) ::= \"<hdr()>ab <x; wrap, separator=\\\",\\\">\"\n");
+        assertNotNull(staticText(group, "hdr"));
+        assertEquals("Header\nab aaa,bbb,\nccc,ddd",
+                     render(group, "t", Arrays.asList("aaa", "bbb", "ccc", "ddd"), 10));
+    }
+
+    @Test public void testAnchorAfterStaticTextWithNewline() throws Exception {
+        STGroup group = new STGroupString(
+            "q() ::= <<\nq\n\n>>\n" +
+            "t(x) ::= \"<q()>ab <x; anchor, wrap, separator=\\\",\\\">\"\n");
+        assertEquals("q\nab aaa,bbb,\n   ccc,ddd",
+                     render(group, "t", Arrays.asList("aaa", "bbb", "ccc", "ddd"), 10));
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.test;
+
+import org.junit.Test;
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.STGroupString;
+import org.stringtemplate.v4.compiler.CompiledST;
+import org.stringtemplate.v4.compiler.StringPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TestStringPool extends BaseTest {
+    static final String templates =
+        "t(name) ::= <<\n" +
+        "Hello, <name>!<names:{n | <n; separator=\", \">}>\n" +
+        ">>\n";
+
+    STGroup group(StringPool pool) {
+        STGroup group = new STGroupString(templates);
+        group.setStringPool(pool);
+        return group;
+    }
+
+    @Test public void testGroupsShareConstants() throws Exception {
+        StringPool pool = new StringPool();
+        CompiledST a = group(pool).lookupTemplate("/t");
+        CompiledST b = group(pool).lookupTemplate("/t");
+        assertNotSame(a, b);
+        assertSame(a.template, b.template);
+        assertEquals(a.strings.length, b.strings.length);
+        for (int i = 0; i < a.strings.length; i++) {
+            // subtemplate names are unique per compilation
+            if ( a.strings[i].startsWith("_sub") ) continue;
+            assertSame(a.strings[i], b.strings[i]);
+        }
+        assertSame(a.formalArguments.keySet().iterator().next(),
+                   b.formalArguments.keySet().iterator().next());
+        CompiledST subA = a.implicitlyDefinedTemplates.get(0);
+        CompiledST subB = b.implicitlyDefinedTemplates.get(0);
+        String separatorA = null;
+        String separatorB = null;
+        for (int i = 0; i < subA.constantOptions[0].length; i++) {
+            if ( subA.constantOptions[0][i]!=null ) {
+                separatorA = subA.constantOptions[0][i];
+                separatorB = subB.constantOptions[0][i];
+            }
+        }
+        assertEquals(", ", separatorA);
+        assertSame(separatorA, separatorB);
+    }
+
+    @Test public void testPoolingCanBeTurnedOff() throws Exception {
+        CompiledST a = group(null).lookupTemplate("/t");
+        CompiledST b = group(null).lookupTemplate("/t");
+        assertNotSame(a.strings[0], b.strings[0]);
+        assertEquals(a.strings[0], b.strings[0]);
+    }
+
+    @Test public void testPoolingIsOffByDefault() throws Exception {
+        STGroup group = new STGroupString(templates);
+        assertNull(group.getStringPool());
+        CompiledST a = group.lookupTemplate("/t");
+        CompiledST b = new STGroupString(templates).lookupTemplate("/t");
+        assertNotSame(a.template, b.template);
+    }
+
+    @Test public void testPooledTemplatesRender() throws Exception {
+        ST st = group(new StringPool()).getInstanceOf("t");
+        st.add("name", "World");
+        assertEquals("Hello, World!", st.render());
+    }
+
+    @Test public void testIntern() throws Exception {
+        StringPool pool = new StringPool();
+        String a = new String("abc");
+        String b = new String("abc");
+        assertSame(a, pool.intern(a));
+        assertSame(a, pool.intern(b));
+        assertEquals(1, pool.size());
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.test;
+
+import org.junit.Test;
+import org.stringtemplate.v4.AttributeRenderer;
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.misc.ErrorBuffer;
+import org.stringtemplate.v4.misc.ErrorType;
+import org.stringtemplate.v4.misc.ThrottledErrorManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestThrottledErrorManager extends BaseTest {
+    static List<Integer> rows(int n) {
+        List<Integer> rows = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++) rows.add(i);
+        return rows;
+    }
+
+    @Test public void testRepeatedErrorReportedOnce() throws Exception {
+        ErrorBuffer errors = new ErrorBuffer();
+        ThrottledErrorManager errMgr = new ThrottledErrorManager(errors);
+        STGroup group = new STGroup();
+        group.errMgr = errMgr;
+        group.defineTemplate("t", "rows", "<rows:{r | <r><missing>}>");
+        ST st = group.getInstanceOf("t");
+        st.add("rows", rows(1000));
+        st.render();
+
+        assertEquals(1, errors.errors.size());
+        assertEquals(ErrorType.NO_SUCH_ATTRIBUTE, errors.errors.get(0).error);
+        assertEquals(1, errMgr.getSites().size());
+        ThrottledErrorManager.ErrorSite site = errMgr.getSites().get(0);
+        assertEquals(1000, site.getCount());
+        assertEquals(1, site.getReported());
+        assertEquals(999, errMgr.getSuppressedCount());
+        assertEquals(site.impl.name+" 1:15 NO_SUCH_ATTRIBUTE: 1000 times, 1 reported"+newline,
+                     errMgr.toString());
+    }
+
+    @Test public void testSitesCountedSeparately() throws Exception {
+        ErrorBuffer errors = new ErrorBuffer();
+        ThrottledErrorManager errMgr = new ThrottledErrorManager(errors, 2, 0);
+        STGroup group = new STGroup();
+        group.errMgr = errMgr;
+        group.defineTemplate("t", "rows", "<rows:{r | <a>}><rows:{r | <r><b>}; separator=\",\">");
+        ST st = group.getInstanceOf("t");
+        st.add("rows", rows(10));
+        assertEquals("0,1,2,3,4,5,6,7,8,9", st.render());
+
+        assertEquals(4, errors.errors.size());
+        assertEquals(2, errMgr.getSites().size());
+        assertEquals(10, errMgr.getSites().get(0).getCount());
+        assertEquals(10, errMgr.getSites().get(1).getCount());
+
+        errMgr.reset();
+        st.render();
+        assertEquals(8, errors.errors.size());
+    }
+
+    @Test public void testRateLimit() throws Exception {
+        ErrorBuffer errors = new ErrorBuffer();
+        ThrottledErrorManager errMgr = new ThrottledErrorManager(errors, Integer.MAX_VALUE, 5);
+        STGroup group = new STGroup();
+        group.errMgr = errMgr;
+        group.defineTemplate("t", "rows", "<rows:{r | <missing>}>");
+        ST st = group.getInstanceOf("t");
+        st.add("rows", rows(100));
+        st.render();
+
+        assertEquals(5, errors.errors.size());
+        assertEquals(100, errMgr.getSites().get(0).getCount());
+        assertEquals(95, errMgr.getSuppressedCount());
+    }
+
+    static AttributeRenderer<Integer> brokenRenderer() {
+        return new AttributeRenderer<Integer>() {
+            @Override
+            public String toString(Integer value, String formatString, Locale locale) {
+                throw new IllegalStateException("broken renderer");
+            }
+        };
+    }
+
+    @Test public void testInternalErrorsDeduplicated() throws Exception {
+        ErrorBuffer errors = new ErrorBuffer();
+        ThrottledErrorManager errMgr = new ThrottledErrorManager(errors);
+        STGroup group = new STGroup();
+        group.errMgr = errMgr;
+        group.registerRenderer(Integer.class, brokenRenderer());
+        group.defineTemplate("t", "rows", "<rows:{r | <r>}>");
+        ST st = group.getInstanceOf("t");
+        st.add("rows", rows(10));
+        st.render();
+
+        assertEquals(1, errors.errors.size());
+        assertEquals(ErrorType.INTERNAL_ERROR, errors.errors.get(0).error);
+        assertEquals(1, errMgr.getSites().size());
+        assertEquals(10, errMgr.getSites().get(0).getCount());
+        assertEquals(9, errMgr.getSuppressedCount());
+    }
+
+    @Test public void testFirstInternalErrorPastRateLimit() throws Exception {
+        ErrorBuffer errors = new ErrorBuffer();
+        ThrottledErrorManager errMgr = new ThrottledErrorManager(errors, 1, 1);
+        STGroup group = new STGroup();
+        group.errMgr = errMgr;
+        group.registerRenderer(Integer.class, brokenRenderer());
+        group.defineTemplate("t", "rows", "<rows:{r | <a><b><r>}>");
+        ST st = group.getInstanceOf("t");
+        st.add("rows", rows(3));
+        st.render();
+
+        assertEquals(2, errors.errors.size()); // <a> used up the rate; <b> didn't get through
+        assertEquals(ErrorType.NO_SUCH_ATTRIBUTE, errors.errors.get(0).error);
+        assertEquals(ErrorType.INTERNAL_ERROR, errors.errors.get(1).error);
+        assertEquals(3*3-2, errMgr.getSuppressedCount());
+    }
+
+    @Test public void testSiteTableIsBounded() throws Exception {
+        ErrorBuffer errors = new ErrorBuffer();
+        ThrottledErrorManager errMgr = new ThrottledErrorManager(errors, 1, 0, 2);
+        STGroup group = new STGroup();
+        group.errMgr = errMgr;
+        group.defineTemplate("t", "rows", "<rows:{r | <a><b><c><d>}>");
+        ST st = group.getInstanceOf("t");
+        st.add("rows", rows(10));
+        st.render();
+
+        assertEquals(2, errMgr.getSites().size());
+        assertEquals(20, errMgr.getUntrackedCount());
+        assertEquals(2+20, errors.errors.size()); // untracked sites are only rate limited
+        assertEquals(18, errMgr.getSuppressedCount());
+
+        errMgr.reset();
+        assertEquals(0, errMgr.getUntrackedCount());
+    }
+}
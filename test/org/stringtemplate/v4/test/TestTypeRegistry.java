@@ -4,7 +4,9 @@ import org.junit.Test;
 import org.stringtemplate.v4.misc.TypeRegistry;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class TestTypeRegistry {
     // https://github.com/antlr/stringtemplate4/issues/122
@@ -80,4 +82,15 @@ public class TestTypeRegistry {
         assertEquals("A", registry.get(A.class));
         assertEquals("B", registry.get(B.class));
     }
+
+    @Test
+    public void registryWithKeysThatAreNotClasses() {
+        TypeRegistry<String> registry = new TypeRegistry<String>();
+        registry.put(Object.class, "Object");
+        assertNull(registry.get(null));
+        assertNull(registry.get("A"));
+        assertFalse(registry.containsKey(null));
+        assertFalse(registry.containsKey("A"));
+        assertTrue(registry.containsKey(A.class));
+    }
 }